@@ -0,0 +1,35 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+# Indicate the path of the java compiler to use
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+LIB=$DIR/../../lib/pg73jdbc3.jar
+CLASSES=$DIR/../classes
+
+# compile the application together with the benchmarks
+mkdir -p $CLASSES
+javac -cp $LIB -d $CLASSES $DIR/../../src/*.java $DIR/../src/*.java
+
+# run every benchmark against each scaled database made by prepare_scale.sh
+#   bench.sh 1 10 100
+# -Dbench.filter=<regex> -Dbench.warmup=3 -Dbench.iterations=5 -Dbench.time=1000
+SCALES=${@:-1}
+TARGETS=""
+for s in $SCALES; do TARGETS="$TARGETS $s:${USER}_DB_x$s"; done
+java $BENCH_OPTS -Dprofnetwork.migrations=$DIR/../../../sql/migrations -cp $CLASSES:$LIB ProfNetworkBench $PGPORT $USER $TARGETS
+
+# original hash indexes against sql/migrations/V1 (leaves the V1 indexes)
+#   INDEX_BENCH=1 bench.sh 1 10
+if [ -n "$INDEX_BENCH" ]; then
+   java $BENCH_OPTS -cp $CLASSES:$LIB IndexBench $PGPORT $USER $DIR/../../../sql/migrations $TARGETS
+fi
+
+# char(30) user ids against the surrogate keys of sql/migrations/V3
+#   KEY_BENCH=1 bench.sh 1 10
+if [ -n "$KEY_BENCH" ]; then
+   java $BENCH_OPTS -cp $CLASSES:$LIB UserKeyBench $PGPORT $USER $DIR/../../../sql/migrations $TARGETS
+fi
+
+# the in-memory connection graph needs no database
+#   BENCH_OPTS="-Dbench.edges=1000000" bench.sh
+java $BENCH_OPTS -cp $CLASSES SocialGraphBench
@@ -0,0 +1,16 @@
+#!/bin/bash
+# Creates and loads <user>_DB_x<scale>, a copy of the data/*.csv network
+# scaled up <scale> times, for the benchmarks. The benchmarks apply
+# sql/migrations to it before they start.
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+SQL=$DIR/../../../sql/src
+SCALE=${1:-1}
+MESSAGES=${2:-5}
+DB=$USER"_DB_x"$SCALE
+
+createdb -h localhost -p $PGPORT $DB
+psql -h localhost -p $PGPORT $DB < $SQL/create_tables.sql
+psql -h localhost -p $PGPORT $DB < $SQL/create_indexes.sql
+psql -h localhost -p $PGPORT $DB < $SQL/load_data.sql
+psql -h localhost -p $PGPORT $DB < $SQL/trigger.sql
+psql -h localhost -p $PGPORT -v scale=$SCALE -v messages=$MESSAGES $DB < $SQL/scale_data.sql
@@ -0,0 +1,250 @@
+/*
+ * ProfNetwork Index Benchmark
+ * ===========================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the original single-column hash indexes with the query shaped
+ * indexes of sql/migrations/V1__query_shaped_indexes.sql on the same
+ * database. For each index set it reports
+ *
+ *    the total size of the indexes of the five tables,
+ *    write amplification: WAL bytes and time per row of a fixed write
+ *    mix (new messages and requests, deletes, accepts), rolled back,
+ *    read latency of the query templates the indexes were chosen for.
+ *
+ * The database is left with the indexes of the migrations. Settings are those of
+ * ProfNetworkBench, plus bench.writes (rows per write mix, default 2000).
+ *
+ */
+public class IndexBench {
+
+   // the indexes of create_indexes.sql before V1
+   static final String LEGACY =
+      "DROP INDEX IF EXISTS MESSAGE_receiver_inbox_index;" +
+      "DROP INDEX IF EXISTS MESSAGE_sender_inbox_index;" +
+      "DROP INDEX IF EXISTS CONNECTION_USR_accept_out_index;" +
+      "DROP INDEX IF EXISTS CONNECTION_USR_accept_in_index;" +
+      "DROP INDEX IF EXISTS CONNECTION_USR_request_in_index;" +
+      "CREATE INDEX USR_userId_index ON USR USING hash(userId);" +
+      "CREATE INDEX USR_password_index ON USR USING hash(password);" +
+      "CREATE INDEX USR_email_index ON USR USING hash(email);" +
+      "CREATE INDEX USR_name_index ON USR USING btree(userId);" +
+      "CREATE INDEX USR_dateOfBirth_index ON USR USING hash(dateOfBirth);" +
+      "CREATE INDEX WORK_EXPR_userId_index ON WORK_EXPR USING hash(userId);" +
+      "CREATE INDEX WORK_EXPR_company_index ON WORK_EXPR USING hash(company);" +
+      "CREATE INDEX WORK_EXPR_role_index ON WORK_EXPR USING hash(role);" +
+      "CREATE INDEX WORK_EXPR_location_index ON WORK_EXPR USING hash(location);" +
+      "CREATE INDEX WORK_EXPR_startDate_index ON WORK_EXPR USING btree(startDate);" +
+      "CREATE INDEX WORK_EXPR_endDate_index ON WORK_EXPR USING btree(endDate);" +
+      "CREATE INDEX EDUCATIONAL_DETAILS_userId_index ON EDUCATIONAL_DETAILS USING hash(userId);" +
+      "CREATE INDEX EDUCATIONAL_DETAILS_institutionName_index ON EDUCATIONAL_DETAILS USING btree(institutionName);" +
+      "CREATE INDEX EDUCATIONAL_DETAILS_major_index ON EDUCATIONAL_DETAILS USING hash(major);" +
+      "CREATE INDEX EDUCATIONAL_DETAILS_degree_index ON EDUCATIONAL_DETAILS USING hash(degree);" +
+      "CREATE INDEX EDUCATIONAL_DETAILS_startdate_index ON EDUCATIONAL_DETAILS USING btree(startdate);" +
+      "CREATE INDEX EDUCATIONAL_DETAILS_enddate_index ON EDUCATIONAL_DETAILS USING btree(enddate);" +
+      "CREATE INDEX MESSAGE_msgId_index ON MESSAGE USING hash(msgId);" +
+      "CREATE INDEX MESSAGE_senderId_sendTime_index ON MESSAGE USING btree(senderId, sendTime, msgId);" +
+      "CREATE INDEX MESSAGE_receiverId_sendTime_index ON MESSAGE USING btree(receiverId, sendTime, msgId);" +
+      "CREATE INDEX MESSAGE_sendTime_index ON MESSAGE USING btree(sendTime);" +
+      "CREATE INDEX MESSAGE_deleteStatus_index ON MESSAGE USING hash(deleteStatus);" +
+      "CREATE INDEX MESSAGE_status_index ON MESSAGE USING hash(status);" +
+      "CREATE INDEX CONNECTION_USR_userId_index ON CONNECTION_USR USING hash(userId);" +
+      "CREATE INDEX CONNECTION_USR_connectionId_index ON CONNECTION_USR USING hash(connectionId);" +
+      "CREATE INDEX CONNECTION_USR_status_index ON CONNECTION_USR USING hash(status);" +
+      "ANALYZE";
+
+   static final String INDEX_SIZE =
+      "SELECT COALESCE(SUM(pg_relation_size(I.indexrelid)), 0) FROM pg_index I, pg_class C " +
+      "WHERE I.indrelid = C.oid AND C.relname IN ('usr', 'work_expr', 'educational_details', 'message', 'connection_usr')";
+
+   static final String REQUESTS_IN =
+      "SELECT userId, status FROM CONNECTION_USR WHERE (connectionId = ?) AND status = 'Request'";
+   static final String REQUEST_CHECK =
+      "SELECT * FROM CONNECTION_USR WHERE userId = ? AND connectionId = ? AND status = 'Reject'";
+   static final String LOGIN =
+      "SELECT * FROM USR WHERE userId = ? AND password = ?";
+
+   /**
+    * @return the read benchmarks: the templates the V1 indexes target
+    */
+   static List<ProfNetworkBench.Benchmark> reads () {
+      List<ProfNetworkBench.Benchmark> all = new ArrayList<ProfNetworkBench.Benchmark>();
+      Pattern shaped = Pattern.compile("query\\.(friendListPage|profileLoad|inboxFirstPage|inboxDeepPage)");
+      for (ProfNetworkBench.Benchmark b : ProfNetworkBench.suite())
+         if (shaped.matcher(b.name).matches())
+            all.add(b);
+      all.add(new ProfNetworkBench.Benchmark("query.viewRequests") {
+         void run (ProfNetworkBench.Fixture f) throws Exception {
+            f.esql.executeQueryAndReturnResult(REQUESTS_IN, f.user());
+         }
+      });
+      all.add(new ProfNetworkBench.Benchmark("query.sendRequestCheck") {
+         void run (ProfNetworkBench.Fixture f) throws Exception {
+            f.esql.executeQuery(REQUEST_CHECK, f.user(), f.user());
+         }
+      });
+      all.add(new ProfNetworkBench.Benchmark("query.login") {
+         void run (ProfNetworkBench.Fixture f) throws Exception {
+            f.esql.executeQuery(LOGIN, f.user(), "password");
+         }
+      });
+      return all;
+   }//end reads
+
+   /**
+    * Runs the write mix in one transaction that is rolled back, and prints
+    * the WAL it generated and the time it took per row.
+    */
+   static void writes (ProfNetwork esql, String[] users, int rows, String label) throws SQLException {
+      Random random = new Random(7);
+      ConnectionPool.PooledConnection conn = esql.getPool().borrow();
+      boolean failed = true;
+      try{
+         Connection db = conn.getConnection();
+         db.setAutoCommit(false);
+         Statement stmt = db.createStatement();
+         ResultSet rs = stmt.executeQuery("SELECT pg_current_wal_lsn(), COALESCE(MAX(msgId), 0) FROM MESSAGE");
+         rs.next();
+         String lsn = rs.getString(1);
+         int msgId = rs.getInt(2) + 1000000;
+         rs.close();
+         long start = System.nanoTime();
+         PreparedStatement message = db.prepareStatement(
+               "INSERT INTO MESSAGE (msgId, senderId, senderUid, receiverId, receiverUid, contents, sendTime, deleteStatus, status) " +
+               "VALUES (?, ?, ?, ?, ?, 'index bench', ?, 3, 'Delivered')");
+         PreparedStatement request = db.prepareStatement(
+               "INSERT INTO CONNECTION_USR (userId, userUid, connectionId, connectionUid, status) " +
+               "VALUES (?, ?, ?, ?, 'Request') ON CONFLICT DO NOTHING");
+         PreparedStatement accept = db.prepareStatement(
+               "UPDATE CONNECTION_USR SET status = 'Accept' WHERE userId = ? AND connectionId = ? AND status = 'Request'");
+         PreparedStatement delete = db.prepareStatement(
+               "UPDATE MESSAGE SET deleteStatus = 2 WHERE msgId = ?");
+         try{
+            for (int i = 0; i < rows; ++i) {
+               String from = users[random.nextInt(users.length)];
+               String to = users[random.nextInt(users.length)];
+               int fromUid = esql.getDirectory().uidOf(from);
+               int toUid = esql.getDirectory().uidOf(to);
+               message.setInt(1, msgId + i);
+               message.setString(2, from);
+               message.setInt(3, fromUid);
+               message.setString(4, to);
+               message.setInt(5, toUid);
+               message.setTimestamp(6, new Timestamp(System.currentTimeMillis()));
+               message.executeUpdate();
+               if (i % 2 == 0) {
+                  delete.setInt(1, msgId + i);
+                  delete.executeUpdate();
+               }//end if
+               if (from.equals(to))
+                  continue;
+               request.setString(1, from);
+               request.setInt(2, fromUid);
+               request.setString(3, to);
+               request.setInt(4, toUid);
+               request.executeUpdate();
+               if (i % 2 == 1) {
+                  accept.setString(1, from);
+                  accept.setString(2, to);
+                  accept.executeUpdate();
+               }//end if
+            }//end for
+         }finally{
+            message.close();
+            request.close();
+            accept.close();
+            delete.close();
+         }//end try
+         long elapsed = System.nanoTime() - start;
+         rs = stmt.executeQuery("SELECT pg_wal_lsn_diff(pg_current_wal_lsn(), CAST('" + lsn + "' AS pg_lsn))");
+         rs.next();
+         long wal = rs.getLong(1);
+         rs.close();
+         stmt.close();
+         db.rollback();
+         System.out.println(String.format("%-26s %6s %8d %12.1f %10s %10s %10.0f",
+               label + " writes", "", rows, elapsed / 1e3 / rows, "", "", (double) wal / rows));
+         failed = false;
+      }finally{
+         esql.getPool().release(conn, failed);
+      }//end try
+   }//end writes
+
+   static void measure (String label, ProfNetworkBench.Fixture fixture, int warmup, int iterations,
+                        long iterationNanos, int rows) throws Exception {
+      List<List<String>> size = fixture.esql.executeQueryAndReturnResult(INDEX_SIZE);
+      System.out.println(String.format("%-26s %6s %8s %12s %10s %10s %10.1f",
+            label + " index MB", "", "", "", "", "", Long.parseLong(size.get(0).get(0).trim()) / 1048576.0));
+      writes(fixture.esql, fixture.users, rows, label);
+      for (final ProfNetworkBench.Benchmark b : reads()) {
+         ProfNetworkBench.measure(new ProfNetworkBench.Benchmark(label + " " + b.name) {
+            void setup (ProfNetworkBench.Fixture f) throws Exception { b.setup(f); }
+            void run (ProfNetworkBench.Fixture f) throws Exception { b.run(f); }
+         }, fixture, warmup, iterations, iterationNanos);
+      }//end for
+   }//end measure
+
+   /**
+    * The benchmark entry point
+    *
+    * @param args <port> <user> <migrations dir> <scale>:<dbname> ...
+    */
+   public static void main (String[] args) throws Exception {
+      if (args.length < 4) {
+         System.err.println("Usage: java IndexBench <port> <user> <migrations dir> <scale>:<dbname> ...");
+         return;
+      }//end if
+      int warmup = Integer.getInteger("bench.warmup", 3).intValue();
+      int iterations = Integer.getInteger("bench.iterations", 5).intValue();
+      long iterationNanos = Long.getLong("bench.time", 1000L).longValue() * 1000000L;
+      int rows = Integer.getInteger("bench.writes", 2000).intValue();
+      File v1 = new File(args[2], "V1__query_shaped_indexes.sql");
+      File v7 = new File(args[2], "V7__application_written_uids.sql");
+
+      Class.forName ("org.postgresql.Driver").newInstance ();
+      System.out.println("writes: us/row in the avg column, WAL bytes/row in the last one");
+      System.out.println(String.format("%-26s %6s %8s %12s %10s %10s %10s",
+            "benchmark", "scale", "ops", "avg us/op", "+- us", "p50 us", "p99 us"));
+      for (int i = 3; i < args.length; ++i) {
+         String[] target = args[i].split(":", 2);
+         int scale = Integer.parseInt(target[0]);
+         ProfNetwork esql = new ProfNetwork(target[1], args[0], args[1], "");
+         try{
+            ProfNetworkBench.Fixture fixture = new ProfNetworkBench.Fixture(esql, scale);
+            fixture.load();
+            SqlScript.run(esql.getPool(), SqlScript.read(v1));
+            SqlScript.run(esql.getPool(), LEGACY);
+            measure("legacy", fixture, warmup, iterations, iterationNanos, rows);
+            SqlScript.run(esql.getPool(), SqlScript.read(v1));
+            measure("v1", fixture, warmup, iterations, iterationNanos, rows);
+            // V1 brought back the char(30) indexes V7 replaced by uid ones
+            SqlScript.run(esql.getPool(), SqlScript.read(v7));
+         }finally{
+            Session.unbind();
+            esql.cleanup();
+         }//end try
+      }//end for
+   }//end main
+
+}//end IndexBench
@@ -0,0 +1,307 @@
+/*
+ * ProfNetwork Query Benchmarks
+ * ============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Micro-benchmarks of the ProfNetwork query helpers and menu operations,
+ * run against local PostgreSQL databases loaded from data/*.csv and
+ * scaled with sql/src/scale_data.sql (see scripts/prepare_scale.sh).
+ * The missing sql/migrations are applied to each database first, as the
+ * application does at start.
+ *
+ * Like JMH, each benchmark runs warmup iterations that are thrown away,
+ * then measurement iterations of a fixed duration; the score is the mean
+ * time per operation over the measurement iterations together with its
+ * standard deviation and the p50/p99 of the single operations.
+ *
+ * Settings (system properties):
+ *    bench.warmup      warmup iterations (default 3)
+ *    bench.iterations  measurement iterations (default 5)
+ *    bench.time        duration of one iteration in ms (default 1000)
+ *    bench.filter      regular expression selecting benchmarks by name
+ *    profnetwork.migrations  the migrations directory (default sql/migrations)
+ *
+ */
+public class ProfNetworkBench {
+
+   /**
+    * A benchmark body. setup() runs once per database, run() once per
+    * measured operation.
+    */
+   static abstract class Benchmark {
+      final String name;
+
+      Benchmark (String name) {
+         this.name = name;
+      }//end Benchmark
+
+      void setup (Fixture fixture) throws Exception { }
+
+      abstract void run (Fixture fixture) throws Exception;
+   }//end Benchmark
+
+   /**
+    * The database under test and the inputs the benchmarks draw from.
+    */
+   static class Fixture {
+      final ProfNetwork esql;
+      final int scale;
+      final WorkloadReplay replay;
+      final Random random = new Random(42);
+      String[] users = new String[0];
+      String[] names = new String[0];
+
+      Fixture (ProfNetwork esql, int scale) {
+         this.esql = esql;
+         this.scale = scale;
+         this.replay = new WorkloadReplay(esql, new ArrayList<WorkloadReplay.Operation>());
+      }//end Fixture
+
+      /**
+       * Samples users that have accepted connections and name fragments
+       * that occur in USR.
+       */
+      void load () throws Exception {
+         List<List<String>> rows = this.esql.executeQueryAndReturnResult(
+               "SELECT userId FROM CONNECTION_USR WHERE status = 'Accept' LIMIT ?", 1000);
+         this.users = new String[rows.size()];
+         for (int i = 0; i < rows.size(); ++i)
+            this.users[i] = rows.get(i).get(0).trim();
+         rows = this.esql.executeQueryAndReturnResult("SELECT name FROM USR LIMIT ?", 1000);
+         List<String> fragments = new ArrayList<String>();
+         for (List<String> row : rows) {
+            String name = row.get(0) == null ? "" : row.get(0).trim();
+            int space = name.lastIndexOf(' ');
+            if (space > 0 && name.length() - space > 3)
+               fragments.add(name.substring(space + 1));
+         }//end for
+         this.names = fragments.toArray(new String[fragments.size()]);
+         if (this.users.length == 0 || this.names.length == 0)
+            throw new IllegalStateException("database has no accepted connections or names to sample");
+      }//end load
+
+      String user () { return this.users[this.random.nextInt(this.users.length)]; }
+      String name () { return this.names[this.random.nextInt(this.names.length)]; }
+   }//end Fixture
+
+   // swallows what the menus print while being measured
+   static final PrintStream DISCARD = new PrintStream(new OutputStream() {
+      public void write (int b) { }
+      public void write (byte[] b, int off, int len) { }
+   });
+
+   /**
+    * @return the parameters of the first inbox page of a user, as Inbox.page binds them
+    */
+   static Object[] inboxPage (Fixture f) throws SQLException {
+      Integer uid = Integer.valueOf(f.esql.getDirectory().uidOf(f.user()));
+      Integer msgId = Integer.valueOf(Inbox.FIRST.msgId);
+      Integer limit = Integer.valueOf(ProfNetwork.INBOX_PAGE_SIZE);
+      return new Object[] { uid, Inbox.NEWEST, msgId, limit, uid, Inbox.NEWEST, msgId, limit, limit };
+   }//end inboxPage
+
+   /**
+    * @return the parameters of the first friend list page of a user, as ProfNetwork.printFriends binds them
+    */
+   static Object[] friendPage (Fixture f) throws SQLException {
+      Integer uid = Integer.valueOf(f.esql.getDirectory().uidOf(f.user()));
+      Integer first = Integer.valueOf(-1);
+      Integer limit = Integer.valueOf(Session.PAGE_SIZE + 1);
+      return new Object[] { uid, first, limit, uid, first, limit, limit };
+   }//end friendPage
+
+   /**
+    * @return every benchmark of the suite
+    */
+   static List<Benchmark> suite () {
+      List<Benchmark> all = new ArrayList<Benchmark>();
+      all.add(new Benchmark("materialize.returnResult") {
+         void run (Fixture f) throws Exception {
+            f.esql.executeQueryAndReturnResult(Inbox.PAGE_QUERY, inboxPage(f));
+         }
+      });
+      all.add(new Benchmark("materialize.printResult") {
+         void run (Fixture f) throws Exception {
+            silence();
+            f.esql.executeQueryAndPrintResult(Inbox.PAGE_QUERY, inboxPage(f));
+         }
+      });
+      all.add(new Benchmark("menu.viewProfile") {
+         void run (Fixture f) throws Exception {
+            f.replay.replay(op("view"), new String[] { f.user() }, f.user());
+         }
+      });
+      all.add(new Benchmark("query.profileLoad") {
+         void run (Fixture f) throws Exception {
+            Profile.load(f.esql, f.user(), f.user());
+         }
+      });
+      all.add(new Benchmark("menu.friendList") {
+         void run (Fixture f) throws Exception {
+            f.replay.replay(op("friends"), new String[0], f.user());
+         }
+      });
+      all.add(new Benchmark("query.friendListPage") {
+         void run (Fixture f) throws Exception {
+            f.esql.executeQueryAndReturnResult(ProfNetwork.FRIENDS_PAGE_QUERY, friendPage(f));
+         }
+      });
+      all.add(new Benchmark("menu.viewMessages") {
+         void run (Fixture f) throws Exception {
+            f.replay.replay(op("inbox"), new String[0], f.user());
+         }
+      });
+      all.add(new Benchmark("query.inboxFirstPage") {
+         void run (Fixture f) throws Exception {
+            Inbox.page(f.esql, f.esql.getDirectory().uidOf(f.user()), Inbox.FIRST, ProfNetwork.INBOX_PAGE_SIZE);
+         }
+      });
+      all.add(new Benchmark("query.inboxDeepPage") {
+         int user;
+         Inbox.Key key;
+
+         // walks the busiest sampled inbox as deep as it goes, up to page 500
+         void setup (Fixture f) throws Exception {
+            List<List<String>> rows = f.esql.executeQueryAndReturnResult(
+                  "SELECT receiverUid FROM MESSAGE GROUP BY receiverUid ORDER BY COUNT(*) DESC LIMIT ?", 1);
+            this.user = rows.isEmpty() ? f.esql.getDirectory().uidOf(f.user()) : Integer.parseInt(rows.get(0).get(0));
+            this.key = Inbox.FIRST;
+            for (int p = 1; p < 500; ++p) {
+               List<List<String>> page = Inbox.page(f.esql, this.user, this.key, ProfNetwork.INBOX_PAGE_SIZE);
+               if (page.size() < ProfNetwork.INBOX_PAGE_SIZE)
+                  break;
+               this.key = Inbox.keyAfter(page);
+            }//end for
+         }
+         void run (Fixture f) throws Exception {
+            Inbox.page(f.esql, this.user, this.key, ProfNetwork.INBOX_PAGE_SIZE);
+         }
+      });
+      all.add(new Benchmark("menu.searchPeople") {
+         void run (Fixture f) throws Exception {
+            f.replay.replay(op("search"), new String[] { f.name() }, f.user());
+         }
+      });
+      all.add(new Benchmark("query.searchPrefix") {
+         void run (Fixture f) throws Exception {
+            String name = f.name();
+            f.esql.executeQueryAndReturnResult(PeopleSearch.SEARCH_QUERY,
+                  PeopleSearch.parameters(name.substring(0, Math.min(3, name.length())) + "*",
+                                          PeopleSearch.DEFAULT_LIMIT));
+         }
+      });
+      return all;
+   }//end suite
+
+   static WorkloadReplay.Operation op (String name) {
+      return new WorkloadReplay.Operation(name, new String[0]);
+   }//end op
+
+   /**
+    * Binds a session that discards output and has no input.
+    */
+   static void silence () {
+      new Session(new BufferedReader(new StringReader("")), DISCARD, DISCARD).bind();
+   }//end silence
+
+   /**
+    * Measures one benchmark and prints its result line.
+    */
+   static void measure (Benchmark b, Fixture f, int warmup, int iterations, long iterationNanos) throws Exception {
+      b.setup(f);
+      long[] samples = new long[1024];
+      int count = 0;
+      double[] means = new double[iterations];
+      for (int it = -warmup; it < iterations; ++it) {
+         long end = System.nanoTime() + iterationNanos;
+         long ops = 0;
+         long total = 0;
+         while (System.nanoTime() < end) {
+            long start = System.nanoTime();
+            b.run(f);
+            long elapsed = System.nanoTime() - start;
+            total += elapsed;
+            ++ops;
+            if (it >= 0) {
+               if (count == samples.length)
+                  samples = Arrays.copyOf(samples, count * 2);
+               samples[count++] = elapsed;
+            }//end if
+         }//end while
+         if (it >= 0)
+            means[it] = ops == 0 ? 0.0 : total / 1e3 / ops;
+      }//end for
+
+      double mean = 0.0;
+      for (double m : means) mean += m;
+      mean /= iterations;
+      double var = 0.0;
+      for (double m : means) var += (m - mean) * (m - mean);
+      double stddev = iterations > 1 ? Math.sqrt(var / (iterations - 1)) : 0.0;
+      long[] sorted = Arrays.copyOf(samples, count);
+      Arrays.sort(sorted);
+      System.out.println(String.format("%-26s %6d %8d %12.1f %10.1f %10.1f %10.1f",
+            b.name, f.scale, count, mean, stddev,
+            WorkloadReplay.percentile(sorted, 0.50) * 1e3,
+            WorkloadReplay.percentile(sorted, 0.99) * 1e3));
+   }//end measure
+
+   /**
+    * The benchmark entry point
+    *
+    * @param args <port> <user> <scale>:<dbname> ...
+    */
+   public static void main (String[] args) throws Exception {
+      if (args.length < 3) {
+         System.err.println("Usage: java ProfNetworkBench <port> <user> <scale>:<dbname> ...");
+         return;
+      }//end if
+      int warmup = Integer.getInteger("bench.warmup", 3).intValue();
+      int iterations = Integer.getInteger("bench.iterations", 5).intValue();
+      long iterationNanos = Long.getLong("bench.time", 1000L).longValue() * 1000000L;
+      Pattern filter = Pattern.compile(System.getProperty("bench.filter", ".*"));
+
+      Class.forName ("org.postgresql.Driver").newInstance ();
+      System.out.println(String.format("%-26s %6s %8s %12s %10s %10s %10s",
+            "benchmark", "scale", "ops", "avg us/op", "+- us", "p50 us", "p99 us"));
+      for (int i = 2; i < args.length; ++i) {
+         String[] target = args[i].split(":", 2);
+         int scale = Integer.parseInt(target[0]);
+         ProfNetwork esql = new ProfNetwork(target[1], args[0], args[1], "");
+         try{
+            // the queries expect the migrated schema (uid columns, indexes)
+            SchemaMigrator.migrate(esql, System.out);
+            Fixture fixture = new Fixture(esql, scale);
+            fixture.load();
+            for (Benchmark b : suite()) {
+               if (filter.matcher(b.name).find())
+                  measure(b, fixture, warmup, iterations, iterationNanos);
+            }//end for
+         }finally{
+            Session.unbind();
+            esql.cleanup();
+         }//end try
+      }//end for
+   }//end main
+
+}//end ProfNetworkBench
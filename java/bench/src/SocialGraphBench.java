@@ -0,0 +1,187 @@
+/*
+ * ProfNetwork Connection Graph Benchmark
+ * ======================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Benchmarks SocialGraph on a synthetic network, without a database.
+ *
+ * Users are laid out on a ring and connected to a few near neighbours
+ * plus random long range contacts, which gives the small diameter and the
+ * clustering of a real social network; the first bench.hubs users are
+ * hubs with bench.hubDegree random contacts. Reported are the build time,
+ * the heap used by the graph, the latency of distance and shortestPath
+ * queries for random pairs and of mutual connection counts between random
+ * users, a hub and a random user, and two hubs, and the time to write
+ * the graph to a GraphSnapshot file and open it again.
+ *
+ * Settings (system properties):
+ *    bench.edges      number of edges (default 1000000)
+ *    bench.degree     average degree (default 20)
+ *    bench.queries    number of measured queries (default 100000)
+ *    bench.hubs       number of hub users (default 2)
+ *    bench.hubDegree  random contacts of every hub (default 20000)
+ *
+ */
+public class SocialGraphBench {
+
+   static SocialGraph synthetic (int users, int edges, int hubs, int hubDegree, Random random) {
+      SocialGraph.Builder builder = new SocialGraph.Builder();
+      String[] names = new String[users];
+      for (int u = 0; u < users; ++u)
+         names[u] = "user" + u;
+      for (int u = 0; u < users; ++u)
+         builder.intern(names[u]);
+      for (int e = 0; e < edges; ++e) {
+         int a = random.nextInt(users);
+         // three in four edges stay within the neighbourhood on the ring
+         int b = random.nextInt(4) == 0 ? random.nextInt(users)
+                                        : (a + 1 + random.nextInt(16)) % users;
+         builder.addEdge(a, b);
+      }//end for
+      for (int h = 0; h < Math.min(hubs, users); ++h)
+         for (int e = 0; e < hubDegree; ++e)
+            builder.addEdge(h, random.nextInt(users));
+      return builder.build();
+   }//end synthetic
+
+   static long usedHeap () {
+      Runtime rt = Runtime.getRuntime();
+      for (int i = 0; i < 3; ++i)
+         System.gc();
+      return rt.totalMemory() - rt.freeMemory();
+   }//end usedHeap
+
+   static void report (String name, long[] nanos, int[] found) {
+      Arrays.sort(nanos);
+      long total = 0;
+      for (long n : nanos) total += n;
+      System.out.println(String.format("%-14s %8d %10.2f %10.2f %10.2f %10.2f   reached d1..3: %d/%d/%d, farther: %d",
+            name, nanos.length, total / 1e3 / nanos.length,
+            WorkloadReplay.percentile(nanos, 0.50) * 1e3,
+            WorkloadReplay.percentile(nanos, 0.99) * 1e3,
+            WorkloadReplay.percentile(nanos, 1.0) * 1e3,
+            found[1], found[2], found[3], found[0]));
+   }//end report
+
+   public static void main (String[] args) throws IOException {
+      int edges = Integer.getInteger("bench.edges", 1000000).intValue();
+      int degree = Integer.getInteger("bench.degree", 20).intValue();
+      int queries = Integer.getInteger("bench.queries", 100000).intValue();
+      int hubs = Integer.getInteger("bench.hubs", 2).intValue();
+      int hubDegree = Integer.getInteger("bench.hubDegree", 20000).intValue();
+      int users = Math.max(2, 2 * edges / degree);
+      Random random = new Random(42);
+
+      long before = usedHeap();
+      long start = System.nanoTime();
+      SocialGraph graph = synthetic(users, edges, hubs, hubDegree, random);
+      long build = System.nanoTime() - start;
+      long heap = usedHeap() - before;
+      System.out.println(String.format("%d users, %d edges built in %.1f ms, ~%.1f MB heap",
+            graph.userCount(), graph.edgeCount(), build / 1e6, heap / 1048576.0));
+
+      String[] from = new String[queries];
+      String[] to = new String[queries];
+      for (int q = 0; q < queries; ++q) {
+         int a = random.nextInt(users);
+         // half the pairs are nearby, so every distance shows up
+         int b = random.nextBoolean() ? random.nextInt(users) : (a + 1 + random.nextInt(64)) % users;
+         from[q] = graph.nameOf(a);
+         to[q] = graph.nameOf(b);
+      }//end for
+
+      // warmup
+      for (int q = 0; q < queries; ++q)
+         graph.distance(from[q], to[q], ProfNetwork.MAX_CONNECTION_LEVEL);
+
+      System.out.println(String.format("%-14s %8s %10s %10s %10s %10s",
+            "query", "ops", "avg us/op", "p50 us", "p99 us", "max us"));
+      long[] nanos = new long[queries];
+      int[] found = new int[ProfNetwork.MAX_CONNECTION_LEVEL + 1];
+      for (int q = 0; q < queries; ++q) {
+         long t = System.nanoTime();
+         int d = graph.distance(from[q], to[q], ProfNetwork.MAX_CONNECTION_LEVEL);
+         nanos[q] = System.nanoTime() - t;
+         ++found[Math.max(0, d)];
+      }//end for
+      report("distance", nanos, found);
+
+      nanos = new long[queries];
+      found = new int[ProfNetwork.MAX_CONNECTION_LEVEL + 1];
+      for (int q = 0; q < queries; ++q) {
+         long t = System.nanoTime();
+         String[] path = graph.shortestPath(from[q], to[q], ProfNetwork.MAX_CONNECTION_LEVEL);
+         nanos[q] = System.nanoTime() - t;
+         ++found[path == null ? 0 : path.length - 1];
+      }//end for
+      report("shortestPath", nanos, found);
+
+      String hub = graph.nameOf(0);
+      String otherHub = graph.nameOf(Math.min(1, users - 1));
+      mutual(graph, "mutual", from, to);
+      String[] hubs1 = new String[queries];
+      String[] hubs2 = new String[queries];
+      Arrays.fill(hubs1, hub);
+      mutual(graph, "mutualHub", hubs1, to);
+      Arrays.fill(hubs2, otherHub);
+      mutual(graph, "mutualHubHub", hubs1, hubs2);
+
+      snapshot(graph);
+   }//end main
+
+   /**
+    * Times writing the graph to a snapshot file and opening it again.
+    */
+   static void snapshot (SocialGraph graph) throws IOException {
+      File file = File.createTempFile("bench", ".snap");
+      try{
+         long start = System.nanoTime();
+         GraphSnapshot.write(graph, file);
+         long write = System.nanoTime() - start;
+         start = System.nanoTime();
+         SocialGraph opened = GraphSnapshot.open(file);
+         long open = System.nanoTime() - start;
+         System.out.println(String.format("snapshot: %.1f MB, written in %.1f ms, opened in %.1f ms (%d users)",
+               file.length() / 1048576.0, write / 1e6, open / 1e6, opened.userCount()));
+      }finally{
+         file.delete();
+      }//end try
+   }//end snapshot
+
+   static void mutual (SocialGraph graph, String name, String[] from, String[] to) {
+      for (int q = 0; q < from.length; ++q)
+         graph.mutual(from[q], to[q], ProfNetwork.MUTUAL_SAMPLE);
+      long[] nanos = new long[from.length];
+      long common = 0;
+      for (int q = 0; q < from.length; ++q) {
+         long t = System.nanoTime();
+         SocialGraph.Mutual m = graph.mutual(from[q], to[q], ProfNetwork.MUTUAL_SAMPLE);
+         nanos[q] = System.nanoTime() - t;
+         common += m.count;
+      }//end for
+      Arrays.sort(nanos);
+      long total = 0;
+      for (long n : nanos) total += n;
+      System.out.println(String.format("%-14s %8d %10.2f %10.2f %10.2f %10.2f   degrees %d/%d, mean mutual %.1f",
+            name, nanos.length, total / 1e3 / nanos.length,
+            WorkloadReplay.percentile(nanos, 0.50) * 1e3,
+            WorkloadReplay.percentile(nanos, 0.99) * 1e3,
+            WorkloadReplay.percentile(nanos, 1.0) * 1e3,
+            graph.degree(from[0]), graph.degree(to[0]), (double) common / from.length));
+   }//end mutual
+
+}//end SocialGraphBench
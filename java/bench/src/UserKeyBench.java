@@ -0,0 +1,181 @@
+/*
+ * ProfNetwork User Key Benchmark
+ * ==============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the char(30) user ids with the surrogate integer keys of
+ * sql/migrations/V3__user_surrogate_key.sql and V5__child_table_uids.sql
+ * on the same database:
+ *
+ *    the size of the accepted connection and inbox indexes on each kind
+ *    of key,
+ *    the friend list joined on userId (two statements, as before V3)
+ *    and on uid (one statement),
+ *    the first inbox page and the profile page read by userId and by uid,
+ *    loading the connection graph from padded strings and from uids.
+ *
+ * The migrations are applied first, then the char(30) indexes V7 dropped
+ * are rebuilt for the duration of the run so both sides read by index. Settings are those of
+ * ProfNetworkBench; run it against the x10 database of prepare_scale.sh
+ * to see the difference at scale.
+ *
+ */
+public class UserKeyBench {
+
+   static final String INDEX_SIZE = "SELECT pg_relation_size(CAST(? AS regclass))";
+
+   // the char(30) indexes of V1 that V7 dropped, rebuilt for the userId side
+   static final String[] STRING_INDEXES = {
+      "CREATE INDEX IF NOT EXISTS MESSAGE_receiver_inbox_index ON MESSAGE " +
+         "USING btree(receiverId, sendTime, msgId) WHERE deleteStatus IN (1, 3)",
+      "CREATE INDEX IF NOT EXISTS MESSAGE_sender_inbox_index ON MESSAGE " +
+         "USING btree(senderId, sendTime, msgId) WHERE deleteStatus IN (2, 3)",
+      "CREATE INDEX IF NOT EXISTS CONNECTION_USR_accept_out_index ON CONNECTION_USR " +
+         "USING btree(userId, connectionId) WHERE status = 'Accept'",
+      "CREATE INDEX IF NOT EXISTS CONNECTION_USR_accept_in_index ON CONNECTION_USR " +
+         "USING btree(connectionId, userId) WHERE status = 'Accept'",
+   };
+
+   static final String[][] INDEXES = {
+      { "CONNECTION_USR_accept_out_index", "CONNECTION_USR_accept_uid_out_index" },
+      { "CONNECTION_USR_accept_in_index", "CONNECTION_USR_accept_uid_in_index" },
+      { "MESSAGE_receiver_inbox_index", "MESSAGE_receiver_uid_inbox_index" },
+      { "MESSAGE_sender_inbox_index", "MESSAGE_sender_uid_inbox_index" },
+   };
+
+   // Inbox.PAGE_QUERY and Profile.LOAD_QUERY as they were before V5
+   static final String STRING_INBOX = Inbox.PAGE_QUERY
+      .replace("receiverUid = ?", "receiverId = ?").replace("senderUid = ?", "senderId = ?");
+   static final String STRING_PROFILE = Profile.LOAD_QUERY
+      .replace("U.uid = ?", "U.userId = ?").replace("userUid = ?", "userId = ?");
+
+   // the friend list as two statements on userId, as before V3
+   static final String STRING_FRIENDS_OUT =
+      "SELECT U.userId, U.name FROM CONNECTION_USR C, USR U WHERE C.connectionId = U.userId AND C.userId = ? AND C.status = 'Accept'";
+   static final String STRING_FRIENDS_IN =
+      "SELECT U.userId, U.name FROM CONNECTION_USR C, USR U WHERE C.userId = U.userId AND C.connectionId = ? AND C.status = 'Accept'";
+
+   static final String STRING_EDGES =
+      "SELECT userId, connectionId FROM CONNECTION_USR WHERE status = 'Accept'";
+
+   static List<ProfNetworkBench.Benchmark> suite () {
+      List<ProfNetworkBench.Benchmark> all = new ArrayList<ProfNetworkBench.Benchmark>();
+      all.add(new ProfNetworkBench.Benchmark("friendList.userId") {
+         void run (ProfNetworkBench.Fixture f) throws Exception {
+            String id = f.user();
+            f.esql.executeQueryAndReturnResult(STRING_FRIENDS_OUT, id);
+            f.esql.executeQueryAndReturnResult(STRING_FRIENDS_IN, id);
+         }
+      });
+      all.add(new ProfNetworkBench.Benchmark("friendList.uid") {
+         void run (ProfNetworkBench.Fixture f) throws Exception {
+            f.esql.executeQueryAndReturnResult(ProfNetwork.FRIENDS_PAGE_QUERY, ProfNetworkBench.friendPage(f));
+         }
+      });
+      all.add(new ProfNetworkBench.Benchmark("inboxFirstPage.userId") {
+         void run (ProfNetworkBench.Fixture f) throws Exception {
+            String id = f.user();
+            Integer msgId = Integer.valueOf(Inbox.FIRST.msgId);
+            Integer limit = Integer.valueOf(ProfNetwork.INBOX_PAGE_SIZE);
+            f.esql.executeQueryAndReturnResult(STRING_INBOX, id, Inbox.NEWEST, msgId, limit,
+                  id, Inbox.NEWEST, msgId, limit, limit);
+         }
+      });
+      all.add(new ProfNetworkBench.Benchmark("inboxFirstPage.uid") {
+         void run (ProfNetworkBench.Fixture f) throws Exception {
+            Inbox.page(f.esql, f.esql.getDirectory().uidOf(f.user()), Inbox.FIRST, ProfNetwork.INBOX_PAGE_SIZE);
+         }
+      });
+      all.add(new ProfNetworkBench.Benchmark("profileFetch.userId") {
+         void run (ProfNetworkBench.Fixture f) throws Exception {
+            String id = f.user();
+            f.esql.executeQueryAndReturnResult(STRING_PROFILE, id, id, id);
+         }
+      });
+      all.add(new ProfNetworkBench.Benchmark("profileFetch.uid") {
+         void run (ProfNetworkBench.Fixture f) throws Exception {
+            Profile.fetch(f.esql, f.user());
+         }
+      });
+      all.add(new ProfNetworkBench.Benchmark("graphLoad.userId") {
+         void run (ProfNetworkBench.Fixture f) throws Exception {
+            SocialGraph.Builder builder = new SocialGraph.Builder();
+            RowCursor cursor = f.esql.openCursor(STRING_EDGES);
+            try{
+               while (cursor.next())
+                  builder.addEdge(cursor.getString(1).trim(), cursor.getString(2).trim());
+            }finally{
+               cursor.close();
+            }//end try
+            builder.build();
+         }
+      });
+      all.add(new ProfNetworkBench.Benchmark("graphLoad.uid") {
+         void run (ProfNetworkBench.Fixture f) throws Exception {
+            SocialGraph.load(f.esql);
+         }
+      });
+      return all;
+   }//end suite
+
+   /**
+    * The benchmark entry point
+    *
+    * @param args <port> <user> <migrations dir> <scale>:<dbname> ...
+    */
+   public static void main (String[] args) throws Exception {
+      if (args.length < 4) {
+         System.err.println("Usage: java UserKeyBench <port> <user> <migrations dir> <scale>:<dbname> ...");
+         return;
+      }//end if
+      int warmup = Integer.getInteger("bench.warmup", 3).intValue();
+      int iterations = Integer.getInteger("bench.iterations", 5).intValue();
+      long iterationNanos = Long.getLong("bench.time", 1000L).longValue() * 1000000L;
+
+      Class.forName ("org.postgresql.Driver").newInstance ();
+      for (int i = 3; i < args.length; ++i) {
+         String[] target = args[i].split(":", 2);
+         int scale = Integer.parseInt(target[0]);
+         ProfNetwork esql = new ProfNetwork(target[1], args[0], args[1], "");
+         try{
+            new SchemaMigrator(esql.getPool(), new File(args[2])).migrate(System.out);
+            for (String ddl : STRING_INDEXES)
+               esql.executeUpdate(ddl);
+            esql.executeUpdate("ANALYZE MESSAGE; ANALYZE CONNECTION_USR");
+            System.out.println(String.format("%-40s %6s %10s", "index", "scale", "MB"));
+            for (String[] pair : INDEXES) {
+               for (String index : pair) {
+                  List<List<String>> size = esql.executeQueryAndReturnResult(INDEX_SIZE, index.toLowerCase());
+                  System.out.println(String.format("%-40s %6d %10.2f",
+                        index, scale, Long.parseLong(size.get(0).get(0).trim()) / 1048576.0));
+               }//end for
+            }//end for
+            System.out.println(String.format("%-26s %6s %8s %12s %10s %10s %10s",
+                  "benchmark", "scale", "ops", "avg us/op", "+- us", "p50 us", "p99 us"));
+            ProfNetworkBench.Fixture fixture = new ProfNetworkBench.Fixture(esql, scale);
+            fixture.load();
+            for (ProfNetworkBench.Benchmark b : suite())
+               ProfNetworkBench.measure(b, fixture, warmup, iterations, iterationNanos);
+         }finally{
+            for (String[] pair : INDEXES)
+               esql.executeUpdate("DROP INDEX IF EXISTS " + pair[0]);
+            Session.unbind();
+            esql.cleanup();
+         }//end try
+      }//end for
+   }//end main
+
+}//end UserKeyBench
@@ -5,9 +5,13 @@ export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
 export PATH=$JAVA_HOME/bin:$PATH
 export export DB_NAME=$USER"_DB"
 # compile the java program
-javac -d $DIR/../classes $DIR/../src/ProfNetwork.java
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java
 
 #run the java program
 #Use your database name, port number and login
-java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar ProfNetwork $DB_NAME $PGPORT $USER
+#(sql/migrations are applied at startup)
+java -Dprofnetwork.migrations=$DIR/../../sql/migrations -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar ProfNetwork $DB_NAME $PGPORT $USER
 
+
+#or serve the menus to many users over TCP (one line per prompt, e.g. with nc)
+#java -Dprofnetwork.migrations=$DIR/../../sql/migrations -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar ProfNetwork $DB_NAME $PGPORT $USER --server 5555
@@ -0,0 +1,12 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+# Indicate the path of the java compiler to use
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+export DB_NAME=$USER"_DB"
+
+# recreate the tables and load data/*.csv from the client: [data dir] [threads]
+# (replaces sql/scripts/create_db.sh; bad rows end up in rejects.txt)
+DATA=${1:-$DIR/../../data}
+THREADS=${2:-4}
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar BulkLoader $DB_NAME $PGPORT $USER $DATA $THREADS --fresh $DIR/../../sql/src
@@ -0,0 +1,13 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+# Indicate the path of the java compiler to use
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+export DB_NAME=$USER"_DB"
+
+# replay a workload file headlessly: <workload file> [threads] [iterations]
+# (sql/migrations are applied first)
+WORKLOAD=${1:-$DIR/sample_workload.txt}
+THREADS=${2:-4}
+ITERATIONS=${3:-100}
+java -Dprofnetwork.migrations=$DIR/../../sql/migrations -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar WorkloadReplay $DB_NAME $PGPORT $USER $WORKLOAD $THREADS $ITERATIONS
@@ -0,0 +1,783 @@
+/*
+ * ProfNetwork Bulk CSV Loader
+ * ===========================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class loads the data/*.csv files into the database from the client,
+ * so the files do not have to be on the database host. Each file is read
+ * once, every record is checked against the table definition (column
+ * count, lengths, required values, dates, duplicate keys and references
+ * to USR) and good records are sent in chunks on several connections at
+ * once. USR is loaded first; the tables referencing it follow in parallel.
+ *
+ * Chunks are streamed with COPY ... FROM STDIN when the JDBC driver has a
+ * COPY API (org.postgresql.copy.CopyManager, driver 8.4 and later). The
+ * bundled pg73 driver has none, so chunks then go out as multi-row
+ * INSERTs, one transaction per chunk. A chunk the database refuses is
+ * retried row by row so only the offending rows are lost.
+ *
+ * Records that cannot be loaded are written with their line number and
+ * the reason to a reject file (profnetwork.load.rejects, rejects.txt).
+ *
+ * With --fresh the tables are recreated from create_tables.sql before the
+ * load, and create_indexes.sql and trigger.sql run after it, so indexes
+ * are built once over the loaded data instead of row by row.
+ *
+ * Into a database that has the surrogate user keys of sql/migrations
+ * (V3, V5), the uid column next to every reference to USR is written with
+ * the row, from the uids of the users loaded first.
+ *
+ */
+public class BulkLoader {
+
+   static final int TEXT = 0;
+   static final int DATE = 1;
+   static final int TIMESTAMP = 2;
+   static final int INT = 3;
+
+   /**
+    * A column of a loaded table.
+    */
+   static class Column {
+      final String name;
+      final int type;
+      // longest value accepted, 0 for unlimited
+      final int maxLength;
+      final boolean required;
+
+      Column (String name, int type, int maxLength, boolean required) {
+         this.name = name;
+         this.type = type;
+         this.maxLength = maxLength;
+         this.required = required;
+      }//end Column
+   }//end Column
+
+   /**
+    * A table, the file it is loaded from and its constraints.
+    */
+   static class Table {
+      final String name;
+      final String file;
+      final Column[] columns;
+      // columns of the primary key
+      final int[] key;
+      // columns referencing USR.userId
+      final int[] references;
+      // the uid columns next to the references, in the same order
+      final String[] uidNames;
+      // fields of a record in the file; the columns after them are uids
+      final int fields;
+      // for each uid column, the reference column it is the key of
+      final int[] uidOf;
+      final AtomicLong loaded = new AtomicLong();
+      final AtomicLong rejected = new AtomicLong();
+      long nanos = 0;
+
+      Table (String name, String file, Column[] columns, int[] key, int[] references, String... uidNames) {
+         this(name, file, columns, columns.length, new int[0], key, references, uidNames);
+      }//end Table
+
+      private Table (String name, String file, Column[] columns, int fields, int[] uidOf,
+                     int[] key, int[] references, String[] uidNames) {
+         this.name = name;
+         this.file = file;
+         this.columns = columns;
+         this.fields = fields;
+         this.uidOf = uidOf;
+         this.key = key;
+         this.references = references;
+         this.uidNames = uidNames;
+      }//end Table
+
+      /**
+       * @return this table writing the uid columns the database has
+       * @param existing the uid columns of the database, as TABLE.column in lower case
+       */
+      Table withUids (Set<String> existing) {
+         List<Column> columns = new ArrayList<Column>(Arrays.asList(this.columns));
+         List<Integer> uidOf = new ArrayList<Integer>();
+         for (int i = 0; i < this.uidNames.length; ++i) {
+            if (existing.contains((this.name + "." + this.uidNames[i]).toLowerCase())) {
+               columns.add(new Column(this.uidNames[i], INT, 0, true));
+               uidOf.add(Integer.valueOf(this.references[i]));
+            }//end if
+         }//end for
+         int[] refs = new int[uidOf.size()];
+         for (int i = 0; i < refs.length; ++i)
+            refs[i] = uidOf.get(i).intValue();
+         return new Table(this.name, this.file, columns.toArray(new Column[columns.size()]), this.fields, refs,
+                          this.key, this.references, this.uidNames);
+      }//end withUids
+
+      String columnList () {
+         StringBuilder sb = new StringBuilder();
+         for (int i = 0; i < this.columns.length; ++i)
+            sb.append(i == 0 ? "" : ", ").append(this.columns[i].name);
+         return sb.toString();
+      }//end columnList
+   }//end Table
+
+   static Table usr () {
+      return new Table("USR", "USR.csv", new Column[] {
+            new Column("userId", TEXT, 30, true),
+            new Column("password", TEXT, 30, true),
+            new Column("email", TEXT, 0, true),
+            new Column("name", TEXT, 50, false),
+            new Column("dateOfBirth", DATE, 0, false) },
+         new int[] { 0 }, new int[0]);
+   }//end usr
+
+   static List<Table> dependents () {
+      List<Table> tables = new ArrayList<Table>();
+      tables.add(new Table("WORK_EXPR", "work_ex.csv", new Column[] {
+            new Column("userId", TEXT, 30, true),
+            new Column("company", TEXT, 50, true),
+            new Column("role", TEXT, 50, true),
+            new Column("location", TEXT, 50, false),
+            new Column("startDate", DATE, 0, true),
+            new Column("endDate", DATE, 0, false) },
+         new int[] { 0, 1, 2, 4 }, new int[] { 0 }, "userUid"));
+      tables.add(new Table("EDUCATIONAL_DETAILS", "edu_det.csv", new Column[] {
+            new Column("userId", TEXT, 30, true),
+            new Column("institutionName", TEXT, 50, true),
+            new Column("major", TEXT, 50, true),
+            new Column("degree", TEXT, 50, true),
+            new Column("startdate", DATE, 0, false),
+            new Column("enddate", DATE, 0, false) },
+         new int[] { 0, 2, 3 }, new int[] { 0 }, "userUid"));
+      tables.add(new Table("CONNECTION_USR", "connection.csv", new Column[] {
+            new Column("userId", TEXT, 30, true),
+            new Column("connectionId", TEXT, 30, true),
+            new Column("status", TEXT, 30, true) },
+         new int[] { 0, 1 }, new int[] { 0, 1 }, "userUid", "connectionUid"));
+      tables.add(new Table("MESSAGE", "message.csv", new Column[] {
+            new Column("msgId", INT, 0, true),
+            new Column("senderId", TEXT, 30, true),
+            new Column("receiverId", TEXT, 30, true),
+            new Column("contents", TEXT, 500, true),
+            new Column("sendTime", TIMESTAMP, 0, false),
+            new Column("deleteStatus", INT, 0, false),
+            new Column("status", TEXT, 30, true) },
+         new int[] { 0 }, new int[] { 1, 2 }, "senderUid", "receiverUid"));
+      return tables;
+   }//end dependents
+
+   /**
+    * A record that cannot be loaded.
+    */
+   static class RejectException extends Exception {
+      private static final long serialVersionUID = 1L;
+
+      RejectException (String reason) {
+         super(reason);
+      }//end RejectException
+   }//end RejectException
+
+   /**
+    * Consecutive good records of one table.
+    */
+   static class Chunk {
+      final Table table;
+      final List<String[]> rows = new ArrayList<String[]>();
+      final List<Integer> lines = new ArrayList<Integer>();
+
+      Chunk (Table table) {
+         this.table = table;
+      }//end Chunk
+   }//end Chunk
+
+   // records per chunk, i.e. per transaction
+   static final int CHUNK_ROWS = Integer.getInteger("profnetwork.load.chunkRows", 5000).intValue();
+   // records per INSERT statement when COPY is not available
+   static final int INSERT_ROWS = 100;
+   // the uid columns of the loaded tables, present once sql/migrations ran
+   static final String UID_COLUMNS =
+      "SELECT upper(table_name), column_name FROM information_schema.columns " +
+      "WHERE table_schema = ANY (current_schemas(false)) AND column_name LIKE '%uid' " +
+      "AND upper(table_name) IN ('WORK_EXPR', 'EDUCATIONAL_DETAILS', 'CONNECTION_USR', 'MESSAGE')";
+
+   private final ProfNetwork _esql;
+   private final ExecutorService _workers;
+   // bounds the chunks read ahead of the workers
+   private final Semaphore _inFlight;
+   private final PrintWriter _rejects;
+   // user ids committed to USR, for checking references before the database does
+   private final Set<String> _users = Collections.synchronizedSet(new HashSet<String>());
+   // the surrogate key of every user, read after USR is loaded
+   private final Map<String, Integer> _uids = new HashMap<String, Integer>();
+   private volatile Boolean _copy = null;
+
+   public BulkLoader (ProfNetwork esql, int threads, PrintWriter rejects) {
+      this._esql = esql;
+      this._workers = Executors.newFixedThreadPool(threads);
+      this._inFlight = new Semaphore(threads * 2);
+      this._rejects = rejects;
+   }//end BulkLoader
+
+   /**
+    * Loads USR, then the other tables in parallel.
+    *
+    * @param dataDir the directory holding the csv files
+    * @return the tables with their counts, in load order
+    */
+   public List<Table> load (File dataDir) throws Exception {
+      RowCursor existing = this._esql.openCursor("SELECT userId FROM USR");
+      try{
+         while (existing.next())
+            this._users.add(existing.getString(1).trim());
+      }finally{
+         existing.close();
+      }//end try
+
+      List<Table> all = new ArrayList<Table>();
+      Table usr = usr();
+      all.add(usr);
+      loadTable(usr, new File(dataDir, usr.file));
+
+      Set<String> uidColumns = new HashSet<String>();
+      for (List<String> row : this._esql.executeQueryAndReturnResult(UID_COLUMNS))
+         uidColumns.add(row.get(0).trim() + "." + row.get(1).trim());
+      if (!uidColumns.isEmpty()) {
+         RowCursor uids = this._esql.openCursor("SELECT userId, uid FROM USR");
+         try{
+            while (uids.next())
+               this._uids.put(uids.getString(1).trim(), Integer.valueOf(uids.getString(2).trim()));
+         }finally{
+            uids.close();
+         }//end try
+      }//end if
+      final List<Table> rest = new ArrayList<Table>();
+      for (Table t : dependents())
+         rest.add(t.withUids(uidColumns));
+      all.addAll(rest);
+      List<Future<?>> readers = new ArrayList<Future<?>>();
+      ExecutorService readerPool = Executors.newFixedThreadPool(rest.size());
+      try{
+         for (final Table t : rest) {
+            final File file = new File(dataDir, t.file);
+            readers.add(readerPool.submit(new java.util.concurrent.Callable<Void>() {
+               public Void call () throws Exception {
+                  loadTable(t, file);
+                  return null;
+               }
+            }));
+         }//end for
+         for (Future<?> f : readers)
+            f.get();
+      }finally{
+         readerPool.shutdownNow();
+      }//end try
+      return all;
+   }//end load
+
+   public void shutdown () {
+      this._workers.shutdownNow();
+   }//end shutdown
+
+   /**
+    * Reads one file and loads its good records chunk by chunk on the
+    * worker threads, returning once all chunks are in.
+    */
+   void loadTable (final Table table, File file) throws Exception {
+      if (!file.isFile()) {
+         System.out.println(table.name + ": " + file + " not found, skipped");
+         return;
+      }//end if
+      long start = System.nanoTime();
+      Set<String> keys = new HashSet<String>();
+      List<Future<?>> chunks = new ArrayList<Future<?>>();
+      BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"), 1 << 16);
+      try{
+         int[] line = { 0 };
+         readRecord(in, line);   // header
+         Chunk chunk = new Chunk(table);
+         List<String> record;
+         while (true) {
+            int lineNo = line[0] + 1;
+            record = readRecord(in, line);
+            if (record == null)
+               break;
+            String[] values;
+            try{
+               values = check(table, record, keys);
+            }catch (RejectException e){
+               reject(table, lineNo, e.getMessage(), record);
+               continue;
+            }//end try
+            chunk.rows.add(values);
+            chunk.lines.add(Integer.valueOf(lineNo));
+            if (chunk.rows.size() == CHUNK_ROWS) {
+               chunks.add(submit(chunk));
+               chunk = new Chunk(table);
+            }//end if
+         }//end while
+         if (!chunk.rows.isEmpty())
+            chunks.add(submit(chunk));
+         for (Future<?> f : chunks)
+            f.get();
+      }catch (ExecutionException e){
+         Throwable cause = e.getCause();
+         throw cause instanceof Exception ? (Exception) cause : e;
+      }finally{
+         in.close();
+      }//end try
+      table.nanos = System.nanoTime() - start;
+   }//end loadTable
+
+   private Future<?> submit (final Chunk chunk) throws InterruptedException {
+      this._inFlight.acquire();
+      return this._workers.submit(new java.util.concurrent.Callable<Void>() {
+         public Void call () throws Exception {
+            try{
+               store(chunk);
+            }finally{
+               _inFlight.release();
+            }//end try
+            return null;
+         }
+      });
+   }//end submit
+
+   /**
+    * Checks a record and converts it to the values to load.
+    *
+    * @throws RejectException when the record breaks a constraint
+    */
+   String[] check (Table table, List<String> record, Set<String> keys) throws RejectException {
+      if (record.size() != table.fields)
+         throw new RejectException("expected " + table.fields + " fields, found " + record.size());
+      String[] values = new String[table.columns.length];
+      for (int i = 0; i < table.fields; ++i) {
+         Column c = table.columns[i];
+         String v = record.get(i).trim();
+         if (v.isEmpty()) {
+            if (c.required)
+               throw new RejectException(c.name + " is empty");
+            continue;
+         }//end if
+         switch (c.type) {
+            case DATE: v = toDate(v, c.name); break;
+            case TIMESTAMP: v = toTimestamp(v, c.name); break;
+            case INT:
+               try{
+                  Integer.parseInt(v);
+               }catch (NumberFormatException e){
+                  throw new RejectException(c.name + " is not a number: " + v);
+               }//end try
+               break;
+            default:
+               if (c.maxLength > 0 && v.length() > c.maxLength)
+                  throw new RejectException(c.name + " is longer than " + c.maxLength);
+               break;
+         }//end switch
+         values[i] = v;
+      }//end for
+      for (int r : table.references) {
+         if (!this._users.contains(values[r]))
+            throw new RejectException(table.columns[r].name + " " + values[r] + " is not in USR");
+      }//end for
+      StringBuilder key = new StringBuilder();
+      for (int k : table.key)
+         key.append(values[k]).append('\u0001');
+      if (!keys.add(key.toString()))
+         throw new RejectException("duplicate key");
+      for (int i = 0; i < table.uidOf.length; ++i) {
+         // read only after USR is loaded, so no lock is needed
+         Integer uid = this._uids.get(values[table.uidOf[i]]);
+         if (uid == null)
+            throw new RejectException(table.columns[table.uidOf[i]].name + " " + values[table.uidOf[i]] + " has no uid");
+         values[table.fields + i] = uid.toString();
+      }//end for
+      return values;
+   }//end check
+
+   /**
+    * Converts M/D/YYYY (as in the csv files) or YYYY-MM-DD to ISO form.
+    */
+   static String toDate (String v, String column) throws RejectException {
+      int y, m, d;
+      try{
+         String[] p;
+         if (v.indexOf('/') > 0) {
+            p = v.split("/");
+            if (p.length != 3) throw new NumberFormatException();
+            m = Integer.parseInt(p[0]); d = Integer.parseInt(p[1]); y = Integer.parseInt(p[2]);
+         }else{
+            p = v.split("-");
+            if (p.length != 3) throw new NumberFormatException();
+            y = Integer.parseInt(p[0]); m = Integer.parseInt(p[1]); d = Integer.parseInt(p[2]);
+         }//end if
+      }catch (NumberFormatException e){
+         throw new RejectException(column + " is not a date: " + v);
+      }//end try
+      if (y < 1 || y > 9999 || m < 1 || m > 12 || d < 1 || d > daysIn(y, m))
+         throw new RejectException(column + " is not a date: " + v);
+      return String.format("%04d-%02d-%02d", y, m, d);
+   }//end toDate
+
+   static int daysIn (int year, int month) {
+      switch (month) {
+         case 2: return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0 ? 29 : 28;
+         case 4: case 6: case 9: case 11: return 30;
+         default: return 31;
+      }//end switch
+   }//end daysIn
+
+   /**
+    * Converts a date with an optional H:MM[:SS] time and AM/PM marker to
+    * ISO form.
+    */
+   static String toTimestamp (String v, String column) throws RejectException {
+      String[] parts = v.split("[ T]+");
+      String date = toDate(parts[0], column);
+      int h = 0, min = 0;
+      String sec = "00";
+      if (parts.length > 1) {
+         try{
+            String[] t = parts[1].split(":");
+            h = Integer.parseInt(t[0]);
+            min = t.length > 1 ? Integer.parseInt(t[1]) : 0;
+            if (t.length > 2) {
+               sec = t[2];
+               double s = Double.parseDouble(sec);
+               if (s < 0 || s >= 60) throw new NumberFormatException();
+            }//end if
+            if (parts.length > 2) {
+               String ampm = parts[2].toUpperCase();
+               if (ampm.equals("PM") && h < 12) h += 12;
+               else if (ampm.equals("AM") && h == 12) h = 0;
+               else if (!ampm.equals("AM") && !ampm.equals("PM")) throw new NumberFormatException();
+            }//end if
+         }catch (NumberFormatException e){
+            throw new RejectException(column + " is not a time: " + v);
+         }//end try
+         if (h > 23 || min > 59)
+            throw new RejectException(column + " is not a time: " + v);
+      }//end if
+      return date + String.format(" %02d:%02d:", h, min) + sec;
+   }//end toTimestamp
+
+   /**
+    * Reads one CSV record, which may span lines inside quotes.
+    *
+    * @param line the number of the last line read, updated
+    * @return the fields, or null at the end of the file
+    */
+   static List<String> readRecord (BufferedReader in, int[] line) throws IOException {
+      String text = in.readLine();
+      if (text == null)
+         return null;
+      ++line[0];
+      List<String> fields = new ArrayList<String>();
+      StringBuilder field = new StringBuilder();
+      boolean quoted = false;
+      int i = 0;
+      while (true) {
+         if (i == text.length()) {
+            if (!quoted)
+               break;
+            // a quoted field goes on on the next line
+            String next = in.readLine();
+            if (next == null)
+               break;
+            ++line[0];
+            field.append('\n');
+            text = next;
+            i = 0;
+            continue;
+         }//end if
+         char c = text.charAt(i++);
+         if (quoted) {
+            if (c == '"') {
+               if (i < text.length() && text.charAt(i) == '"') {
+                  field.append('"');
+                  ++i;
+               }else{
+                  quoted = false;
+               }//end if
+            }else{
+               field.append(c);
+            }//end if
+         }else if (c == '"') {
+            quoted = true;
+         }else if (c == ',') {
+            fields.add(field.toString());
+            field.setLength(0);
+         }else{
+            field.append(c);
+         }//end if
+      }//end while
+      fields.add(field.toString());
+      return fields;
+   }//end readRecord
+
+   private void reject (Table table, int line, String reason, List<String> record) {
+      table.rejected.incrementAndGet();
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < record.size(); ++i)
+         sb.append(i == 0 ? "" : ",").append(record.get(i));
+      synchronized (this._rejects) {
+         this._rejects.println(table.file + ":" + line + ": " + reason + "\t" + sb);
+      }//end synchronized
+   }//end reject
+
+   private void reject (Table table, int line, String reason, String[] values) {
+      List<String> record = new ArrayList<String>();
+      for (String v : values)
+         record.add(v == null ? "" : v);
+      reject(table, line, reason, record);
+   }//end reject
+
+   /**
+    * Loads one chunk in one transaction; when the database refuses it,
+    * loads its rows one at a time and rejects those that fail.
+    */
+   void store (Chunk chunk) throws SQLException {
+      ConnectionPool.PooledConnection conn = this._esql.getPool().borrow();
+      boolean failed = true;
+      try{
+         Connection db = conn.getConnection();
+         Object copyApi = copyApi(db);
+         db.setAutoCommit(false);
+         try{
+            if (copyApi != null)
+               copy(copyApi, chunk);
+            else
+               insert(conn, chunk.table, chunk.rows, 0, chunk.rows.size());
+            db.commit();
+            chunk.table.loaded.addAndGet(chunk.rows.size());
+            for (String[] row : chunk.rows)
+               loaded(chunk.table, row);
+         }catch (SQLException e){
+            db.rollback();
+            db.setAutoCommit(true);
+            for (int r = 0; r < chunk.rows.size(); ++r) {
+               try{
+                  insert(conn, chunk.table, chunk.rows, r, r + 1);
+                  chunk.table.loaded.incrementAndGet();
+                  loaded(chunk.table, chunk.rows.get(r));
+               }catch (SQLException rowError){
+                  reject(chunk.table, chunk.lines.get(r).intValue(), rowError.getMessage(), chunk.rows.get(r));
+               }//end try
+            }//end for
+         }//end try
+         failed = false;
+      }finally{
+         this._esql.getPool().release(conn, failed);
+      }//end try
+   }//end store
+
+   /**
+    * Records a user once the database holds it, so only rows of users that
+    * were committed pass the reference check of the dependent tables.
+    */
+   private void loaded (Table table, String[] row) {
+      if (table.name.equals("USR"))
+         this._users.add(row[0]);
+   }//end loaded
+
+   /**
+    * @return the COPY API of the connection, or null when the driver has none
+    */
+   private Object copyApi (Connection db) {
+      if (Boolean.FALSE.equals(this._copy))
+         return null;
+      try{
+         Class<?> pg = Class.forName("org.postgresql.PGConnection");
+         Object api = pg.isInstance(db) ? pg.getMethod("getCopyAPI").invoke(db) : null;
+         this._copy = Boolean.valueOf(api != null);
+         return api;
+      }catch (Exception e){
+         this._copy = Boolean.FALSE;
+         return null;
+      }//end try
+   }//end copyApi
+
+   boolean usesCopy () {
+      return Boolean.TRUE.equals(this._copy);
+   }//end usesCopy
+
+   private static void copy (Object copyApi, Chunk chunk) throws SQLException {
+      StringBuilder csv = new StringBuilder(chunk.rows.size() * 64);
+      for (String[] row : chunk.rows) {
+         for (int i = 0; i < row.length; ++i) {
+            if (i > 0) csv.append(',');
+            String v = row[i];
+            if (v == null)
+               continue;   // an unquoted empty field is NULL
+            csv.append('"').append(v.replace("\"", "\"\"")).append('"');
+         }//end for
+         csv.append('\n');
+      }//end for
+      String sql = "COPY " + chunk.table.name + " (" + chunk.table.columnList() + ") FROM STDIN WITH CSV";
+      try{
+         Method copyIn = Class.forName("org.postgresql.copy.CopyManager").getMethod("copyIn", String.class, Reader.class);
+         copyIn.invoke(copyApi, sql, new StringReader(csv.toString()));
+      }catch (java.lang.reflect.InvocationTargetException e){
+         Throwable cause = e.getCause();
+         if (cause instanceof SQLException)
+            throw (SQLException) cause;
+         throw new SQLException("COPY into " + chunk.table.name + " failed: " + cause);
+      }catch (ReflectiveOperationException e){
+         throw new SQLException("COPY is not available: " + e);
+      }//end try
+   }//end copy
+
+   /**
+    * Inserts rows [from, to) with multi-row INSERT statements.
+    */
+   private static void insert (ConnectionPool.PooledConnection conn, Table table, List<String[]> rows,
+                               int from, int to) throws SQLException {
+      for (int start = from; start < to; start += INSERT_ROWS) {
+         int count = Math.min(INSERT_ROWS, to - start);
+         Object[] params = new Object[count * table.columns.length];
+         int p = 0;
+         for (int r = start; r < start + count; ++r) {
+            String[] row = rows.get(r);
+            for (int i = 0; i < row.length; ++i)
+               params[p++] = row[i] != null && table.columns[i].type == INT ? Integer.valueOf(row[i]) : row[i];
+         }//end for
+         PreparedStatement stmt = ProfNetwork.prepare(conn, insertSql(table, count), params);
+         stmt.executeUpdate();
+      }//end for
+   }//end insert
+
+   static String insertSql (Table table, int rows) {
+      StringBuilder group = new StringBuilder("(");
+      for (int i = 0; i < table.columns.length; ++i) {
+         if (i > 0) group.append(", ");
+         switch (table.columns[i].type) {
+            case DATE: group.append("CAST(? AS date)"); break;
+            case TIMESTAMP: group.append("CAST(? AS timestamp)"); break;
+            default: group.append('?'); break;
+         }//end switch
+      }//end for
+      group.append(')');
+      StringBuilder sql = new StringBuilder("INSERT INTO ").append(table.name)
+            .append(" (").append(table.columnList()).append(") VALUES ");
+      for (int r = 0; r < rows; ++r)
+         sql.append(r == 0 ? "" : ", ").append(group);
+      return sql.toString();
+   }//end insertSql
+
+   /**
+    * The loader entry point
+    *
+    * @param args <dbname> <port> <user> <data dir> [threads] [--fresh <sql dir>]
+    */
+   public static void main (String[] args) {
+      if (args.length < 4) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            BulkLoader.class.getName () +
+            " <dbname> <port> <user> <data dir> [threads] [--fresh <sql dir>]");
+         return;
+      }//end if
+      int threads = 4;
+      File sqlDir = null;
+      for (int i = 4; i < args.length; ++i) {
+         if (args[i].equals("--fresh") && i + 1 < args.length)
+            sqlDir = new File(args[++i]);
+         else
+            threads = Integer.parseInt(args[i]);
+      }//end for
+      // one connection per worker plus one for the scripts
+      if (System.getProperty("profnetwork.pool.max") == null)
+         System.setProperty("profnetwork.pool.max", Integer.toString(threads + 1));
+
+      ProfNetwork esql = null;
+      BulkLoader loader = null;
+      PrintWriter rejects = null;
+      try{
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new ProfNetwork (args[0], args[1], args[2], "");
+         String rejectFile = System.getProperty("profnetwork.load.rejects", "rejects.txt");
+         rejects = new PrintWriter(new OutputStreamWriter(new FileOutputStream(rejectFile), "UTF-8"));
+
+         long begin = System.nanoTime();
+         if (sqlDir != null)
+            SqlScript.run(esql.getPool(), new File(sqlDir, "create_tables.sql"));
+         loader = new BulkLoader(esql, threads, rejects);
+         List<Table> tables = loader.load(new File(args[3]));
+         long loaded = System.nanoTime();
+
+         Table messages = tables.get(tables.size() - 1);
+         if (sqlDir != null) {
+            SqlScript.run(esql.getPool(), new File(sqlDir, "create_indexes.sql"));
+            SqlScript.run(esql.getPool(), new File(sqlDir, "trigger.sql"));
+            new SchemaMigrator(esql.getPool(), new File(sqlDir, "../migrations")).migrate(System.out);
+         }//end if
+         if (messages.loaded.get() > 0) {
+            // new messages must be numbered after the loaded ones
+            SqlScript.run(esql.getPool(),
+                  "SELECT setval('msgId_seq', (SELECT GREATEST(MAX(msgId), 27811) FROM MESSAGE))");
+         }//end if
+         SqlScript.run(esql.getPool(), "ANALYZE");
+         long end = System.nanoTime();
+
+         long total = 0;
+         System.out.println(String.format("%-20s %10s %9s %9s %12s", "table", "rows", "rejected", "seconds", "rows/s"));
+         for (Table t : tables) {
+            double s = t.nanos / 1e9;
+            total += t.loaded.get();
+            System.out.println(String.format("%-20s %10d %9d %9.2f %12.0f",
+                  t.name, t.loaded.get(), t.rejected.get(), s, s > 0 ? t.loaded.get() / s : 0.0));
+         }//end for
+         double loadSeconds = (loaded - begin) / 1e9;
+         System.out.println(String.format("%d rows in %.2f s (%.0f rows/s) on %d connection(s) using %s",
+               total, loadSeconds, total / loadSeconds, threads, loader.usesCopy() ? "COPY" : "multi-row INSERT"));
+         System.out.println(String.format("indexes, triggers and statistics: %.2f s", (end - loaded) / 1e9));
+         System.out.println("rejected rows written to " + rejectFile);
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+      }finally{
+         if (loader != null)
+            loader.shutdown ();
+         if (rejects != null)
+            rejects.close ();
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+   }//end main
+
+}//end BulkLoader
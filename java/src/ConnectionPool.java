@@ -0,0 +1,409 @@
+/*
+ * ProfNetwork Connection Pool
+ * ===========================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class defines a bounded pool of physical connections to one
+ * PostgreSQL database. Connections are validated when borrowed, replaced
+ * when they turn out to be broken and closed after sitting idle for too
+ * long, never going below the configured minimum.
+ *
+ */
+public class ConnectionPool {
+
+   /**
+    * A physical connection together with its prepared statement cache.
+    */
+   public static class PooledConnection {
+      private final Connection _connection;
+      private final StatementCache _statements;
+      // last time (System.nanoTime) the connection went back to the pool
+      private long _lastReturned;
+
+      PooledConnection (Connection connection, StripedCounter prepares, StripedCounter hits) {
+         this._connection = connection;
+         this._statements = new StatementCache(connection, StatementCache.DEFAULT_CAPACITY, prepares, hits);
+         this._lastReturned = System.nanoTime();
+      }//end PooledConnection
+
+      public Connection getConnection () { return this._connection; }
+      public StatementCache getStatements () { return this._statements; }
+   }//end PooledConnection
+
+   private final String _url;
+   private final String _user;
+   private final String _passwd;
+   private final int _minSize;
+   private final int _maxSize;
+   private final long _idleTimeoutNanos;
+   private final long _borrowTimeoutNanos;
+   // connections idle for less than this are handed out without a probe
+   private final long _validationNanos;
+
+   private final ReentrantLock _lock = new ReentrantLock();
+   private final Condition _available = this._lock.newCondition();
+   // most recently returned connections are at the head
+   private final ArrayDeque<PooledConnection> _idle = new ArrayDeque<PooledConnection>();
+   private int _total = 0;
+   private int _active = 0;
+   private boolean _closed = false;
+
+   // metrics, guarded by _lock
+   private long _borrows = 0;
+   private long _borrowTimeouts = 0;
+   private long _waitNanos = 0;
+   private long _maxWaitNanos = 0;
+   private long _reconnects = 0;
+   private long _evictions = 0;
+   // statement cache counters of every connection, checked out or not
+   private final StripedCounter _prepares = new StripedCounter();
+   private final StripedCounter _statementHits = new StripedCounter();
+
+   private final Timer _evictor;
+
+   /**
+    * Creates the pool and opens the minimum number of connections.
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param minSize number of connections kept open at all times
+    * @param maxSize upper bound of open connections
+    * @param idleTimeoutMs idle time after which a connection above minSize is closed
+    * @param borrowTimeoutMs how long borrow() waits for a free connection
+    * @param validationMs idle time after which a connection is probed before reuse
+    * @throws java.sql.SQLException when the initial connections cannot be made
+    */
+   public ConnectionPool (String url, String user, String passwd, int minSize, int maxSize,
+                          long idleTimeoutMs, long borrowTimeoutMs, long validationMs) throws SQLException {
+      if (minSize < 0 || maxSize < 1 || minSize > maxSize)
+         throw new IllegalArgumentException("invalid pool size min=" + minSize + " max=" + maxSize);
+      this._url = url;
+      this._user = user;
+      this._passwd = passwd;
+      this._minSize = minSize;
+      this._maxSize = maxSize;
+      this._idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMs);
+      this._borrowTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMs);
+      this._validationNanos = TimeUnit.MILLISECONDS.toNanos(validationMs);
+
+      for (int i = 0; i < minSize; ++i) {
+         this._idle.addLast(open());
+         ++this._total;
+      }//end for
+
+      this._evictor = new Timer("connection-pool-evictor", true);
+      long period = Math.max(1000L, idleTimeoutMs / 2);
+      this._evictor.schedule(new TimerTask() {
+         public void run () { evictIdle(); }
+      }, period, period);
+   }//end ConnectionPool
+
+   /**
+    * Creates a pool sized from the profnetwork.pool.* system properties.
+    */
+   public static ConnectionPool fromSystemProperties (String url, String user, String passwd) throws SQLException {
+      return new ConnectionPool(url, user, passwd,
+            Integer.getInteger("profnetwork.pool.min", 1).intValue(),
+            Integer.getInteger("profnetwork.pool.max", 8).intValue(),
+            Long.getLong("profnetwork.pool.idleTimeoutMs", 60000L).longValue(),
+            Long.getLong("profnetwork.pool.borrowTimeoutMs", 5000L).longValue(),
+            Long.getLong("profnetwork.pool.validationMs", 5000L).longValue());
+   }//end fromSystemProperties
+
+   private PooledConnection open () throws SQLException {
+      return new PooledConnection(DriverManager.getConnection(this._url, this._user, this._passwd),
+                                  this._prepares, this._statementHits);
+   }//end open
+
+   /**
+    * Takes a validated connection out of the pool, opening a new one when
+    * none is idle and the pool is below its maximum size.
+    *
+    * @return a connection that must be handed back through release()
+    * @throws java.sql.SQLException when no connection became available in time
+    */
+   public PooledConnection borrow () throws SQLException {
+      long start = System.nanoTime();
+      long remaining = this._borrowTimeoutNanos;
+      PooledConnection candidate = null;
+      boolean create = false;
+      this._lock.lock();
+      try{
+         while (!this._closed && this._idle.isEmpty() && this._total >= this._maxSize) {
+            if (remaining <= 0) {
+               ++this._borrowTimeouts;
+               throw new SQLException("Timed out waiting for a database connection ("
+                     + this._active + " active of " + this._maxSize + ")");
+            }//end if
+            try{
+               remaining = this._available.awaitNanos(remaining);
+            }catch (InterruptedException e){
+               Thread.currentThread().interrupt();
+               throw new SQLException("Interrupted waiting for a database connection");
+            }//end try
+         }//end while
+         if (this._closed)
+            throw new SQLException("Connection pool is closed");
+         if (!this._idle.isEmpty()) {
+            candidate = this._idle.pollFirst();
+         }else{
+            // reserve the slot before connecting outside the lock
+            ++this._total;
+            create = true;
+         }//end if
+         ++this._active;
+      }finally{
+         this._lock.unlock();
+      }//end try
+
+      try{
+         if (create) {
+            candidate = open();
+         }else if (System.nanoTime() - candidate._lastReturned > this._validationNanos
+                   && !isValid(candidate)) {
+            // keep the reserved slot and replace the broken connection
+            discard(candidate);
+            candidate = open();
+            this._lock.lock();
+            try{
+               ++this._reconnects;
+            }finally{
+               this._lock.unlock();
+            }//end try
+         }//end if
+      }catch (SQLException e){
+         this._lock.lock();
+         try{
+            --this._total;
+            --this._active;
+            this._available.signal();
+         }finally{
+            this._lock.unlock();
+         }//end try
+         throw e;
+      }//end try
+
+      long waited = System.nanoTime() - start;
+      this._lock.lock();
+      try{
+         ++this._borrows;
+         this._waitNanos += waited;
+         if (waited > this._maxWaitNanos)
+            this._maxWaitNanos = waited;
+      }finally{
+         this._lock.unlock();
+      }//end try
+      return candidate;
+   }//end borrow
+
+   /**
+    * Hands a borrowed connection back. An open transaction is rolled back
+    * first; then a connection that saw an error is validated and replaced
+    * if it is no longer usable.
+    *
+    * @param conn the connection obtained from borrow()
+    * @param suspect true when an operation on the connection failed
+    */
+   public void release (PooledConnection conn, boolean suspect) {
+      if (conn == null)
+         return;
+      boolean healthy = true;
+      try{
+         // never hand out a connection in the middle of a transaction; the
+         // rollback also ends a transaction an error aborted, which would
+         // fail the validation query below
+         if (!conn._connection.getAutoCommit()) {
+            conn._connection.rollback();
+            conn._connection.setAutoCommit(true);
+         }//end if
+      }catch (SQLException e){
+         healthy = false;
+      }//end try
+      if (healthy && suspect)
+         healthy = isValid(conn);
+
+      this._lock.lock();
+      try{
+         --this._active;
+         if (healthy && !this._closed) {
+            conn._lastReturned = System.nanoTime();
+            this._idle.addFirst(conn);
+         }else{
+            --this._total;
+         }//end if
+         this._available.signal();
+      }finally{
+         this._lock.unlock();
+      }//end try
+      if (!healthy || this._closed)
+         discard(conn);
+   }//end release
+
+   /**
+    * Checks that the server still answers on the connection.
+    */
+   private boolean isValid (PooledConnection conn) {
+      try{
+         if (conn._connection.isClosed())
+            return false;
+         Statement stmt = conn._connection.createStatement();
+         try{
+            ResultSet rs = stmt.executeQuery("SELECT 1");
+            return rs.next();
+         }finally{
+            stmt.close();
+         }//end try
+      }catch (SQLException e){
+         return false;
+      }//end try
+   }//end isValid
+
+   /**
+    * Closes a connection that is no longer owned by the pool.
+    */
+   private void discard (PooledConnection conn) {
+      conn._statements.close();
+      try{
+         conn._connection.close();
+      }catch (SQLException e){
+         // ignored.
+      }//end try
+   }//end discard
+
+   /**
+    * Closes connections that have been idle longer than the idle timeout
+    * while the pool holds more than its minimum.
+    */
+   void evictIdle () {
+      long now = System.nanoTime();
+      ArrayDeque<PooledConnection> expired = new ArrayDeque<PooledConnection>();
+      this._lock.lock();
+      try{
+         // the least recently returned connections sit at the tail
+         while (this._total > this._minSize && !this._idle.isEmpty()
+                && now - this._idle.peekLast()._lastReturned > this._idleTimeoutNanos) {
+            expired.add(this._idle.pollLast());
+            --this._total;
+            ++this._evictions;
+         }//end while
+      }finally{
+         this._lock.unlock();
+      }//end try
+      for (PooledConnection conn : expired)
+         discard(conn);
+   }//end evictIdle
+
+   public int getActiveCount () {
+      this._lock.lock();
+      try{ return this._active; }finally{ this._lock.unlock(); }
+   }
+
+   public int getIdleCount () {
+      this._lock.lock();
+      try{ return this._idle.size(); }finally{ this._lock.unlock(); }
+   }
+
+   public int getMaxSize () { return this._maxSize; }
+
+   public long getBorrowCount () {
+      this._lock.lock();
+      try{ return this._borrows; }finally{ this._lock.unlock(); }
+   }
+
+   public long getBorrowTimeoutCount () {
+      this._lock.lock();
+      try{ return this._borrowTimeouts; }finally{ this._lock.unlock(); }
+   }
+
+   /**
+    * @return the mean time spent in borrow(), in microseconds
+    */
+   public double getAverageWaitMicros () {
+      this._lock.lock();
+      try{
+         return this._borrows == 0 ? 0.0 : this._waitNanos / 1000.0 / this._borrows;
+      }finally{ this._lock.unlock(); }
+   }
+
+   public double getMaxWaitMicros () {
+      this._lock.lock();
+      try{ return this._maxWaitNanos / 1000.0; }finally{ this._lock.unlock(); }
+   }
+
+   public long getReconnectCount () {
+      this._lock.lock();
+      try{ return this._reconnects; }finally{ this._lock.unlock(); }
+   }
+
+   public long getEvictionCount () {
+      this._lock.lock();
+      try{ return this._evictions; }finally{ this._lock.unlock(); }
+   }
+
+   /**
+    * @return statements prepared (parsed and planned) over all connections
+    */
+   public long getPrepareCount () {
+      return this._prepares.sum();
+   }
+
+   /**
+    * @return executions served by an already prepared statement
+    */
+   public long getStatementHitCount () {
+      return this._statementHits.sum();
+   }
+
+   /**
+    * @return a one line summary of the pool metrics
+    */
+   public String describe () {
+      return String.format("pool: active=%d idle=%d max=%d borrows=%d timeouts=%d avgWait=%.1fus maxWait=%.1fus reconnects=%d evicted=%d",
+            getActiveCount(), getIdleCount(), getMaxSize(), getBorrowCount(), getBorrowTimeoutCount(),
+            getAverageWaitMicros(), getMaxWaitMicros(), getReconnectCount(), getEvictionCount());
+   }//end describe
+
+   /**
+    * Closes the idle connections and refuses further borrows. Connections
+    * still in use are closed when they are released.
+    */
+   public void close () {
+      ArrayDeque<PooledConnection> idle;
+      this._lock.lock();
+      try{
+         this._closed = true;
+         idle = new ArrayDeque<PooledConnection>(this._idle);
+         this._idle.clear();
+         this._total -= idle.size();
+         this._available.signalAll();
+      }finally{
+         this._lock.unlock();
+      }//end try
+      this._evictor.cancel();
+      for (PooledConnection conn : idle)
+         discard(conn);
+   }//end close
+
+}//end ConnectionPool
@@ -0,0 +1,186 @@
+/*
+ * ProfNetwork Connection Requests
+ * ===============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This class moves connection requests between their states:
+ *
+ *    (none) or Reject --send--> Request --accept--> Accept
+ *                                       --reject--> Reject
+ *
+ * Every transition is one statement whose WHERE status = ... guard makes
+ * the check and the change a single step, so two sessions acting on the
+ * same request cannot both succeed. The bulk transitions (all requests,
+ * a list of senders, requests older than some days) are set based too
+ * and return the senders they changed.
+ *
+ */
+public class ConnectionRequests {
+
+   // a new request, or a rejected one sent again; refused while the other
+   // user is connected with, or waiting on, the sender
+   static final String SEND =
+      "INSERT INTO CONNECTION_USR (userId, userUid, connectionId, connectionUid, status, requestTime) " +
+      "SELECT ?, ?, ?, ?, 'Request', now() " +
+      "WHERE NOT EXISTS (SELECT 1 FROM CONNECTION_USR R WHERE R.userId = ? AND R.connectionId = ? " +
+      "AND R.status IN ('Request', 'Accept')) " +
+      "ON CONFLICT (userId, connectionId) DO UPDATE SET status = 'Request', requestTime = now() " +
+      "WHERE CONNECTION_USR.status = 'Reject' " +
+      "RETURNING userId";
+
+   static final String ANSWER_ALL =
+      "UPDATE CONNECTION_USR SET status = ? WHERE connectionId = ? AND status = 'Request' RETURNING userId";
+
+   // the senders are passed as one comma separated list so every list
+   // length shares one prepared statement
+   static final String ANSWER_SOME =
+      "UPDATE CONNECTION_USR SET status = ? WHERE connectionId = ? AND status = 'Request' " +
+      "AND userId = ANY (string_to_array(?, ',')) RETURNING userId";
+
+   // requests sent before request times were recorded count as old
+   static final String REJECT_OLDER =
+      "UPDATE CONNECTION_USR SET status = 'Reject' WHERE connectionId = ? AND status = 'Request' " +
+      "AND (requestTime IS NULL OR requestTime < now() - CAST(? AS integer) * interval '1 day') " +
+      "RETURNING userId";
+
+   static final String PENDING =
+      "SELECT userId, status, requestTime FROM CONNECTION_USR WHERE connectionId = ? AND status = 'Request' " +
+      "ORDER BY requestTime NULLS FIRST, userId";
+
+   /**
+    * Sends a connection request.
+    *
+    * @return false when there is already a pending request or a connection
+    *         between the two users
+    * @throws java.sql.SQLException when the statement failed or a user does not exist
+    */
+   public static boolean send (ProfNetwork esql, String myId, String otherId) throws SQLException {
+      UserDirectory users = esql.getDirectory();
+      int myUid = users.uidOf(myId);
+      int otherUid = users.uidOf(otherId);
+      if (myUid < 0 || otherUid < 0)
+         throw new SQLException("There is no user " + (myUid < 0 ? myId : otherId).trim());
+      String me = users.nameOf(myUid);
+      String other = users.nameOf(otherUid);
+      if (myUid == otherUid)
+         return false;
+      if (esql.executeQuery(SEND, me, Integer.valueOf(myUid), other, Integer.valueOf(otherUid), other, me) == 0)
+         return false;
+      esql.getMetrics().connectionRequested();
+      esql.getRecommender().requested(me, other);
+      return true;
+   }//end send
+
+   /**
+    * Runs the query listing the pending requests of a user.
+    *
+    * @return the number of pending requests printed
+    */
+   public static int printPending (ProfNetwork esql, String myId) throws SQLException {
+      return esql.executeQueryAndPrintResult(PENDING, myId.trim());
+   }//end printPending
+
+   /**
+    * Accepts the pending requests from the given senders.
+    *
+    * @return the senders whose requests were accepted
+    */
+   public static List<String> accept (ProfNetwork esql, String myId, Collection<String> senders) throws SQLException {
+      return accepted(esql, myId, answer(esql, myId, "Accept", senders));
+   }//end accept
+
+   /**
+    * Accepts every pending request.
+    *
+    * @return the senders whose requests were accepted
+    */
+   public static List<String> acceptAll (ProfNetwork esql, String myId) throws SQLException {
+      return accepted(esql, myId, ids(esql.executeQueryAndReturnResult(ANSWER_ALL, "Accept", myId.trim())));
+   }//end acceptAll
+
+   /**
+    * Rejects the pending requests from the given senders.
+    *
+    * @return the senders whose requests were rejected
+    */
+   public static List<String> reject (ProfNetwork esql, String myId, Collection<String> senders) throws SQLException {
+      return answer(esql, myId, "Reject", senders);
+   }//end reject
+
+   /**
+    * Rejects every pending request.
+    *
+    * @return the senders whose requests were rejected
+    */
+   public static List<String> rejectAll (ProfNetwork esql, String myId) throws SQLException {
+      return ids(esql.executeQueryAndReturnResult(ANSWER_ALL, "Reject", myId.trim()));
+   }//end rejectAll
+
+   /**
+    * Rejects the pending requests sent more than some days ago.
+    *
+    * @return the senders whose requests were rejected
+    */
+   public static List<String> rejectOlderThan (ProfNetwork esql, String myId, int days) throws SQLException {
+      return ids(esql.executeQueryAndReturnResult(REJECT_OLDER, myId.trim(), Integer.valueOf(days)));
+   }//end rejectOlderThan
+
+   private static List<String> answer (ProfNetwork esql, String myId, String status, Collection<String> senders)
+         throws SQLException {
+      StringBuilder list = new StringBuilder();
+      for (String s : senders) {
+         String id = s.trim();
+         if (id.isEmpty() || id.indexOf(',') >= 0)
+            continue;
+         list.append(list.length() == 0 ? "" : ",").append(id);
+      }//end for
+      if (list.length() == 0)
+         return new ArrayList<String>();
+      return ids(esql.executeQueryAndReturnResult(ANSWER_SOME, status, myId.trim(), list.toString()));
+   }//end answer
+
+   /**
+    * Adds the new connections to the in-memory graph.
+    */
+   private static List<String> accepted (ProfNetwork esql, String myId, List<String> senders) throws SQLException {
+      if (!senders.isEmpty()) {
+         SocialGraph graph = esql.getGraph();
+         for (String s : senders)
+            graph.addEdge(s, myId);
+      }//end if
+      return senders;
+   }//end accepted
+
+   private static List<String> ids (List<List<String>> rows) {
+      List<String> ids = new ArrayList<String>(rows.size());
+      for (List<String> row : rows)
+         ids.add(row.get(0).trim());
+      return ids;
+   }//end ids
+
+   /**
+    * Splits a comma separated list of user ids typed by a user.
+    */
+   public static List<String> parse (String line) {
+      List<String> ids = new ArrayList<String>();
+      for (String s : line.split(","))
+         if (!s.trim().isEmpty())
+            ids.add(s.trim());
+      return ids;
+   }//end parse
+
+}//end ConnectionRequests
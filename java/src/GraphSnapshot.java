@@ -0,0 +1,279 @@
+/*
+ * ProfNetwork Connection Graph Snapshots
+ * ======================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class saves the connection graph to a binary file and opens it
+ * again, so a new process starts from the file instead of scanning all of
+ * CONNECTION_USR. The file holds, big endian:
+ *
+ *    header   magic, version, high-water mark, creation time, user count,
+ *             neighbor count, dictionary bytes, database identity
+ *             (48 bytes)
+ *    offsets  int[users + 1], the CSR row starts
+ *    neighbors int[neighbors], every row sorted ascending
+ *    names    int[users + 1] offsets into the dictionary, then the user
+ *             ids as UTF-8
+ *
+ * A file is written next to its final name and renamed over it, so a
+ * reader sees either the old or the new snapshot, never part of one. It
+ * is opened with FileChannel.map and its arrays are copied out of the
+ * mapping in bulk, with no parsing. After opening, the connections
+ * accepted since the high-water mark are read from CONNECTION_CHANGE
+ * (sql/migrations/V4).
+ *
+ * The high-water mark only means something for the database it was read
+ * from, so the header names that database: the oid of the database and
+ * the oid of its CONNECTION_CHANGE table, which changes whenever the
+ * tables are created again. A snapshot of any other database is ignored
+ * and written again.
+ *
+ */
+public class GraphSnapshot {
+
+   static final int MAGIC = 0x50474753;
+   static final int VERSION = 2;
+   static final int HEADER_BYTES = 48;
+   static final Charset UTF8 = Charset.forName("UTF-8");
+
+   // changes numbered this far below the high-water mark are read again,
+   // for transactions that took a number before the snapshot but committed
+   // after it; adding a known edge does nothing
+   static final long OVERLAP = Long.getLong("profnetwork.graph.overlap", 10000L).longValue();
+
+   static final String HIGH_WATER_QUERY = "SELECT COALESCE(MAX(seq), 0) FROM CONNECTION_CHANGE";
+   static final String CHANGES_QUERY =
+      "SELECT seq, userId, connectionId FROM CONNECTION_CHANGE WHERE seq > ? ORDER BY seq";
+   static final String DATABASE_QUERY =
+      "SELECT CAST(d.oid AS bigint), CAST(CAST(CAST('connection_change' AS regclass) AS oid) AS bigint) " +
+      "FROM pg_database d WHERE d.datname = current_database()";
+
+   /**
+    * @return the snapshot file named by profnetwork.graph.snapshot
+    *         (default connection_graph.snap), or null when that is empty
+    */
+   static File file () {
+      String name = System.getProperty("profnetwork.graph.snapshot", "connection_graph.snap");
+      return name.isEmpty() ? null : new File(name);
+   }//end file
+
+   /**
+    * Gets the connection graph from the snapshot file when there is one,
+    * catching up with the database, and from CONNECTION_USR otherwise;
+    * in that case a snapshot is written for the next start.
+    *
+    * @throws java.sql.SQLException when the database cannot be read
+    */
+   public static SocialGraph load (ProfNetwork esql) throws SQLException {
+      File file = file();
+      long database = database(esql);
+      if (file != null && file.isFile()) {
+         try{
+            SocialGraph graph = open(file);
+            if (graph.getDatabase() != database)
+               throw new IOException("it was written for another database");
+            catchUp(esql, graph);
+            return graph;
+         }catch (IOException e){
+            System.err.println("Ignoring graph snapshot " + file + ": " + e.getMessage());
+         }//end try
+      }//end if
+      SocialGraph graph = SocialGraph.load(esql);
+      graph.setDatabase(database);
+      if (file != null)
+         save(graph, file);
+      return graph;
+   }//end load
+
+   /**
+    * Writes a snapshot, reporting instead of throwing when that fails.
+    */
+   public static void save (SocialGraph graph, File file) {
+      try{
+         write(graph, file);
+      }catch (IOException e){
+         System.err.println("Unable to write graph snapshot " + file + ": " + e.getMessage());
+      }//end try
+   }//end save
+
+   /**
+    * Writes the graph, including the connections added since it was
+    * built, its high-water mark and its database.
+    *
+    * @throws java.io.IOException when the file cannot be written
+    */
+   public static void write (SocialGraph graph, File file) throws IOException {
+      // the mark first: connections added while the rows are copied are
+      // read again at catch up
+      long highWater = graph.getHighWater();
+      int users = graph.userCount();
+      int[] offsets = new int[users + 1];
+      int[][] rows = new int[users][];
+      byte[][] names = new byte[users][];
+      int nameBytes = 0;
+      for (int u = 0; u < users; ++u) {
+         rows[u] = graph.neighbors(u);
+         // users interned after the count was taken are left to the catch up
+         int n = rows[u].length;
+         while (n > 0 && rows[u][n - 1] >= users)
+            --n;
+         if (n < rows[u].length)
+            rows[u] = Arrays.copyOf(rows[u], n);
+         offsets[u + 1] = offsets[u] + rows[u].length;
+         names[u] = graph.nameOf(u).getBytes(UTF8);
+         nameBytes += names[u].length;
+      }//end for
+
+      File dir = file.getAbsoluteFile().getParentFile();
+      File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+      try{
+         FileOutputStream fos = new FileOutputStream(tmp);
+         try{
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(highWater);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(users);
+            out.writeInt(offsets[users]);
+            out.writeInt(nameBytes);
+            out.writeInt(0);
+            out.writeLong(graph.getDatabase());
+            for (int o : offsets)
+               out.writeInt(o);
+            for (int[] row : rows)
+               for (int v : row)
+                  out.writeInt(v);
+            int at = 0;
+            out.writeInt(0);
+            for (byte[] name : names)
+               out.writeInt(at += name.length);
+            for (byte[] name : names)
+               out.write(name);
+            out.flush();
+            fos.getChannel().force(true);
+         }finally{
+            fos.close();
+         }//end try
+         Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      }finally{
+         tmp.delete();
+      }//end try
+   }//end write
+
+   /**
+    * Opens a snapshot without touching the database.
+    *
+    * @throws java.io.IOException when the file cannot be read or is not a snapshot
+    */
+   public static SocialGraph open (File file) throws IOException {
+      FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      try{
+         long size = channel.size();
+         if (size < HEADER_BYTES)
+            throw new IOException("too short for a graph snapshot");
+         MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+         if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION)
+            throw new IOException("not a graph snapshot of version " + VERSION);
+         long highWater = map.getLong(8);
+         int users = map.getInt(24);
+         int neighborCount = map.getInt(28);
+         int nameBytes = map.getInt(32);
+         long database = map.getLong(40);
+         long expected = HEADER_BYTES + 4L * (users + 1) * 2 + 4L * neighborCount + nameBytes;
+         if (users < 0 || neighborCount < 0 || nameBytes < 0 || size != expected)
+            throw new IOException("graph snapshot is " + size + " bytes, its header says " + expected);
+
+         map.position(HEADER_BYTES);
+         IntBuffer ints = map.slice().asIntBuffer();
+         int[] offsets = new int[users + 1];
+         int[] neighbors = new int[neighborCount];
+         int[] nameOffsets = new int[users + 1];
+         ints.get(offsets);
+         ints.get(neighbors);
+         ints.get(nameOffsets);
+         byte[] dictionary = new byte[nameBytes];
+         map.position(HEADER_BYTES + 4 * (2 * (users + 1) + neighborCount));
+         map.get(dictionary);
+
+         String[] names = new String[users];
+         Map<String, Integer> ids = new HashMap<String, Integer>(users * 2);
+         for (int u = 0; u < users; ++u) {
+            names[u] = new String(dictionary, nameOffsets[u], nameOffsets[u + 1] - nameOffsets[u], UTF8);
+            ids.put(names[u], Integer.valueOf(u));
+         }//end for
+         SocialGraph graph = new SocialGraph(ids, names, offsets, neighbors);
+         graph.setHighWater(highWater);
+         graph.setDatabase(database);
+         return graph;
+      }catch (RuntimeException e){
+         // offsets pointing outside the file
+         throw new IOException("damaged graph snapshot: " + e);
+      }finally{
+         channel.close();
+      }//end try
+   }//end open
+
+   /**
+    * Adds the connections accepted since the high-water mark of a graph.
+    *
+    * @return the number of changes read
+    * @throws java.sql.SQLException when CONNECTION_CHANGE cannot be read
+    */
+   public static int catchUp (ProfNetwork esql, SocialGraph graph) throws SQLException {
+      long from = Math.max(0L, graph.getHighWater() - OVERLAP);
+      long highWater = graph.getHighWater();
+      List<List<String>> rows = esql.executeQueryAndReturnResult(CHANGES_QUERY, Long.valueOf(from));
+      for (List<String> row : rows) {
+         graph.addEdge(row.get(1), row.get(2));
+         highWater = Math.max(highWater, Long.parseLong(row.get(0).trim()));
+      }//end for
+      graph.setHighWater(highWater);
+      return rows.size();
+   }//end catchUp
+
+   /**
+    * @return the high-water mark a graph read now from CONNECTION_USR has
+    */
+   static long highWater (ProfNetwork esql) throws SQLException {
+      return Long.parseLong(esql.executeQueryAndReturnResult(HIGH_WATER_QUERY).get(0).get(0).trim());
+   }//end highWater
+
+   /**
+    * @return the identity of the database and of its tables, the oid of the
+    *         database in the high half and the oid of CONNECTION_CHANGE in
+    *         the low half
+    */
+   static long database (ProfNetwork esql) throws SQLException {
+      List<String> row = esql.executeQueryAndReturnResult(DATABASE_QUERY).get(0);
+      return Long.parseLong(row.get(0).trim()) << 32 | Long.parseLong(row.get(1).trim());
+   }//end database
+
+}//end GraphSnapshot
@@ -0,0 +1,93 @@
+/*
+ * ProfNetwork Id Block Allocator
+ * ==============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * This class hands out ids from a database sequence a block at a time.
+ * The sequence is created with INCREMENT BY the block size, so one
+ * nextval reserves the ids [value, value + block) for this process and
+ * the next block-1 ids are assigned without talking to the database.
+ * Other writers calling nextval get their own blocks and never collide.
+ *
+ * Ids of a block that is not used up are lost when the process exits;
+ * gaps are harmless for a surrogate key.
+ *
+ */
+public class IdAllocator {
+
+   static final String INCREMENT_QUERY =
+      "SELECT increment_by FROM pg_sequences WHERE sequencename = ? AND schemaname = ANY (current_schemas(false))";
+
+   private final ProfNetwork _esql;
+   private final String _sequence;
+   private final int _block;
+   private long _next = 0;
+   private long _limit = 0;
+   private long _blocks = 0;
+
+   /**
+    * @param esql the database
+    * @param sequence the sequence the blocks come from
+    * @param block the INCREMENT BY of the sequence
+    */
+   public IdAllocator (ProfNetwork esql, String sequence, int block) {
+      this._esql = esql;
+      this._sequence = sequence;
+      this._block = block;
+   }//end IdAllocator
+
+   /**
+    * Checks that a sequence steps by the block size, so the blocks of two
+    * processes cannot overlap.
+    *
+    * @throws java.sql.SQLException when the sequence is missing or steps by
+    *         another amount (sql/migrations/V6 sets it)
+    */
+   public static void checkIncrement (ProfNetwork esql, String sequence, int block) throws SQLException {
+      List<List<String>> rows = esql.executeQueryAndReturnResult(INCREMENT_QUERY, sequence.toLowerCase());
+      if (rows.isEmpty())
+         throw new SQLException("There is no sequence " + sequence);
+      long increment = Long.parseLong(rows.get(0).get(0).trim());
+      if (increment != block)
+         throw new SQLException(sequence + " steps by " + increment + " but ids are taken in blocks of " + block
+               + "; apply sql/migrations or set profnetwork.msgId.block");
+   }//end checkIncrement
+
+   /**
+    * @return the next id, reserving a new block when the current one is used up
+    * @throws java.sql.SQLException when a new block cannot be reserved
+    */
+   public synchronized int next () throws SQLException {
+      if (this._next == this._limit) {
+         List<List<String>> rows = this._esql.executeQueryAndReturnResult("SELECT nextval(?)", this._sequence);
+         long start = Long.parseLong(rows.get(0).get(0).trim());
+         this._next = start;
+         this._limit = start + this._block;
+         ++this._blocks;
+      }//end if
+      long id = this._next++;
+      if (id > Integer.MAX_VALUE)
+         throw new SQLException(this._sequence + " has run past the integer range");
+      return (int) id;
+   }//end next
+
+   /**
+    * @return the number of blocks reserved so far
+    */
+   public synchronized long getBlockCount () {
+      return this._blocks;
+   }//end getBlockCount
+
+}//end IdAllocator
@@ -0,0 +1,108 @@
+/*
+ * ProfNetwork Inbox Paging
+ * ========================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * This class reads the messages of a user newest first, one page at a
+ * time. Pages are found by seeking past the (sendTime, msgId) of the last
+ * message already shown rather than with OFFSET, so every page costs the
+ * same two short index range scans on (receiverUid, sendTime, msgId) and
+ * (senderUid, sendTime, msgId), however deep into the inbox it is.
+ *
+ */
+public class Inbox {
+
+   // received messages the receiver has not deleted (1 or 3) merged with
+   // sent messages the sender has not deleted (2 or 3); each branch stops
+   // after one page, so the merge never sorts more than two pages.
+   static final String PAGE_QUERY =
+      "SELECT msgId, receiverId, senderId, deleteStatus, sendTime, status FROM (" +
+      "(SELECT msgId, receiverId, senderId, deleteStatus, sendTime, status FROM MESSAGE " +
+      "WHERE receiverUid = ? AND deleteStatus IN (1, 3) AND (sendTime, msgId) < (?, ?) " +
+      "ORDER BY sendTime DESC, msgId DESC LIMIT ?) " +
+      "UNION " +
+      "(SELECT msgId, receiverId, senderId, deleteStatus, sendTime, status FROM MESSAGE " +
+      "WHERE senderUid = ? AND deleteStatus IN (2, 3) AND (sendTime, msgId) < (?, ?) " +
+      "ORDER BY sendTime DESC, msgId DESC LIMIT ?)" +
+      ") M ORDER BY sendTime DESC, msgId DESC LIMIT ?";
+
+   static final String[] COLUMNS = { "msgid", "receiverid", "senderid", "deletestatus", "sendtime", "status" };
+
+   // the key before every message, for the first page
+   static final Timestamp NEWEST = Timestamp.valueOf("9999-12-31 23:59:59");
+
+   /**
+    * The position just past the last message of a page.
+    */
+   public static class Key {
+      public final Timestamp sendTime;
+      public final int msgId;
+
+      public Key (Timestamp sendTime, int msgId) {
+         this.sendTime = sendTime;
+         this.msgId = msgId;
+      }//end Key
+   }//end Key
+
+   public static final Key FIRST = new Key(NEWEST, Integer.MAX_VALUE);
+
+   /**
+    * Reads one page of the inbox.
+    *
+    * @param esql the database
+    * @param uid the surrogate key of the owner of the inbox
+    * @param after the key of the last message of the previous page, FIRST for the first page
+    * @param size the number of messages per page
+    * @return the messages, newest first, as msgid, receiverid, senderid, deletestatus, sendtime, status
+    * @throws java.sql.SQLException when the query failed
+    */
+   public static List<List<String>> page (ProfNetwork esql, int uid, Key after, int size) throws SQLException {
+      Integer me = Integer.valueOf(uid);
+      Integer limit = Integer.valueOf(size);
+      Integer msgId = Integer.valueOf(after.msgId);
+      return esql.executeQueryAndReturnResult(PAGE_QUERY,
+            me, after.sendTime, msgId, limit,
+            me, after.sendTime, msgId, limit, limit);
+   }//end page
+
+   /**
+    * @return the key just past the last message of a non-empty page
+    */
+   public static Key keyAfter (List<List<String>> page) {
+      List<String> last = page.get(page.size() - 1);
+      return new Key(Timestamp.valueOf(last.get(4).trim()), Integer.parseInt(last.get(0).trim()));
+   }//end keyAfter
+
+   /**
+    * Prints a page the same way executeQueryAndPrintResult lays out rows.
+    */
+   public static void print (PrintStream out, List<List<String>> page) {
+      if (page.isEmpty())
+         return;
+      StringBuilder line = new StringBuilder();
+      for (String c : COLUMNS)
+         line.append(c).append('\t');
+      out.println(line);
+      for (List<String> row : page) {
+         line.setLength(0);
+         for (String v : row)
+            line.append(v == null ? "" : v.trim()).append('\t');
+         out.println(line);
+      }//end for
+   }//end print
+
+}//end Inbox
@@ -0,0 +1,300 @@
+/*
+ * ProfNetwork Background Message Writer
+ * =====================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class writes new messages behind the backs of the sessions. A send
+ * only puts the message on a bounded queue; one writer thread takes
+ * whatever has queued up and inserts it with multi-row INSERTs in a
+ * single transaction, so a burst of sends costs one commit instead of
+ * one per message. When the queue is full a send waits for room, up to
+ * profnetwork.send.blockMs, before giving up.
+ *
+ * The msgId of a message is known as soon as it is queued: ids come from
+ * an IdAllocator reserving blocks of msgId_seq, not from a trigger. The
+ * surrogate keys of the sender and the receiver are looked up in the
+ * UserDirectory then too and written with the row.
+ *
+ * Every send returns a Pending whose status is "Queued" until the batch
+ * holding it commits; it then becomes the status the row was written with
+ * ("Delivered" or "Draft"), or "Failed" when the database refused it.
+ *
+ */
+public class MessageSender {
+
+   public static final String QUEUED = "Queued";
+   public static final String FAILED = "Failed";
+
+   /**
+    * A message waiting to be written.
+    */
+   public static class Pending {
+      public final int msgId;
+      public final String senderId;
+      public final String receiverId;
+      final int senderUid;
+      final int receiverUid;
+      public final String contents;
+      public final Timestamp sendTime;
+      // the status the row is written with
+      public final String target;
+      private volatile String _status = QUEUED;
+      private volatile String _error = null;
+
+      Pending (int msgId, String senderId, int senderUid, String receiverId, int receiverUid,
+               String contents, Timestamp sendTime, String target) {
+         this.msgId = msgId;
+         this.senderId = senderId;
+         this.senderUid = senderUid;
+         this.receiverId = receiverId;
+         this.receiverUid = receiverUid;
+         this.contents = contents;
+         this.sendTime = sendTime;
+         this.target = target;
+      }//end Pending
+
+      public String getStatus () { return this._status; }
+      public String getError () { return this._error; }
+      public boolean isDone () { return !QUEUED.equals(this._status); }
+   }//end Pending
+
+   static final String INSERT_COLUMNS =
+      "INSERT INTO MESSAGE (msgId, senderId, senderUid, receiverId, receiverUid, contents, sendTime, deleteStatus, status) VALUES ";
+   static final String ROW = "(?, ?, ?, ?, ?, ?, ?, ?, ?)";
+   // must match the INCREMENT BY of msgId_seq (trigger.sql, migrations/V6),
+   // checked at start by IdAllocator.checkIncrement
+   static final int MSG_ID_BLOCK = Integer.getInteger("profnetwork.msgId.block", 1000).intValue();
+   // rows per INSERT statement at most; batches are cut into power of two
+   // sized statements so only a handful of shapes get prepared
+   static final int INSERT_ROWS = 32;
+
+   private final ProfNetwork _esql;
+   // msgIds are assigned when a message is queued, from blocks of msgId_seq
+   private final IdAllocator _ids;
+   private final BlockingQueue<Pending> _queue;
+   private final int _maxBatch;
+   private final long _blockMs;
+   private final long _lingerMs;
+   private final Thread _writer;
+   private volatile boolean _closed = false;
+
+   private final AtomicLong _batches = new AtomicLong();
+   private final AtomicLong _written = new AtomicLong();
+   private final AtomicLong _failed = new AtomicLong();
+   private final AtomicLong _rejected = new AtomicLong();
+
+   /**
+    * Creates a sender sized from the profnetwork.send.* system properties
+    * and starts its writer thread.
+    */
+   public MessageSender (ProfNetwork esql) {
+      this(esql,
+           Integer.getInteger("profnetwork.send.queue", 10000).intValue(),
+           Integer.getInteger("profnetwork.send.maxBatch", 500).intValue(),
+           Long.getLong("profnetwork.send.blockMs", 5000L).longValue(),
+           Long.getLong("profnetwork.send.lingerMs", 2L).longValue());
+   }//end MessageSender
+
+   /**
+    * @param esql the database
+    * @param capacity messages that can wait in the queue
+    * @param maxBatch messages written in one transaction at most
+    * @param blockMs how long a send waits for room in a full queue
+    * @param lingerMs how long the writer waits for more messages before writing a batch
+    */
+   public MessageSender (ProfNetwork esql, int capacity, int maxBatch, long blockMs, long lingerMs) {
+      this._esql = esql;
+      this._ids = new IdAllocator(esql, "msgId_seq", MSG_ID_BLOCK);
+      this._queue = new ArrayBlockingQueue<Pending>(capacity);
+      this._maxBatch = maxBatch;
+      this._blockMs = blockMs;
+      this._lingerMs = lingerMs;
+      this._writer = new Thread("message-writer") {
+         public void run () { writeLoop(); }
+      };
+      this._writer.setDaemon(true);
+      this._writer.start();
+   }//end MessageSender
+
+   /**
+    * Queues a message.
+    *
+    * @param status the status to write the message with ("Delivered" or "Draft")
+    * @return the handle following the message to the database
+    * @throws java.sql.SQLException when a user does not exist, the queue stayed full or the sender is closed
+    */
+   public Pending send (String senderId, String receiverId, String contents, String status) throws SQLException {
+      if (this._closed)
+         throw new SQLException("message sender is closed");
+      UserDirectory users = this._esql.getDirectory();
+      int from = users.uidOf(senderId);
+      int to = users.uidOf(receiverId);
+      if (from < 0 || to < 0)
+         throw new SQLException("There is no user " + (from < 0 ? senderId : receiverId).trim());
+      Pending p = new Pending(this._ids.next(), users.nameOf(from), from, users.nameOf(to), to,
+                              contents, new Timestamp(System.currentTimeMillis()), status);
+      try{
+         if (!this._queue.offer(p, this._blockMs, TimeUnit.MILLISECONDS)) {
+            this._rejected.incrementAndGet();
+            throw new SQLException("too many messages waiting to be sent, please try again");
+         }//end if
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+         throw new SQLException("interrupted while queueing the message");
+      }//end try
+      return p;
+   }//end send
+
+   private void writeLoop () {
+      List<Pending> batch = new ArrayList<Pending>(this._maxBatch);
+      while (!this._closed || !this._queue.isEmpty()) {
+         try{
+            Pending first = this._queue.poll(100, TimeUnit.MILLISECONDS);
+            if (first == null)
+               continue;
+            batch.add(first);
+            // give a burst a moment to pile up behind the first message
+            if (this._lingerMs > 0 && this._queue.size() < this._maxBatch - 1)
+               Thread.sleep(this._lingerMs);
+            this._queue.drainTo(batch, this._maxBatch - 1);
+            write(batch);
+         }catch (InterruptedException e){
+            if (!this._closed)
+               continue;
+         }catch (RuntimeException e){
+            fail(batch, e.toString());
+         }finally{
+            batch.clear();
+         }//end try
+      }//end while
+   }//end writeLoop
+
+   /**
+    * Writes a batch in one transaction. When that fails, writes the
+    * messages one by one so only the bad ones fail.
+    */
+   void write (List<Pending> batch) {
+      ConnectionPool.PooledConnection conn;
+      try{
+         conn = this._esql.getPool().borrow();
+      }catch (SQLException e){
+         fail(batch, e.getMessage());
+         return;
+      }//end try
+      boolean suspect = true;
+      try{
+         Connection db = conn.getConnection();
+         db.setAutoCommit(false);
+         try{
+            for (int start = 0; start < batch.size(); ) {
+               int rows = Math.min(INSERT_ROWS, Integer.highestOneBit(batch.size() - start));
+               insert(conn, batch, start, start + rows);
+               start += rows;
+            }//end for
+            db.commit();
+            this._batches.incrementAndGet();
+            for (Pending p : batch)
+               done(p);
+         }catch (SQLException e){
+            db.rollback();
+            db.setAutoCommit(true);
+            for (int i = 0; i < batch.size(); ++i) {
+               try{
+                  insert(conn, batch, i, i + 1);
+                  done(batch.get(i));
+               }catch (SQLException rowError){
+                  fail(batch.get(i), rowError.getMessage());
+               }//end try
+            }//end for
+         }//end try
+         suspect = false;
+      }catch (SQLException e){
+         // the connection itself broke
+         for (Pending p : batch)
+            if (!p.isDone()) fail(p, e.getMessage());
+      }finally{
+         this._esql.getPool().release(conn, suspect);
+      }//end try
+   }//end write
+
+   private void insert (ConnectionPool.PooledConnection conn, List<Pending> batch, int from, int to) throws SQLException {
+      StringBuilder sql = new StringBuilder(INSERT_COLUMNS);
+      Object[] params = new Object[(to - from) * 9];
+      int k = 0;
+      for (int i = from; i < to; ++i) {
+         Pending p = batch.get(i);
+         sql.append(i == from ? "" : ", ").append(ROW);
+         params[k++] = Integer.valueOf(p.msgId);
+         params[k++] = p.senderId;
+         params[k++] = Integer.valueOf(p.senderUid);
+         params[k++] = p.receiverId;
+         params[k++] = Integer.valueOf(p.receiverUid);
+         params[k++] = p.contents;
+         params[k++] = p.sendTime;
+         params[k++] = Integer.valueOf(3);
+         params[k++] = p.target;
+      }//end for
+      long start = System.nanoTime();
+      boolean failed = true;
+      try{
+         ProfNetwork.prepare(conn, sql.toString(), params).executeUpdate();
+         failed = false;
+      }finally{
+         this._esql.getStats().record(sql.toString(), params, to - from, System.nanoTime() - start, failed);
+      }//end try
+   }//end insert
+
+   private void done (Pending p) {
+      p._status = p.target;
+      this._written.incrementAndGet();
+   }//end done
+
+   private void fail (List<Pending> batch, String error) {
+      for (Pending p : batch)
+         if (!p.isDone()) fail(p, error);
+   }//end fail
+
+   private void fail (Pending p, String error) {
+      p._error = error;
+      p._status = FAILED;
+      this._failed.incrementAndGet();
+   }//end fail
+
+   public int getQueueLength () { return this._queue.size(); }
+   public long getBatchCount () { return this._batches.get(); }
+   public long getWrittenCount () { return this._written.get(); }
+   public long getFailedCount () { return this._failed.get(); }
+   public long getRejectedCount () { return this._rejected.get(); }
+
+   /**
+    * Stops taking messages and waits for the queued ones to be written.
+    */
+   public void close () {
+      this._closed = true;
+      try{
+         this._writer.join(Long.getLong("profnetwork.send.closeMs", 10000L).longValue());
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+      }//end try
+   }//end close
+
+}//end MessageSender
@@ -0,0 +1,155 @@
+/*
+ * ProfNetwork Message Operations
+ * ==============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class changes the status and deleteStatus of messages a user sees.
+ * deleteStatus keeps one bit per side: 1 while the receiver still has the
+ * message and 2 while the sender does, so 3 is deleted by neither, 1 by
+ * the sender, 2 by the receiver and 0 by both. A delete clears the bit of
+ * the user's side and keeps the other side's, so two deletes combine into
+ * 0 whatever their order.
+ *
+ * Every operation is one statement, and the bulk ones (mark all read,
+ * delete a selection, delete everything from a sender) are set based.
+ * Users are matched on their surrogate keys (senderUid, receiverUid of
+ * sql/migrations/V5) and named through the UserDirectory.
+ *
+ */
+public class Messages {
+
+   // the messages a user may see, as in the Inbox query
+   static final String VISIBLE =
+      "((receiverUid = ? AND deleteStatus IN (1, 3)) OR (senderUid = ? AND deleteStatus IN (2, 3)))";
+
+   // shows a message and, when its receiver opens it for the first time,
+   // marks it Read; opening it again writes nothing
+   static final String OPEN =
+      "WITH m AS (SELECT msgId, senderUid, receiverUid, contents, status FROM MESSAGE WHERE msgId = ? AND " + VISIBLE + "), " +
+      "r AS (UPDATE MESSAGE SET status = 'Read' FROM m WHERE MESSAGE.msgId = m.msgId " +
+      "AND m.receiverUid = ? AND m.status = 'Delivered' RETURNING MESSAGE.msgId) " +
+      "SELECT m.senderUid, m.receiverUid, m.contents, CASE WHEN r.msgId IS NULL THEN m.status ELSE 'Read' END " +
+      "FROM m LEFT JOIN r ON r.msgId = m.msgId";
+
+   static final String MARK_ALL_READ =
+      "UPDATE MESSAGE SET status = 'Read' WHERE receiverUid = ? AND status = 'Delivered' AND deleteStatus IN (1, 3)";
+
+   // clears the sender bit when the user sent the message and the receiver
+   // bit when the user received it (both for a message to oneself)
+   static final String DELETE =
+      "UPDATE MESSAGE SET deleteStatus = deleteStatus & (CASE WHEN senderUid = ? THEN 1 ELSE 3 END) " +
+      "& (CASE WHEN receiverUid = ? THEN 2 ELSE 3 END) WHERE " + VISIBLE + " AND ";
+
+   // the msgIds are passed as one comma separated list so every selection
+   // shares one prepared statement
+   static final String DELETE_SELECTED = DELETE + "msgId = ANY (CAST(string_to_array(?, ',') AS integer[]))";
+
+   static final String DELETE_FROM =
+      "UPDATE MESSAGE SET deleteStatus = deleteStatus & (CASE WHEN senderUid = receiverUid THEN 0 ELSE 2 END) " +
+      "WHERE receiverUid = ? AND senderUid = ? AND deleteStatus IN (1, 3)";
+
+   /**
+    * A message as its reader sees it.
+    */
+   public static class Opened {
+      public final int msgId;
+      public final String senderId;
+      public final String receiverId;
+      public final String contents;
+      public final String status;
+
+      Opened (int msgId, UserDirectory users, List<String> row) throws SQLException {
+         this.msgId = msgId;
+         this.senderId = users.nameOf(Integer.parseInt(row.get(0)));
+         this.receiverId = users.nameOf(Integer.parseInt(row.get(1)));
+         this.contents = row.get(2);
+         this.status = row.get(3) == null ? null : row.get(3).trim();
+      }//end Opened
+   }//end Opened
+
+   /**
+    * Reads a message, marking it Read when the user is its receiver.
+    *
+    * @return the message, or null when it does not exist or the user may not see it
+    */
+   public static Opened open (ProfNetwork esql, int uid, int msgId) throws SQLException {
+      Integer me = Integer.valueOf(uid);
+      List<List<String>> rows = esql.executeQueryAndReturnResult(OPEN, Integer.valueOf(msgId), me, me, me);
+      return rows.isEmpty() ? null : new Opened(msgId, esql.getDirectory(), rows.get(0));
+   }//end open
+
+   /**
+    * Marks every delivered message the user received as Read.
+    *
+    * @return the number of messages marked
+    */
+   public static int markAllRead (ProfNetwork esql, int uid) throws SQLException {
+      return esql.executeUpdate(MARK_ALL_READ, Integer.valueOf(uid));
+   }//end markAllRead
+
+   /**
+    * Deletes one message on the user's side.
+    *
+    * @return false when the user cannot see that message
+    */
+   public static boolean delete (ProfNetwork esql, int uid, int msgId) throws SQLException {
+      List<Integer> ids = new ArrayList<Integer>();
+      ids.add(Integer.valueOf(msgId));
+      return delete(esql, uid, ids) > 0;
+   }//end delete
+
+   /**
+    * Deletes the given messages on the user's side; the ones the user
+    * cannot see are left alone.
+    *
+    * @return the number of messages deleted
+    */
+   public static int delete (ProfNetwork esql, int uid, List<Integer> msgIds) throws SQLException {
+      if (msgIds.isEmpty())
+         return 0;
+      StringBuilder list = new StringBuilder();
+      for (Integer id : msgIds)
+         list.append(list.length() == 0 ? "" : ",").append(id);
+      Integer me = Integer.valueOf(uid);
+      return esql.executeUpdate(DELETE_SELECTED, me, me, me, me, list.toString());
+   }//end delete
+
+   /**
+    * Deletes every message the user received from a sender.
+    *
+    * @return the number of messages deleted, 0 when there is no such sender
+    */
+   public static int deleteFrom (ProfNetwork esql, int uid, String senderId) throws SQLException {
+      int sender = esql.getDirectory().uidOf(senderId);
+      if (sender < 0)
+         return 0;
+      return esql.executeUpdate(DELETE_FROM, Integer.valueOf(uid), Integer.valueOf(sender));
+   }//end deleteFrom
+
+   /**
+    * Splits a comma separated list of msgIds typed by a user.
+    *
+    * @throws java.lang.NumberFormatException when one is not a number
+    */
+   public static List<Integer> parse (String line) {
+      List<Integer> ids = new ArrayList<Integer>();
+      for (String s : line.split(","))
+         if (!s.trim().isEmpty())
+            ids.add(Integer.valueOf(s.trim()));
+      return ids;
+   }//end parse
+
+}//end Messages
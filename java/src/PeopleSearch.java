@@ -0,0 +1,88 @@
+/*
+ * ProfNetwork People Search
+ * =========================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+
+/**
+ * This class searches users by name through the pg_trgm GIN index on
+ * lower(name) (see create_indexes.sql). Both the substring match and the
+ * fuzzy match (the % similarity operator) are answered from the index,
+ * so neither scans USR; matches are ranked by trigram similarity and only
+ * the best are returned.
+ *
+ * A term ending in '*' matches names with a word starting with the term,
+ * for searching while the name is still being typed.
+ *
+ */
+public class PeopleSearch {
+
+   // the best matches returned by one search
+   public static final int DEFAULT_LIMIT = Integer.getInteger("profnetwork.search.limit", 20).intValue();
+
+   // substring (or word prefix) matches, plus names similar enough to the
+   // term to be a misspelling of it
+   static final String SEARCH_QUERY =
+      "SELECT userId, name FROM USR " +
+      "WHERE lower(name) LIKE ? OR lower(name) LIKE ? OR lower(name) % ? " +
+      "ORDER BY similarity(lower(name), ?) DESC, userId " +
+      "LIMIT ?";
+
+   /**
+    * Prints the best matches for a search term.
+    *
+    * @param esql the database
+    * @param term what the user typed
+    * @param limit the number of matches to print at most
+    * @return the number of matches printed
+    * @throws java.sql.SQLException when the search failed
+    */
+   public static int print (ProfNetwork esql, String term, int limit) throws SQLException {
+      return esql.executeQueryAndPrintResult(SEARCH_QUERY, parameters(term, limit));
+   }//end print
+
+   /**
+    * @return the parameters of SEARCH_QUERY for a search term
+    */
+   static Object[] parameters (String term, int limit) {
+      String t = term.trim().toLowerCase();
+      boolean prefix = t.endsWith("*");
+      if (prefix)
+         t = t.substring(0, t.length() - 1).trim();
+      String literal = escapeLike(t);
+      String first, second;
+      if (prefix) {
+         // the first word or any later word starts with the term
+         first = literal + "%";
+         second = "% " + literal + "%";
+      }else{
+         first = "%" + literal + "%";
+         second = first;
+      }//end if
+      return new Object[] { first, second, t, t, Integer.valueOf(limit) };
+   }//end parameters
+
+   /**
+    * Makes LIKE treat the wildcard characters typed by the user literally.
+    */
+   static String escapeLike (String s) {
+      StringBuilder sb = new StringBuilder(s.length() + 4);
+      for (int i = 0; i < s.length(); ++i) {
+         char c = s.charAt(i);
+         if (c == '%' || c == '_' || c == '\\')
+            sb.append('\\');
+         sb.append(c);
+      }//end for
+      return sb.toString();
+   }//end escapeLike
+
+}//end PeopleSearch
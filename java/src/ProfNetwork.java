@@ -10,19 +10,26 @@
  */
 
 
-import java.sql.DriverManager;
-import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
+import java.sql.Types;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
 import java.sql.Timestamp;
+import javax.management.JMException;
 //public class Globals{
 //	public static int MESSAGES_SIZE = 0;
 //}
@@ -35,16 +42,52 @@ import java.sql.Timestamp;
  *
  */
 public class ProfNetwork {
-	public static int MESSAGES_SIZE;
-	public static int conn_level;
-	public static int num_friends;
-   // reference to physical database connection.
-   private Connection _connection = null;
-
-   // handling the keyboard inputs through a BufferedReader
-   // This variable can be global for convenience.
-   static BufferedReader in = new BufferedReader(
-                                new InputStreamReader(System.in));
+   // users with this many connections may only add people within
+   // MAX_CONNECTION_LEVEL hops of their network
+   static final int FRIEND_LIMIT = 5;
+   static final int MAX_CONNECTION_LEVEL = 3;
+
+   // how long a session trusts the connection count it last read; changes
+   // made by the session itself always force a new read
+   static final long FRIEND_COUNT_TTL_MS = Long.getLong("profnetwork.friends.ttlMs", 30000L).longValue();
+   // messages shown per inbox page
+   static final int INBOX_PAGE_SIZE = Integer.getInteger("profnetwork.inbox.pageSize", 20).intValue();
+   // mutual connections named on a profile
+   static final int MUTUAL_SAMPLE = Integer.getInteger("profnetwork.mutual.sample", 5).intValue();
+   static final String FRIEND_COUNT_QUERY = "SELECT friends FROM FRIEND_COUNT WHERE userId = ?";
+   // one page of friends in uid order after a given uid: those that accepted
+   // the user's requests merged with those the user accepted, each branch a
+   // range scan of an accepted connection index that stops after one page
+   static final String FRIENDS_PAGE_QUERY =
+      "SELECT uid, userId, name FROM (" +
+      "(SELECT U.uid, U.userId, U.name FROM CONNECTION_USR C JOIN USR U ON U.uid = C.connectionUid " +
+      "WHERE C.userUid = ? AND C.status = 'Accept' AND C.connectionUid > ? " +
+      "ORDER BY C.connectionUid LIMIT ?) " +
+      "UNION ALL " +
+      "(SELECT U.uid, U.userId, U.name FROM CONNECTION_USR C JOIN USR U ON U.uid = C.userUid " +
+      "WHERE C.connectionUid = ? AND C.status = 'Accept' AND C.userUid > ? " +
+      "ORDER BY C.userUid LIMIT ?)" +
+      ") F ORDER BY uid LIMIT ?";
+
+   // pool of physical database connections.
+   private ConnectionPool _pool = null;
+   // user ids and their surrogate keys, loaded on first use
+   private volatile UserDirectory _directory = null;
+   // accepted connections, loaded on first use
+   private volatile SocialGraph _graph = null;
+   // background writer of new messages, started on first use
+   private volatile MessageSender _sender = null;
+   // "people you may know", started on first use
+   private volatile Recommender _recommender = null;
+   // latency statistics per statement template
+   private QueryStats _stats = null;
+   // live counters, published over JMX
+   private RuntimeMetrics _metrics = null;
+   // recently shown profiles
+   private ProfileCache _profiles = null;
+
+   // keyboard inputs, terminal output and per-user menu state live in the
+   // Session bound to the current thread (see Session.current()).
 
    /**
     * Creates a new instance of ProfNetwork
@@ -63,13 +106,16 @@ public class ProfNetwork {
          String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
          System.out.println ("Connection URL: " + url + "\n");
 
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
+         // open the pool of physical connections
+         this._pool = ConnectionPool.fromSystemProperties(url, user, passwd);
+         this._stats = new QueryStats(this._pool);
+         this._profiles = new ProfileCache(this);
+         this._metrics = new RuntimeMetrics(this._pool, this._profiles, this._stats);
          System.out.println("Done");
-      }catch (Exception e){
+      }catch (SQLException e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
          System.out.println("Make sure you started postgres on this machine");
-         System.exit(-1);
+         throw e;
       }//end catch
    }//end ProfNetwork
 
@@ -81,14 +127,52 @@ public class ProfNetwork {
     * @throws java.sql.SQLException when update failed
     */
    public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      ConnectionPool.PooledConnection conn = this._pool.borrow ();
+      this._metrics.queryStarted ();
+      long start = System.nanoTime ();
+      boolean failed = true;
+      int rows = 0;
+      try{
+         // creates a statement object
+         Statement stmt = conn.getConnection ().createStatement ();
 
-      // issues the update instruction
-      stmt.executeUpdate (sql);
+         // issues the update instruction
+         rows = stmt.executeUpdate (sql);
 
-      // close the instruction
-      stmt.close ();
+         // close the instruction
+         stmt.close ();
+         failed = false;
+      }finally{
+         this._stats.record (sql, null, rows, System.nanoTime () - start, failed);
+         this._metrics.queryFinished ();
+         this._pool.release (conn, failed);
+      }//end try
+   }//end executeUpdate
+
+   /**
+    * Method to execute a parameterized update SQL statement. The statement
+    * is prepared once per connection and reused from the statement cache.
+    *
+    * @param sql the SQL template with "?" placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows affected
+    * @throws java.sql.SQLException when update failed
+    */
+   public int executeUpdate (String sql, Object... params) throws SQLException {
+      ConnectionPool.PooledConnection conn = this._pool.borrow ();
+      this._metrics.queryStarted ();
+      long start = System.nanoTime ();
+      boolean failed = true;
+      int rows = 0;
+      try{
+         rows = prepare (conn, sql, params).executeUpdate ();
+         failed = false;
+         return rows;
+      }finally{
+         this._stats.record (sql, params, rows, System.nanoTime () - start, failed);
+         this._metrics.queryFinished ();
+         this._pool.release (conn, failed);
+      }//end try
    }//end executeUpdate
 
    /**
@@ -101,38 +185,184 @@ public class ProfNetwork {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int executeQueryAndPrintResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      return executeQueryAndPrintResult (query, new Object[0]);
+   }//end executeQuery
 
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
+   /**
+    * Parameterized version of executeQueryAndPrintResult. The rows are
+    * streamed through a RowCursor, so large results never sit in memory.
+    * When the session asks for paging, each page is read by its own
+    * statement and the cursor is closed before the user is asked for the
+    * next one, so no pooled connection waits on a prompt. The rows are
+    * numbered in the order of the query, which must be total (an ORDER BY
+    * ending in a unique column) for the pages to follow on from each other.
+    * Every page evaluates the whole query again, so lists that can grow
+    * long page by key instead (printFriends, Inbox).
+    *
+    * @param query the SQL template with "?" placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows printed
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+      Session session = session ();
+      if (session.page_size > 0)
+         return printPages (session, query, params);
+      RowCursor cursor = openCursor (query, params);
+      try{
+         return printResult (cursor, cursor.getColumnCount (), session, true, Integer.MAX_VALUE);
+      }finally{
+         cursor.close ();
+      }//end try
+   }//end executeQueryAndPrintResult
 
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
+   /*
+    * Prints a query a page at a time. A page is read with one row more than
+    * it shows, to know whether to offer the next one. The rows are numbered
+    * in the order of the query and the wrapper orders by that number, so a
+    * page starts right after the number the last one ended on.
+    **/
+   private int printPages (Session session, String query, Object[] params) throws SQLException {
+      String paged = "SELECT * FROM (SELECT q.*, row_number() OVER () AS page_row FROM (" + query + ") AS q) AS page " +
+                     "WHERE page_row > ? ORDER BY page_row LIMIT ?";
+      Object[] pageParams = Arrays.copyOf (params, params.length + 2);
+      int shown = 0;
+      while (true){
+         pageParams[params.length] = Integer.valueOf (shown);
+         pageParams[params.length + 1] = Integer.valueOf (session.page_size + 1);
+         RowCursor cursor = openCursor (paged, pageParams);
+         int rows;
+         boolean more;
+         try{
+            // page_row, the last column, is not shown
+            rows = printResult (cursor, cursor.getColumnCount () - 1, session, shown == 0, session.page_size);
+            more = rows == session.page_size && cursor.next ();
+         }finally{
+            cursor.close ();
+         }//end try
+         shown += rows;
+         if (!more || !morePages (session, shown))
+            return shown;
+      }//end while
+   }//end printPages
+
+   /**
+    * Opens a streaming cursor over a query. The caller must close it to
+    * give its connection back to the pool.
+    *
+    * @param query the SQL template with "?" placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the cursor, positioned before the first row
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public RowCursor openCursor (String query, Object... params) throws SQLException {
+      this._metrics.queryStarted ();
+      try{
+         return RowCursor.open (this._pool, this._stats, query, params, RowCursor.DEFAULT_FETCH_SIZE);
+      }finally{
+         this._metrics.queryFinished ();
+      }//end try
+   }//end openCursor
+
+   // printed rows are collected and written in chunks of about this many chars
+   private static final int PRINT_BUFFER = 8192;
+
+   /*
+    * Prints the first numCol columns of up to limit rows of a cursor,
+    * after the column names when header is set.
+    **/
+   private static int printResult (RowCursor cursor, int numCol, Session session, boolean header, int limit)
+         throws SQLException {
       int rowCount = 0;
+      StringBuilder buf = new StringBuilder (PRINT_BUFFER + 512);
 
       // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-         if(outputHeader){
-            for(int i = 1; i <= numCol; i++){
-                System.out.print(rsmd.getColumnName(i) + "\t");
-            }
-            System.out.println();
-            outputHeader = false;
-         }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString(i).trim() + "\t");
-         System.out.println ();
+      while (rowCount < limit && cursor.next ()){
+         if (rowCount == 0 && header){
+            for (int i = 1; i <= numCol; i++)
+               buf.append (cursor.getColumnName (i)).append ('\t');
+            buf.append (LINE_SEPARATOR);
+         }//end if
+         for (int i = 1; i <= numCol; ++i)
+            appendTrimmed (buf, cursor.getString (i)).append ('\t');
+         buf.append (LINE_SEPARATOR);
          ++rowCount;
+         if (buf.length () >= PRINT_BUFFER)
+            flush (session, buf);
       }//end while
-      stmt.close ();
+      flush (session, buf);
       return rowCount;
-   }//end executeQuery
+   }//end printResult
+
+   private static final String LINE_SEPARATOR = System.getProperty ("line.separator");
+
+   /*
+    * Appends a value without the blank padding of char(n) columns, without
+    * creating a trimmed copy.
+    **/
+   private static StringBuilder appendTrimmed (StringBuilder buf, String value) {
+      if (value == null)
+         return buf;
+      int start = 0;
+      int end = value.length ();
+      while (start < end && value.charAt (start) <= ' ') ++start;
+      while (end > start && value.charAt (end - 1) <= ' ') --end;
+      return buf.append (value, start, end);
+   }//end appendTrimmed
+
+   private static void flush (Session session, StringBuilder buf) {
+      if (buf.length () == 0)
+         return;
+      session.out.print (buf);
+      buf.setLength (0);
+   }//end flush
+
+   /*
+    * Prints the friends of a user a page at a time. Each page seeks past
+    * the uid of the last friend shown, as Inbox does past the last message,
+    * so a page costs two short index range scans however far down the list
+    * it is. Without paging in the session the pages follow each other.
+    *
+    * @return the number of friends printed
+    **/
+   static int printFriends (ProfNetwork esql, int uid) throws SQLException {
+      Session session = session ();
+      int pageSize = session.page_size > 0 ? session.page_size : Session.PAGE_SIZE;
+      Integer user = Integer.valueOf (uid);
+      Integer limit = Integer.valueOf (pageSize + 1);
+      StringBuilder buf = new StringBuilder (PRINT_BUFFER + 512);
+      int shown = 0;
+      int after = -1;
+      while (true){
+         Integer key = Integer.valueOf (after);
+         List<List<String>> rows = esql.executeQueryAndReturnResult (FRIENDS_PAGE_QUERY, user, key, limit, user, key, limit, limit);
+         int n = Math.min (rows.size (), pageSize);
+         if (shown == 0 && n > 0)
+            buf.append ("userid\tname\t").append (LINE_SEPARATOR);
+         for (int i = 0; i < n; ++i){
+            appendTrimmed (buf, rows.get (i).get (1)).append ('\t');
+            appendTrimmed (buf, rows.get (i).get (2)).append ('\t');
+            buf.append (LINE_SEPARATOR);
+         }//end for
+         flush (session, buf);
+         shown += n;
+         if (rows.size () <= pageSize || (session.page_size > 0 && !morePages (session, shown)))
+            return shown;
+         after = Integer.parseInt (rows.get (n - 1).get (0).trim ());
+      }//end while
+   }//end printFriends
+
+   /*
+    * Asks whether to print the next page.
+    **/
+   private static boolean morePages (Session session, int shown) {
+      session.out.print ("-- " + shown + " rows shown, Enter for more, q to stop -- ");
+      try{
+         return !session.readLine ().trim ().equalsIgnoreCase ("q");
+      }catch (IOException e){
+         return false;
+      }//end try
+   }//end morePages
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
@@ -144,22 +374,66 @@ public class ProfNetwork {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      ConnectionPool.PooledConnection conn = this._pool.borrow ();
+      this._metrics.queryStarted ();
+      long start = System.nanoTime ();
+      boolean failed = true;
+      int rows = 0;
+      try{
+         // creates a statement object
+         Statement stmt = conn.getConnection ().createStatement ();
+
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery (query);
+         List<List<String>> result = collectResult (rs);
+         stmt.close ();
+         rows = result.size ();
+         failed = false;
+         return result;
+      }finally{
+         this._stats.record (query, null, rows, System.nanoTime () - start, failed);
+         this._metrics.queryFinished ();
+         this._pool.release (conn, failed);
+      }//end try
+   }//end executeQueryAndReturnResult
 
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
+   /**
+    * Parameterized version of executeQueryAndReturnResult.
+    *
+    * @param query the SQL template with "?" placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the query result as a list of records
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+      ConnectionPool.PooledConnection conn = this._pool.borrow ();
+      this._metrics.queryStarted ();
+      long start = System.nanoTime ();
+      boolean failed = true;
+      int rows = 0;
+      try{
+         ResultSet rs = prepare (conn, query, params).executeQuery ();
+         List<List<String>> result = collectResult (rs);
+         rs.close ();
+         rows = result.size ();
+         failed = false;
+         return result;
+      }finally{
+         this._stats.record (query, params, rows, System.nanoTime () - start, failed);
+         this._metrics.queryFinished ();
+         this._pool.release (conn, failed);
+      }//end try
+   }//end executeQueryAndReturnResult
 
+   private static List<List<String>> collectResult (ResultSet rs) throws SQLException {
       /*
        ** obtains the metadata object for the returned result set.  The metadata
        ** contains row and column info.
        */
       ResultSetMetaData rsmd = rs.getMetaData ();
       int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
 
       // iterates through the result set and saves the data returned by the query.
-      boolean outputHeader = false;
       List<List<String>> result  = new ArrayList<List<String>>();
       while (rs.next()){
           List<String> record = new ArrayList<String>();
@@ -167,9 +441,8 @@ public class ProfNetwork {
             record.add(rs.getString (i));
          result.add(record);
       }//end while
-      stmt.close ();
       return result;
-   }//end executeQueryAndReturnResult
+   }//end collectResult
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
@@ -180,51 +453,279 @@ public class ProfNetwork {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int executeQuery (String query) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
-
-       // issues the query instruction
-       ResultSet rs = stmt.executeQuery (query);
-
+       ConnectionPool.PooledConnection conn = this._pool.borrow ();
+       this._metrics.queryStarted ();
+       long start = System.nanoTime ();
+       boolean failed = true;
        int rowCount = 0;
+       try{
+          // creates a statement object
+          Statement stmt = conn.getConnection ().createStatement ();
+
+          // issues the query instruction
+          ResultSet rs = stmt.executeQuery (query);
+
+          // iterates through the result set and count nuber of results.
+          if(rs.next()){
+             rowCount++;
+          }//end while
+          stmt.close ();
+          failed = false;
+          return rowCount;
+       }finally{
+          this._stats.record (query, null, rowCount, System.nanoTime () - start, failed);
+          this._metrics.queryFinished ();
+          this._pool.release (conn, failed);
+       }//end try
+   }
 
-       // iterates through the result set and count nuber of results.
-       if(rs.next()){
-          rowCount++;
-       }//end while
-       stmt.close ();
-       return rowCount;
+   /**
+    * Parameterized version of executeQuery.
+    *
+    * @param query the SQL template with "?" placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows returned (0 or 1)
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQuery (String query, Object... params) throws SQLException {
+       ConnectionPool.PooledConnection conn = this._pool.borrow ();
+       this._metrics.queryStarted ();
+       long start = System.nanoTime ();
+       boolean failed = true;
+       int rowCount = 0;
+       try{
+          ResultSet rs = prepare (conn, query, params).executeQuery ();
+          rowCount = rs.next() ? 1 : 0;
+          rs.close ();
+          failed = false;
+          return rowCount;
+       }finally{
+          this._stats.record (query, params, rowCount, System.nanoTime () - start, failed);
+          this._metrics.queryFinished ();
+          this._pool.release (conn, failed);
+       }//end try
    }
 
    /**
     * Method to fetch the last value from sequence. This
     * method issues the query to the DBMS and returns the current
-    * value of sequence used for autogenerated keys
+    * value of sequence used for autogenerated keys. currval is session
+    * local, so this only works inside a transaction holding the connection
+    * that called nextval.
     *
     * @param sequence name of the DB sequence
     * @return current value of a sequence
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int getCurrSeqVal(String sequence) throws SQLException {
-        Statement stmt = this._connection.createStatement ();
-
-        ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-        if (rs.next())
-                return rs.getInt(1);
+        List<List<String>> result = executeQueryAndReturnResult ("SELECT currval(?)", sequence);
+        if (!result.isEmpty())
+                return Integer.parseInt(result.get(0).get(0));
         return -1;
    }
 
    /**
-    * Method to close the physical connection if it is open.
+    * Looks up (or prepares) the statement for a template on the given
+    * connection and binds the parameters to it.
     */
-   public void cleanup(){
+   static PreparedStatement prepare (ConnectionPool.PooledConnection conn, String sql, Object[] params) throws SQLException {
+      PreparedStatement stmt = conn.getStatements ().prepare (sql);
+      bind (stmt, params);
+      return stmt;
+   }//end prepare
+
+   /**
+    * Binds the parameters of a template to a statement, in order.
+    */
+   static void bind (PreparedStatement stmt, Object[] params) throws SQLException {
+      for (int i = 0; i < params.length; ++i) {
+         Object value = params[i];
+         if (value == null)
+            stmt.setNull (i + 1, Types.VARCHAR);
+         else if (value instanceof Integer)
+            stmt.setInt (i + 1, ((Integer) value).intValue ());
+         else if (value instanceof Long)
+            stmt.setLong (i + 1, ((Long) value).longValue ());
+         else if (value instanceof Timestamp)
+            stmt.setTimestamp (i + 1, (Timestamp) value);
+         else
+            stmt.setString (i + 1, value.toString ());
+      }//end for
+   }//end bind
+
+   /**
+    * @return the user ids and their surrogate keys, reading USR on first use
+    * @throws java.sql.SQLException when the users cannot be read
+    */
+   public UserDirectory getDirectory () throws SQLException {
+      UserDirectory directory = this._directory;
+      if (directory == null) {
+         synchronized (this) {
+            if (this._directory == null)
+               this._directory = UserDirectory.load(this);
+            directory = this._directory;
+         }//end synchronized
+      }//end if
+      return directory;
+   }//end getDirectory
+
+   /**
+    * @return the in-memory graph of accepted connections, loading it from
+    *         the graph snapshot or CONNECTION_USR on first use
+    * @throws java.sql.SQLException when the connections cannot be read
+    */
+   public SocialGraph getGraph () throws SQLException {
+      SocialGraph graph = this._graph;
+      if (graph == null) {
+         synchronized (this) {
+            if (this._graph == null)
+               this._graph = GraphSnapshot.load(this);
+            graph = this._graph;
+         }//end synchronized
+      }//end if
+      return graph;
+   }//end getGraph
+
+   /**
+    * Finds a shortest chain of accepted connections between two users. The
+    * graph only learns late about connections accepted in other processes,
+    * so before it answers that there is no chain it catches up with
+    * CONNECTION_CHANGE.
+    *
+    * @return the user ids along the path, both ends included, or null
+    *         when the users are further than maxDepth apart
+    * @throws java.sql.SQLException when CONNECTION_CHANGE cannot be read
+    */
+   public String[] connectionPath (String from, String to, int maxDepth) throws SQLException {
+      SocialGraph graph = getGraph();
+      String[] path = graph.shortestPath(from, to, maxDepth);
+      if (path == null) {
+         // accepted connections are never removed, so only a miss can be stale
+         synchronized (graph) {
+            GraphSnapshot.catchUp(this, graph);
+         }//end synchronized
+         path = graph.shortestPath(from, to, maxDepth);
+      }//end if
+      return path;
+   }//end connectionPath
+
+   /**
+    * @return the degree of separation of two users, caught up as by
+    *         connectionPath; -1 when further than maxDepth apart
+    * @throws java.sql.SQLException when CONNECTION_CHANGE cannot be read
+    */
+   public int distance (String from, String to, int maxDepth) throws SQLException {
+      String[] path = connectionPath(from, to, maxDepth);
+      return path == null ? -1 : path.length - 1;
+   }//end distance
+
+   /**
+    * @return the background message writer, starting it on first use
+    */
+   public MessageSender getSender () {
+      MessageSender sender = this._sender;
+      if (sender == null) {
+         synchronized (this) {
+            if (this._sender == null)
+               this._sender = new MessageSender(this);
+            sender = this._sender;
+         }//end synchronized
+      }//end if
+      return sender;
+   }//end getSender
+
+   /**
+    * @return the friend of friend recommendations, starting them on first use
+    */
+   public Recommender getRecommender () {
+      Recommender recommender = this._recommender;
+      if (recommender == null) {
+         synchronized (this) {
+            if (this._recommender == null)
+               this._recommender = new Recommender(this);
+            recommender = this._recommender;
+         }//end synchronized
+      }//end if
+      return recommender;
+   }//end getRecommender
+
+   /**
+    * @return the connection pool serving this instance
+    */
+   public ConnectionPool getPool () {
+      return this._pool;
+   }//end getPool
+
+   /**
+    * @return the latency statistics of the statements run so far
+    */
+   public QueryStats getStats () {
+      return this._stats;
+   }//end getStats
+
+   /**
+    * @return the live counters of this instance
+    */
+   public RuntimeMetrics getMetrics () {
+      return this._metrics;
+   }//end getMetrics
+
+   /**
+    * @return the cache of recently shown profiles
+    */
+   public ProfileCache getProfiles () {
+      return this._profiles;
+   }//end getProfiles
+
+   /**
+    * Writes the query statistics to profnetwork.stats.file ("-" for
+    * standard out).
+    */
+   public void dumpStats () {
+      if (this._stats == null)
+         return;
+      String file = System.getProperty ("profnetwork.stats.file", "query_stats.txt");
+      if (file.equals ("-")) {
+         this._stats.dump (System.out);
+         return;
+      }//end if
       try{
-         if (this._connection != null){
-            this._connection.close ();
-         }//end if
-      }catch (SQLException e){
-         // ignored.
+         PrintStream out = new PrintStream (new FileOutputStream (file), false, "UTF-8");
+         try{
+            this._stats.dump (out);
+         }finally{
+            out.close ();
+         }//end try
+      }catch (IOException e){
+         System.err.println (e.getMessage ());
       }//end try
+   }//end dumpStats
+
+   /**
+    * Method to close the physical connections if they are open.
+    */
+   public void cleanup(){
+      // queued messages still need the pool
+      if (this._sender != null){
+         this._sender.close ();
+      }//end if
+      if (this._recommender != null){
+         this._recommender.close ();
+      }//end if
+      // the next start opens the graph from the snapshot
+      if (this._graph != null && GraphSnapshot.file () != null){
+         GraphSnapshot.save (this._graph, GraphSnapshot.file ());
+      }//end if
+      if (this._metrics != null){
+         this._metrics.unregister ();
+      }//end if
+      if (this._stats != null){
+         dumpStats ();
+         this._stats.close ();
+      }//end if
+      if (this._pool != null){
+         this._pool.close ();
+      }//end if
    }//end cleanup
 
    /**
@@ -233,16 +734,18 @@ public class ProfNetwork {
     * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
     */
    public static void main (String[] args) {
-      if (args.length != 3) {
+      int serverPort = -1;
+      if (args.length == 5 && args[3].equals("--server")) {
+         serverPort = Integer.parseInt(args[4]);
+      }else if (args.length != 3) {
          System.err.println (
             "Usage: " +
             "java [-classpath <classpath>] " +
             ProfNetwork.class.getName () +
-            " <dbname> <port> <user>");
+            " <dbname> <port> <user> [--server <listen port>]");
          return;
       }//end if
 
-      Greeting();
       ProfNetwork esql = null;
     //  int MESSAGES_SIZE;
 	try{
@@ -254,26 +757,69 @@ public class ProfNetwork {
          String dbport = args[1];
          String user = args[2];
          esql = new ProfNetwork (dbname, dbport, user, "");
+         try{
+            esql.getMetrics ().register ();
+         }catch (JMException e){
+            System.err.println ("Metrics not published over JMX: " + e.getMessage ());
+         }//end try
+         // bring an existing database up to the schema this code expects
+         SchemaMigrator.migrate (esql, System.out);
+         // msgId blocks of two processes overlap unless the sequence steps by the block
+         IdAllocator.checkIncrement (esql, "msgId_seq", MessageSender.MSG_ID_BLOCK);
+
+         if (serverPort > 0) {
+            // serve the menus to many users over TCP
+            new ProfNetworkServer(esql, serverPort).serve();
+         }else{
+            Session.console().bind();
+            runSession(esql);
+         }//end if
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+      }finally{
+         // make sure to cleanup the created table and close the connection.
+         try{
+            if(esql != null) {
+               System.out.print("Disconnecting from database...");
+               esql.cleanup ();
+               System.out.println("Done\n\nBye !");
+            }//end if
+         }catch (Exception e) {
+            // ignored.
+         }//end try
+      }//end try
+   }//end main
 
+   /**
+    * Runs the menus for the session bound to the current thread until the
+    * user exits or the session input is closed.
+    *
+    * @param esql the database the menu operations run against
+    * @throws java.sql.SQLException when a menu query failed
+    */
+   public static void runSession (ProfNetwork esql) throws SQLException {
+      Greeting();
+      esql.getMetrics().sessionStarted();
+      try{
          boolean keepon = true;
 //	String query = String.format("SELECT * FROM MESSAGE");
     //    MESSAGES_SIZE = esql.executeQuery(query);
         //MESSAGES_SIZE = esql.executeQueryAndPrintResult(query);
-	conn_level = 0;
+	session().conn_level = 0;
 	//System.out.println("messages size = " + MESSAGES_SIZE); 
 	while(keepon) {
             // These are sample SQL statements
-            System.out.println("MAIN MENU");
-            System.out.println("---------");
-            System.out.println("1. Create user");
-            System.out.println("2. Log in");
-            System.out.println("9. < EXIT");
+            out().println("MAIN MENU");
+            out().println("---------");
+            out().println("1. Create user");
+            out().println("2. Log in");
+            out().println("9. < EXIT");
             String authorisedUser = null;
             switch (readChoice()){
                case 1: CreateUser(esql); break;
                case 2: authorisedUser = LogIn(esql); break;
                case 9: keepon = false; break;
-               default : System.out.println("Unrecognized choice!"); break;
+               default : out().println("Unrecognized choice!"); break;
             }//end switch
             if (authorisedUser != null) {
               boolean usermenu = true;
@@ -281,67 +827,147 @@ public class ProfNetwork {
 		//MESSAGES_SIZE = esql.executeQuery(query);
 		while(usermenu) {
 			//String query = String.format("SELECT * FROM CONNECTION_USR WHERE (userId = '%s' OR connectionId = '%s') AND status = 'Accept'", authorisedUser, authorisedUser);
-			String query = String.format("SELECT COUNT(*) FROM CONNECTION_USR WHERE (userId = '%s' OR connectionId = '%s') AND status = 'Accept'", authorisedUser, authorisedUser);
-			List<List<String>> num = esql.executeQueryAndReturnResult(query);
-                        num_friends = Integer.parseInt(num.get(0).get(0)) ;
+			friendCount(esql, authorisedUser);
                 	//num_friends = esql.executeQuery(query);
 
-			System.out.println("MAIN MENU");
-	                System.out.println("---------");
-	                System.out.println("0. View My Info");
-			System.out.println("1. Go to Friend List");
-	                System.out.println("2. Update Profile");
-	                System.out.println("3. Write a new message");
+			reportOutbox();
+			out().println("MAIN MENU");
+	                out().println("---------");
+	                out().println("0. View My Info");
+			out().println("1. Go to Friend List");
+	                out().println("2. Update Profile");
+	                out().println("3. Write a new message");
 	                //System.out.println("4. Send Friend Request");		
-			System.out.println(".........................");
+			out().println(".........................");
 			//if(num_friends < 5)
-		        System.out.println("4. Send Connection Request");
-	                System.out.println("5. Search People");
-	                System.out.println("6. Change Password");
-	                System.out.println("7. View Connection Requests");
-	                System.out.println("8. View Messages");
+		        out().println("4. Send Connection Request");
+	                out().println("5. Search People");
+	                out().println("6. Change Password");
+	                out().println("7. View Connection Requests");
+	                out().println("8. View Messages");
 	                //System.out.println("9. View My Info");
-			System.out.println("9. Log out");
-                switch (readChoice()){
+			out().println("9. Log out");
+			out().println("10. People you may know");
+                int choice = readChoice();
+                long trips = esql.getMetrics().operationStarted();
+                switch (choice){
                    case 1: FriendList(esql, authorisedUser, authorisedUser); break;
-                   case 2: UpdateProfile(esql); break;
+                   case 2: UpdateProfile(esql, authorisedUser); break;
                    case 3: NewMessage(esql, authorisedUser); break;
-                   case 4:
-			if(num_friends < 5) 
-				SendRequest(esql, authorisedUser); 
-			else
-				System.out.println("You have at least 5 friends. To add more, you must add through your friend's list");
-			break;
+                   case 4: SendRequest(esql, authorisedUser); break;
 //                 ====================================
                    case 5: SearchPeople(esql, authorisedUser); break;
                    case 6: ChangePassword(esql, authorisedUser); break;
                    case 7: ViewRequests(esql, authorisedUser); break;
                    case 8: ViewMessages(esql, authorisedUser); break;
 		case 0: viewMyInfo(esql, authorisedUser); break;
-                   case 9: usermenu = false; break;
-                   default : System.out.println("Unrecognized choice!"); break;
+                   case 10: PeopleYouMayKnow(esql, authorisedUser); break;
+                   case 9: usermenu = false; session().userId = null; session().num_friends_time = 0; break;
+                   default : out().println("Unrecognized choice!"); break;
                 }
+                if (choice >= 0 && choice < OPERATIONS.length)
+                   esql.getMetrics().operationFinished(OPERATIONS[choice], trips);
               }
             }
          }//end while
-      }catch(Exception e) {
-         System.err.println (e.getMessage ());
+      }catch(Session.ClosedException e){
+         // the user went away; nothing left to do for this session.
       }finally{
-         // make sure to cleanup the created table and close the connection.
-         try{
-            if(esql != null) {
-               System.out.print("Disconnecting from database...");
-               esql.cleanup ();
-               System.out.println("Done\n\nBye !");
-            }//end if
-         }catch (Exception e) {
-            // ignored.
-         }//end try
+         esql.getMetrics().sessionEnded();
       }//end try
-   }//end main
+   }//end runSession
+
+   // names of the user menu choices, for the round trip counts
+   static final String[] OPERATIONS = {
+      "ViewMyInfo", "FriendList", "UpdateProfile", "NewMessage", "SendRequest",
+      "SearchPeople", "ChangePassword", "ViewRequests", "ViewMessages", "LogOut",
+      "PeopleYouMayKnow" };
+
+   /**
+    * @return the session of the current thread
+    */
+   static Session session(){
+      return Session.current();
+   }//end session
+
+   static PrintStream out(){
+      return Session.current().out;
+   }//end out
+
+   static PrintStream err(){
+      return Session.current().err;
+   }//end err
+
+   /*
+    * Reads one line of user input from the current session
+    **/
+   static String readLine() throws IOException {
+      return Session.current().readLine();
+   }//end readLine
+
+   /*
+    * Returns the number of accepted connections of a user from the
+    * trigger-maintained FRIEND_COUNT table. The count of the logged in
+    * user is cached in the session as num_friends.
+    **/
+   public static int friendCount(ProfNetwork esql, String userId) throws SQLException {
+      Session s = session();
+      boolean mine = userId.equals(s.userId);
+      long now = System.currentTimeMillis();
+      if (mine && s.num_friends_time != 0 && now - s.num_friends_time < FRIEND_COUNT_TTL_MS) {
+         esql.getMetrics().friendCountCache(true);
+         return s.num_friends;
+      }//end if
+      if (mine)
+         esql.getMetrics().friendCountCache(false);
+      List<List<String>> rows = esql.executeQueryAndReturnResult(FRIEND_COUNT_QUERY, userId);
+      int count = rows.isEmpty() ? 0 : Integer.parseInt(rows.get(0).get(0).trim());
+      if (mine) {
+         s.num_friends = count;
+         s.num_friends_time = now;
+      }//end if
+      return count;
+   }//end friendCount
+
+   /*
+    * Describes a degree of separation found by SocialGraph.distance
+    **/
+   static String levelName(int level){
+      return level < 0 ? "beyond " + MAX_CONNECTION_LEVEL : Integer.toString(level);
+   }//end levelName
+
+   /*
+    * Prints the connections the viewer shares with the owner of a profile
+    **/
+   static void printMutual(ProfNetwork esql, String id, String myId) throws SQLException{
+      if (id.trim().equals(myId.trim()))
+         return;
+      SocialGraph.Mutual mutual = esql.getGraph().mutual(myId, id, MUTUAL_SAMPLE);
+      if (mutual.count == 0) {
+         out().println("\tNo mutual connections");
+         return;
+      }//end if
+      StringBuilder sb = new StringBuilder("\t" + mutual.count + " mutual connection" + (mutual.count == 1 ? "" : "s") + ": ");
+      for (int i = 0; i < mutual.sample.length; ++i) {
+         if (i > 0) sb.append(", ");
+         sb.append(mutual.sample[i]);
+      }//end for
+      if (mutual.count > mutual.sample.length)
+         sb.append(", ...");
+      out().println(sb.toString());
+   }//end printMutual
+
+   static String joinPath(String[] path){
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < path.length; ++i) {
+         if (i > 0) sb.append(" -> ");
+         sb.append(path[i]);
+      }//end for
+      return sb.toString();
+   }//end joinPath
 
    public static void Greeting(){
-      System.out.println(
+      out().println(
          "\n\n*******************************************************\n" +
          "              User Interface                         \n" +
          "*******************************************************\n");
@@ -355,12 +981,14 @@ public class ProfNetwork {
       int input;
       // returns only if a correct value is given.
       do {
-         System.out.print("Please make your choice: ");
+         out().print("Please make your choice: ");
          try { // read the integer, parse it and break.
-            input = Integer.parseInt(in.readLine());
+            input = Integer.parseInt(readLine());
             break;
+         }catch (Session.ClosedException e) {
+            throw e;
          }catch (Exception e) {
-            System.out.println("Your input is invalid!");
+            out().println("Your input is invalid!");
             continue;
          }//end try
       }while (true);
@@ -373,24 +1001,26 @@ public class ProfNetwork {
     **/
    public static void CreateUser(ProfNetwork esql){
       try{
-         System.out.print("\tEnter user login/id: ");
-         String login = in.readLine();
-         System.out.print("\tEnter user password: ");
-         String password = in.readLine();
-         System.out.print("\tEnter user email: ");
-         String email = in.readLine();
-	System.out.print("\tEnter user name: ");
-	String name = in.readLine();
-	System.out.print("\tEnter user\'s birthday [MM/DD/YY]: ");
-	String dob = in.readLine();
+         out().print("\tEnter user login/id: ");
+         String login = readLine();
+         out().print("\tEnter user password: ");
+         String password = readLine();
+         out().print("\tEnter user email: ");
+         String email = readLine();
+	out().print("\tEnter user name: ");
+	String name = readLine();
+	out().print("\tEnter user\'s birthday [MM/DD/YY]: ");
+	String dob = readLine();
 
          //Creating empty contact\block lists for a user
-         String query = String.format("INSERT INTO USR (userId, password, email, name, dateOfBirth) VALUES ('%s','%s','%s','%s','%s')", login, password, email, name, dob);
+         String query = "INSERT INTO USR (userId, password, email, name, dateOfBirth) VALUES (?,?,?,?,CAST(? AS date))";
 
-         esql.executeUpdate(query);
-         System.out.println ("User successfully created!");
+         esql.executeUpdate(query, login, password, email, name, dob);
+         // a profile looked up before the user existed is cached as missing
+         esql.getProfiles().invalidate(login);
+         out().println ("User successfully created!");
       }catch(Exception e){
-         System.err.println (e.getMessage ());
+         err().println (e.getMessage ());
       }
    }//end
 
@@ -400,23 +1030,26 @@ public class ProfNetwork {
     **/
    public static String LogIn(ProfNetwork esql){
       try{
-         System.out.print("\tEnter user login: ");
-         String login = in.readLine();
-         System.out.print("\tEnter user password: ");
-         String password = in.readLine();
-
-         String query = String.format("SELECT * FROM USR WHERE userId = '%s' AND password = '%s'", login, password);
-         int userNum = esql.executeQuery(query);
+         out().print("\tEnter user login: ");
+         String login = readLine();
+         out().print("\tEnter user password: ");
+         String password = readLine();
+
+         String query = "SELECT * FROM USR WHERE userId = ? AND password = ?";
+         int userNum = esql.executeQuery(query, login, password);
+         esql.getMetrics().login(userNum > 0);
          if (userNum > 0){
+		session().userId = login;
+		session().num_friends_time = 0;
                 //query = String.format("SELECT * FROM MESSAGE");
 		//MESSAGES_SIZE = esql.executeQuery(query);
 		//System.out.println("messages size = " + MESSAGES_SIZE);
 		return login;
          }
-	System.out.println("Invalid credentials.");
+	out().println("Invalid credentials.");
 	return null;
       }catch(Exception e){
-         System.err.println (e.getMessage ());
+         err().println (e.getMessage ());
          return null;
       }
    }//end
@@ -434,191 +1067,137 @@ public class ProfNetwork {
 		try{
 			boolean answer = true;
 			while(answer){
-				System.out.println("\n\tFriends:\n\t--------");
-				//grab friends that accepted my connection request
-				String query1 = String.format("SELECT U.userId, U.name FROM CONNECTION_USR C, USR U WHERE C.connectionId = U.userId AND C.userId = '%s' AND C.status = 'Accept'", id);
-				//grab friends where I accepted their connection request
-				String query2 = String.format("SELECT U.userId, U.name FROM CONNECTION_USR C, USR U WHERE C.userId = U.userId AND C.connectionId = '%s' AND C.status = 'Accept'", id);
-				int friendFound = esql.executeQueryAndPrintResult(query1);
-				friendFound += esql.executeQueryAndPrintResult(query2);
+				out().println("\n\tFriends:\n\t--------");
+				//friends in both directions, a page at a time on the integer keys
+				Integer uid = Integer.valueOf(esql.getDirectory().uidOf(id));
+				int friendFound = uid.intValue() < 0 ? 0 : printFriends(esql, uid.intValue());
 				//num_friends = friendFound;
 				if (friendFound > 0){
 					//System.out.print("\tEnter a friend's name to view their profile");
-					System.out.println("OPTIONS:\n--------");
-					System.out.println("1. View a friend's profile\n2. Back to Previous Page");
+					out().println("OPTIONS:\n--------");
+					out().println("1. View a friend's profile\n2. Back to Previous Page");
 					switch(readChoice()){
 						case 1: 
-							System.out.print("Enter User id: ");
-							String friend_id = in.readLine();
+							out().print("Enter User id: ");
+							String friend_id = readLine();
 							//query1 = String.format("SELECT");
 							ViewProfile(esql, friend_id, myId);
 							break;
 						case 2:
 							answer = false;
 							break;
-						default: System.out.println("Invalid choice!"); break;
+						default: out().println("Invalid choice!"); break;
 					}
 				}
 				else{
-					System.out.println("\tFriend not found!");
+					out().println("\tFriend not found!");
+					//nothing to choose from, back to the previous page
+					answer = false;
 				}
 				
 			}
 		}
 		catch(Exception e){
-			System.err.println(e.getMessage());	
+			err().println(e.getMessage());	
 		}
     }
 	public static void ViewProfile(ProfNetwork esql, String id, String myId){
 		try{
 			boolean view=true;
-			conn_level++;			
 			while(view){
-				String query = String.format("SELECT * FROM CONNECTION_USR WHERE userId = '%s' AND connectionId = '%s' AND status = 'Accept'",id,myId);
-				int conn = esql.executeQuery(query);
-				query = String.format("SELECT * FROM CONNECTION_USR WHERE userId = '%s' AND connectionId = '%s' AND status = 'Accept'",myId,id);
-                                conn += esql.executeQuery(query);
+				//identity, connection status, education, work and friend count in one round trip
+				Profile profile = Profile.load(esql, id, myId);
+				friendCount(esql, myId);
+				//degree of separation in the graph of accepted connections
+				session().conn_level = profile.connected ? 1 : esql.distance(myId, id, MAX_CONNECTION_LEVEL);
 				
 				//checks if the owner of profile is connected to authorized user
-				if(conn > 0){
-					conn_level = 1;
-					System.out.println("\n\nPROFILE VIEW\tlevel = " + conn_level + "\n");
-					System.out.println("Personal Info:\n----------------");
-					query = String.format("SELECT userId,name, dateOfBirth FROM USR WHERE userId = '%s'", id);
-					esql.executeQueryAndPrintResult(query);
-					System.out.println("\nEducation Details:\n----------------");
-					query = String.format("SELECT institutionName,major,degree,startdate,enddate FROM EDUCATIONAL_DETAILS WHERE userId = '%s'",id);
-					esql.executeQueryAndPrintResult(query);
-					System.out.println("\nWork Experienc:\n----------------");
-					query = String.format("SELECT company,role,location,startDate,endDate FROM WORK_EXPR WHERE userId = '%s'",id);
-					esql.executeQueryAndPrintResult(query);
+				if(profile.connected){
+					out().println("\n\nPROFILE VIEW\tlevel = " + session().conn_level + "\n");
+					profile.print(out(), true, true);
+					printMutual(esql, id, myId);
 					
-					System.out.println("\n\tOPTIONS:\n\t-------");
-					System.out.println("1. View Friends list\n2. Send Message\n3. Back");
+					out().println("\n\tOPTIONS:\n\t-------");
+					out().println("1. View Friends list\n2. Send Message\n3. Back");
 					switch(readChoice()){
 						case 1: FriendList(esql, id, myId); break;
 						case 2: NewMessageFromProfile(esql, myId, id); break;
 						case 3: view = false; break;
-						default: System.out.println("Invalid choice!"); break;
+						default: out().println("Invalid choice!"); break;
 					}
 					
 				}
 				else{
-					System.out.println("\n\nPROFILE VIEW\tlevel = " + conn_level + "\n");
-                                        System.out.println("Personal Info:\n----------------");
-                                        query = String.format("SELECT userId,name FROM USR WHERE userId = '%s'", id);
-                                        esql.executeQueryAndPrintResult(query);
-                                        System.out.println("\nEducation Details:\n----------------");
-                                        query = String.format("SELECT institutionName,major,degree,startdate,enddate FROM EDUCATIONAL_DETAILS WHERE userId = '%s'",id);
-                                        esql.executeQueryAndPrintResult(query);
-                                        System.out.println("\nWork Experienc:\n----------------");
-                                        query = String.format("SELECT company,role,location,startDate,endDate FROM WORK_EXPR WHERE userId = '%s'",id);
-                                        esql.executeQueryAndPrintResult(query);
-                                	
-					//counts the number of friends
-					query = String.format("SELECT COUNT(*) FROM CONNECTION_USR WHERE (userId = '%s' OR connectionId = '%s') AND status = 'Accept'", myId, myId);
-					//num_friends = esql.executeQuery(query);
-				
-					List<List<String>> num = esql.executeQueryAndReturnResult(query);
-					num_friends = Integer.parseInt(num.get(0).get(0)) ;		
-					//num_friends = Integer.parseInt(num.get(1));
-                                       	System.out.println("\n\tOPTIONS:\n\t-------");
-                                       	System.out.println("1. View Friends list\n2. Send Message\n3. Send Connection request\n4. Back");
+					out().println("\n\nPROFILE VIEW\tlevel = " + levelName(session().conn_level) + "\n");
+                                        profile.print(out(), true, false);
+                                        printMutual(esql, id, myId);
+                                       	out().println("\n\tOPTIONS:\n\t-------");
+                                       	out().println("1. View Friends list\n2. Send Message\n3. Send Connection request\n4. Back");
 					switch(readChoice()){
                                                	case 1: FriendList(esql, id, myId); break;
                                                	case 2: NewMessageFromProfile(esql, myId, id); break;
                                                	case 3:
-							System.out.println("\n\nnumber of friends: " + num_friends); 
-							if(num_friends < 5 || (num_friends >= 5 && conn_level <=3))
-								SendRequest(esql, myId);
-							else
-								System.out.println("ERROR. Connection level limit surpassed");
+							out().println("\n\nnumber of friends: " + session().num_friends); 
+							SendRequest(esql, myId);
 							break;
 						case 4: view = false; break;
-                                               	default: System.out.println("Invalid choice!"); break;
+                                               	default: out().println("Invalid choice!"); break;
                                        	}
 					
 				}
 			}
-			conn_level--;
 		}
 		catch(Exception e){
-            System.err.println(e.getMessage());
+            err().println(e.getMessage());
         }
 	}
 
 	public static void viewProfileFromSearch(ProfNetwork esql, String id, String myId){
 		try{
 			boolean view=true;
-                        conn_level++;
                         while(view){
-                                String query = String.format("SELECT * FROM CONNECTION_USR WHERE userId = '%s' AND connectionId = '%s' AND status = 'Accept'",id,myId);
-                                int conn = esql.executeQuery(query);
-                                query = String.format("SELECT * FROM CONNECTION_USR WHERE userId = '%s' AND connectionId = '%s' AND status = 'Accept'",myId,id);
-                                conn += esql.executeQuery(query);
-				if(conn > 0){
-                                        conn_level = 1;
-                                        System.out.println("\n\nPROFILE VIEW\tlevel = " + conn_level + "\n");
-                                        System.out.println("Personal Info:\n----------------");
-                                        query = String.format("SELECT userId,name, dateOfBirth FROM USR WHERE userId = '%s'", id);
-                                        esql.executeQueryAndPrintResult(query);
-                                        System.out.println("\nEducation Details:\n----------------");
-                                        query = String.format("SELECT institutionName,major,degree,startdate,enddate FROM EDUCATIONAL_DETAILS WHERE userId = '%s'",id);
-                                        esql.executeQueryAndPrintResult(query);
-                                        System.out.println("\nWork Experienc:\n----------------");
-                                        query = String.format("SELECT company,role,location,startDate,endDate FROM WORK_EXPR WHERE userId = '%s'",id);
-                                        esql.executeQueryAndPrintResult(query);
-
-                                        System.out.println("\n\tOPTIONS:\n\t-------");
-                                        System.out.println("1. View Friends list\n2. Send Message\n3. Back");
+                                Profile profile = Profile.load(esql, id, myId);
+                                friendCount(esql, myId);
+                                session().conn_level = profile.connected ? 1 : esql.distance(myId, id, MAX_CONNECTION_LEVEL);
+				if(profile.connected){
+                                        out().println("\n\nPROFILE VIEW\tlevel = " + session().conn_level + "\n");
+                                        profile.print(out(), true, true);
+                                        printMutual(esql, id, myId);
+
+                                        out().println("\n\tOPTIONS:\n\t-------");
+                                        out().println("1. View Friends list\n2. Send Message\n3. Back");
                                         switch(readChoice()){
                                                 case 1: FriendList(esql, id, myId); break;
                                                 case 2: NewMessageFromProfile(esql, myId, id); break;
                                                 case 3: view = false; break;
-                                                default: System.out.println("Invalid choice!"); break;
+                                                default: out().println("Invalid choice!"); break;
                                         }
 
                                 }
 				else{
-                                        System.out.println("\n\nPROFILE VIEW\tlevel = " + conn_level + "\n");
-                                        System.out.println("Personal Info:\n----------------");
-                                        query = String.format("SELECT userId,name FROM USR WHERE userId = '%s'", id);
-                                        esql.executeQueryAndPrintResult(query);
-                                        System.out.println("\nEducation Details:\n----------------");
-                                        query = String.format("SELECT institutionName,major,degree,startdate,enddate FROM EDUCATIONAL_DETAILS WHERE userId = '%s'",id);
-                                        esql.executeQueryAndPrintResult(query);
-                                        System.out.println("\nWork Experienc:\n----------------");
-                                        query = String.format("SELECT company,role,location,startDate,endDate FROM WORK_EXPR WHERE userId = '%s'",id);
-                                        esql.executeQueryAndPrintResult(query);
-					
-					query = String.format("SELECT COUNT(*) FROM CONNECTION_USR WHERE (userId = '%s' OR connectionId = '%s') AND status = 'Accept'", myId, myId);
+                                        out().println("\n\nPROFILE VIEW\tlevel = " + levelName(session().conn_level) + "\n");
+                                        profile.print(out(), true, false);
+                                        printMutual(esql, id, myId);
 
-
-					List<List<String>> num = esql.executeQueryAndReturnResult(query);
-               			        num_friends = Integer.parseInt(num.get(0).get(0)) ;
-					System.out.println("\n\tOPTIONS:\n\t-------");
-                                        System.out.println("1. View Friends list\n2. Send Message\n3. Send Connection request\n4. Back");
+					out().println("\n\tOPTIONS:\n\t-------");
+                                        out().println("1. View Friends list\n2. Send Message\n3. Send Connection request\n4. Back");
                                         switch(readChoice()){
                                                 case 1: FriendList(esql, id, myId); break;
                                                 case 2: NewMessageFromProfile(esql, myId, id); break;
                                                 case 3:
-                                                        System.out.println("\n\nnumber of friends: " + num_friends);
-                                                        if(num_friends < 5)
-                                                                SendRequest(esql, myId);
-                                                        else
-                                                                System.out.println("You must add through your Friend's list");
+                                                        out().println("\n\nnumber of friends: " + session().num_friends);
+                                                        SendRequest(esql, myId);
                                                         break;
                                                 case 4: view = false; break;
-                                                default: System.out.println("Invalid choice!"); break;
+                                                default: out().println("Invalid choice!"); break;
                                         }
 
                                 }
                         }
-                        conn_level--;	
 
 		}
 		catch(Exception e){
-			System.err.println(e.getMessage());
+			err().println(e.getMessage());
         	}
 
 	}
@@ -627,9 +1206,57 @@ public class ProfNetwork {
 
 
 
-    public static void UpdateProfile(ProfNetwork esql){
-        //TODO: ALLOW USER TO CHANGE NON IMPORTANT PROFILE DETAILS
-        //TODO: ALLOW USER TO UPDATE PROFILE        
+    //Collects changes to the profile and saves them all at once
+    public static void UpdateProfile(ProfNetwork esql, String myId){
+        try{
+		ProfileEditor editor = new ProfileEditor(esql, myId);
+		boolean editing = true;
+		while(editing){
+			out().println("\nUPDATE PROFILE (" + editor.pending() + " unsaved changes)");
+			out().println("--------------");
+			out().println("1. Change email\n2. Change name\n3. Change birthday");
+			out().println("4. Add or change education\n5. Remove education");
+			out().println("6. Add or change work experience\n7. Remove work experience");
+			out().println("8. Show my profile\n9. Save changes\n10. Discard changes and go back");
+			switch(readChoice()){
+				case 1: editor.setEmail(prompt("\tEnter new email: ")); break;
+				case 2: editor.setName(prompt("\tEnter new name: ")); break;
+				case 3: editor.setDateOfBirth(prompt("\tEnter new birthday [MM/DD/YYYY]: ")); break;
+				case 4: editor.putEducation(prompt("\tInstitution: "), prompt("\tMajor: "), prompt("\tDegree: "),
+						optional(prompt("\tStart date [MM/DD/YYYY]: ")), optional(prompt("\tEnd date [MM/DD/YYYY, blank if ongoing]: ")));
+					break;
+				case 5: editor.removeEducation(prompt("\tMajor: "), prompt("\tDegree: ")); break;
+				case 6: editor.putWork(prompt("\tCompany: "), prompt("\tRole: "), optional(prompt("\tLocation: ")),
+						prompt("\tStart date [MM/DD/YYYY]: "), optional(prompt("\tEnd date [MM/DD/YYYY, blank if current]: ")));
+					break;
+				case 7: editor.removeWork(prompt("\tCompany: "), prompt("\tRole: "), prompt("\tStart date [MM/DD/YYYY]: ")); break;
+				case 8: viewMyInfo(esql, myId); break;
+				case 9: try{
+						int rows = editor.save();
+						out().println("Profile Updated! (" + rows + " rows changed)");
+						editing = false;
+					}catch(SQLException e){
+						err().println("Nothing was saved: " + e.getMessage());
+					}
+					break;
+				case 10: editing = false; break;
+				default: out().println("Unrecognized choice!"); break;
+			}
+		}
+        }
+        catch(Exception e){
+		err().println (e.getMessage ());
+        }
+    }
+
+    private static String prompt(String question) throws IOException {
+	out().print(question);
+	return readLine();
+    }
+
+    //blank answers are stored as NULL
+    private static String optional(String answer){
+	return answer.trim().isEmpty() ? null : answer;
     }
 
 	//deleteStatus:
@@ -645,65 +1272,97 @@ public class ProfNetwork {
 	//	Sent
     public static void NewMessage(ProfNetwork esql, String userlogin){
         try{
-		System.out.print("\tWho would you like to message?\n\tEnter receiver's user id: ");
-        	String rec_id = in.readLine();
+		out().print("\tWho would you like to message?\n\tEnter receiver's user id: ");
+        	String rec_id = readLine();
 //		if(rec_id.lastIndexOf("\n") != -1)
 //			rec_id = rec_id.substring(0, rec_id.length()-1);
-        	System.out.print("\tEnter your message here: \n\t");
-        	String msg_content = in.readLine();
-		System.out.print("\tWould you like to send now? Y/N: ");
-		String want_send = in.readLine();
-		String query;
-		String del_stat = "3";
+        	out().print("\tEnter your message here: \n\t");
+        	String msg_content = readLine();
+		out().print("\tWould you like to send now? Y/N: ");
+		String want_send = readLine();
 		String deliv_stat = "Delivered";
 		String draft_stat = "Draft";
+		String msg_stat;
 		if(want_send.equals("Y")){
-        		System.out.println("\tSending message ...");
-        		query = String.format("INSERT INTO MESSAGE ( senderId, receiverId,contents, sendTime, deleteStatus, status) VALUES ('%s', '%s', '%s', '%s', '%s', '%s')", userlogin, rec_id.trim(), msg_content.trim(), new Timestamp(System.currentTimeMillis()) , del_stat, deliv_stat);
+        		out().println("\tSending message ...");
+        		msg_stat = deliv_stat;
 		}
 		else{
-			System.out.println("\tSaving message as Draft");
-			query = String.format("INSERT INTO MESSAGE ( senderId, receiverId, contents, sendTime, deleteStatus, status) VALUES ('%s', '%s', '%s', '%s', '%s', '%s')", userlogin, rec_id.trim(), msg_content.trim(), new Timestamp(System.currentTimeMillis()), del_stat, draft_stat );			
+			out().println("\tSaving message as Draft");
+			msg_stat = draft_stat;
 		}
 		//MESSAGES_SIZE++;
 		//esql.update(query);
-		esql.executeUpdate(query);
-		System.out.println("Sent!");
+		queueMessage(esql, userlogin, rec_id, msg_content.trim(), msg_stat);
 	}
 
 	catch(Exception e){
-         System.err.println (e.getMessage ());
+         err().println (e.getMessage ());
       }              
     }
 
 
 
+    /*
+     * Hands a message to the background writer and remembers it in the
+     * session so the main menu can tell how it went
+     **/
+    static void queueMessage(ProfNetwork esql, String from, String to, String contents, String status) throws SQLException {
+		//the directory knows every user, so a wrong receiver is caught here
+		UserDirectory users = esql.getDirectory();
+		int receiver = users.uidOf(to);
+		if(receiver < 0){
+			out().println("\tThere is no user " + to + ".");
+			return;
+		}
+		MessageSender.Pending p = esql.getSender().send(from, users.nameOf(receiver), contents, status);
+		session().outbox.add(p);
+		esql.getMetrics().messageSent();
+		out().println("\tQueued for delivery as message " + p.msgId + ".");
+    }
+
+    /*
+     * Reports the queued messages that were written or failed since the
+     * last report
+     **/
+    static void reportOutbox() {
+		Iterator<MessageSender.Pending> it = session().outbox.iterator();
+		while(it.hasNext()){
+			MessageSender.Pending p = it.next();
+			if(!p.isDone())
+				continue;
+			if(p.getStatus().equals(MessageSender.FAILED))
+				out().println("Your message to " + p.receiverId + " could not be sent: " + p.getError());
+			else
+				out().println("Your message to " + p.receiverId + " is " + p.getStatus().toLowerCase() + ".");
+			it.remove();
+		}
+    }
+
     public static void NewMessageFromProfile(ProfNetwork esql, String userlogin, String rec_id){
         try{
                 //System.out.print("\tWho would you like to message?\n\tEnter receiver's user id: ");
                 //String rec_id = in.readLine();
-		System.out.print("\tEnter your message here: \n\t");
-                String msg_content = in.readLine();
-                System.out.print("\tWould you like to send now? Y/N: ");
-                String want_send = in.readLine();
-                String query;
-                String del_stat = "3";
+		out().print("\tEnter your message here: \n\t");
+                String msg_content = readLine();
+                out().print("\tWould you like to send now? Y/N: ");
+                String want_send = readLine();
                 String deliv_stat = "Delivered";
                 String draft_stat = "Draft";
+                String msg_stat;
                 if(want_send.equals("Y")){
-                        System.out.println("\tSending message ...");
-                        query = String.format("INSERT INTO MESSAGE ( senderId, receiverId,contents, sendTime, deleteStatus, status) VALUES ('%s', '%s', '%s', '%s', '%s', '%s')", userlogin, rec_id, msg_content.trim(), new Timestamp(System.currentTimeMillis()) , del_stat, deliv_stat);
+                        out().println("\tSending message ...");
+                        msg_stat = deliv_stat;
                 }
                 else{
-                        System.out.println("\tSaving message as Draft");
-                        query = String.format("INSERT INTO MESSAGE ( senderId, receiverId, contents, sendTime, deleteStatus, status) VALUES ('%s', '%s', '%s', '%s', '%s', '%s')", userlogin, rec_id, msg_content.trim(), new Timestamp(System.currentTimeMillis()), del_stat, draft_stat );
+                        out().println("\tSaving message as Draft");
+                        msg_stat = draft_stat;
                 }
-		esql.executeUpdate(query);
-                System.out.println("Sent!");
+		queueMessage(esql, userlogin, rec_id, msg_content.trim(), msg_stat);
         }
 
         catch(Exception e){
-        	System.err.println (e.getMessage ());
+        	err().println (e.getMessage ());
       	}
 }
 
@@ -715,130 +1374,189 @@ public class ProfNetwork {
 // 	Reject = there is no connection between userid and connectionid
     public static void SendRequest(ProfNetwork esql, String myId){
 	try{
-		System.out.println("\tWho would you like to connect with?");
-		System.out.print("\tEnter user id: ");
-		String conn_id = in.readLine();
-		String query = String.format("SELECT * FROM CONNECTION_USR WHERE userId = '%s' AND connectionId = '%s' AND status = 'Reject'", myId, conn_id);
-		int queryFound = esql.executeQuery(query);
-		//if connection status is in connection table and status=Reject
-		if (queryFound>0){
-			query = String.format("UPDATE CONNECTION_USR SET status = 'Request' WHERE userId = '%s' AND connectionId = '%s'", myId, conn_id);
-			esql.executeUpdate(query);
-			System.out.println("\tConnection Request Sent to " + conn_id);
-		}
-		else{
-			query = String.format("SELECT * FROM CONNECTION_USR WHERE userId = '%s' AND connectionId = '%s'", myId, conn_id);
-                	queryFound = esql.executeQuery(query);
-			if(queryFound > 0) //if connection is in connection table but just not Reject
-				System.out.println("\tConnection Request Failed!\nYou either already sent a Connection Request and are waiting on a response\nor the user is already connected with you!");	
-			else{	//connection status doesn't exist
-				//query = String.format("UPDATE CONNECTION_USR SET status = 'Request' VALUES  userId = '%s' AND connectionId = '%s'", myId, conn_id);
-                        	query = String.format("INSERT INTO CONNECTION_USR (userId, connectionId, status) VALUES ('%s', '%s', 'Request')",myId, conn_id);
-				esql.executeUpdate(query);
-				System.out.println("\tConnection Request Sent to " + conn_id);
+		out().println("\tWho would you like to connect with?");
+		out().print("\tEnter user id: ");
+		String conn_id = readLine();
+		//past the friend limit new connections must come through the network
+		if(friendCount(esql, myId) >= FRIEND_LIMIT){
+			String[] path = esql.connectionPath(myId, conn_id, MAX_CONNECTION_LEVEL);
+			if(path == null){
+				out().println("\tERROR. Connection level limit surpassed");
+				out().println("\tYou have at least " + FRIEND_LIMIT + " friends. To add more, you must add through your friend's list");
+				return;
 			}
+			out().println("\tConnected through: " + joinPath(path));
 		}
+		//a new or previously rejected request, checked and sent in one statement
+		if(ConnectionRequests.send(esql, myId, conn_id))
+			out().println("\tConnection Request Sent to " + conn_id);
+		else
+			out().println("\tConnection Request Failed!\nYou either already sent a Connection Request and are waiting on a response\nor the user is already connected with you!");
 	}
 	catch(Exception e){
-        	System.err.println (e.getMessage ());
+        	err().println (e.getMessage ());
 	}      
     }
+    /*
+     * Lists friends of friends ranked by mutual connections and shared
+     * companies and schools, and lets the user open their profiles
+     **/
+    public static void PeopleYouMayKnow(ProfNetwork esql, String myId){
+	try{
+		boolean browse = true;
+		while(browse){
+			List<Recommender.Suggestion> list = esql.getRecommender().recommend(myId);
+			out().println("\n\tPeople you may know:\n\t--------------------");
+			if(list.isEmpty()){
+				out().println("\tNo suggestions yet. Connect with a few people first!");
+				return;
+			}
+			for(int i = 0; i < list.size(); ++i){
+				Recommender.Suggestion s = list.get(i);
+				String line = "\t" + (i + 1) + ". " + s.userId + "  " + s.mutual + " mutual connection" + (s.mutual == 1 ? "" : "s");
+				if(s.sharedCompanies > 0)
+					line += ", worked at the same company";
+				if(s.sharedSchools > 0)
+					line += ", went to the same school";
+				out().println(line);
+			}
+			out().println("OPTIONS:\n--------");
+			out().println("1. View a profile\n2. Back to Previous Page");
+			switch(readChoice()){
+				case 1:
+					out().print("Enter number or user id: ");
+					String pick = readLine().trim();
+					if(pick.matches("\\d+") && Integer.parseInt(pick) >= 1 && Integer.parseInt(pick) <= list.size())
+						pick = list.get(Integer.parseInt(pick) - 1).userId;
+					ViewProfile(esql, pick, myId);
+					break;
+				case 2: browse = false; break;
+				default: out().println("Invalid choice!"); break;
+			}
+		}
+	}
+	catch(Exception e){
+		err().println(e.getMessage());
+	}
+    }
+
     public static void SearchPeople(ProfNetwork esql, String myId){
 	try{
 		boolean search = true;
 		while(search){
-			System.out.print("\tEnter a name to search: ");
-	  		String name = in.readLine();
-	  		String percent = "%";
-			String userName = String.format("%s%s%s", percent, name, percent);
-			String query = String.format("SELECT userId,name FROM USR WHERE name LIKE '%s'", userName);
-       	  		int num_ppl = esql.executeQueryAndPrintResult(query);
+			out().print("\tEnter a name to search (end with * to match the start of a name): ");
+	  		String name = readLine();
+       	  		int num_ppl = PeopleSearch.print(esql, name, PeopleSearch.DEFAULT_LIMIT);
 			if(num_ppl>0){
-				System.out.println("\nWould you like to view a Profile?");
-				System.out.println("OPTIONS:--------\n1. Yes\n2. No");
+				out().println("\nWould you like to view a Profile?");
+				out().println("OPTIONS:--------\n1. Yes\n2. No");
 				switch(readChoice()){
 					case 1: 
-						System.out.print("\tPlease enter userId: ");
-						String id = in.readLine();
+						out().print("\tPlease enter userId: ");
+						String id = readLine();
 						//ViewProfile(esql, id, myId);
 						viewProfileFromSearch(esql, id, myId);
 						break;
 					case 2: search = false; break;
-					default: System.out.println("Invalid input!"); break;
+					default: out().println("Invalid input!"); break;
 				}
 			}
 			else{
-				System.out.println("No results found");
+				out().println("No results found");
 				search = false;
 			}
-			System.out.println("\nWould you like to search again?");
-                        System.out.println("OPTIONS:--------\n1. Yes\n2. No");
+			out().println("\nWould you like to search again?");
+                        out().println("OPTIONS:--------\n1. Yes\n2. No");
 			switch(readChoice()){
                         	case 1:
                       			search = true;
                                         break;
                                 case 2: search = false; break;
-                                default: System.out.println("Invalid input!"); break;
+                                default: out().println("Invalid input!"); break;
                         }
 		}
 	} 
 	catch(Exception e){
-         	System.err.println (e.getMessage ());
+         	err().println (e.getMessage ());
         // 	return null;
 	}
     }
     public static void ChangePassword(ProfNetwork esql, String authorizedUser){
                 try{
-                        System.out.print("\tEnter new password: ");
-                        String newPass = in.readLine();
+                        out().print("\tEnter new password: ");
+                        String newPass = readLine();
 
-                        String query = String.format("UPDATE USR SET password = '%s' WHERE userId = '%s'", newPass,authorizedUser);
-			esql.executeUpdate(query);
-			System.out.println("Password Updated!");
+                        String query = "UPDATE USR SET password = ? WHERE userId = ?";
+			esql.executeUpdate(query, newPass,authorizedUser);
+			esql.getProfiles().invalidate(authorizedUser);
+			out().println("Password Updated!");
                 }
                 catch(Exception e){
-			System.err.println (e.getMessage ());
+			err().println (e.getMessage ());
                 }
     }
 
 	public static void ViewRequests(ProfNetwork esql, String myId){
     	try{
-			String query = String.format("SELECT userId, status FROM CONNECTION_USR WHERE (connectionId = '%s') AND status = 'Request'", myId);
-			int numRequests = esql.executeQueryAndPrintResult(query);
+			int numRequests = ConnectionRequests.printPending(esql, myId);
 			if(numRequests > 0){
-				System.out.print("\nWould you like to Accept or Reject a request? \n1. Accept\n2. Reject\n3. exit\n");
-				//String input = in.readLine();
-				String id;
+				out().print("\nWould you like to Accept or Reject requests? \n1. Accept\n2. Reject\n3. Accept all\n4. Reject all\n5. Reject requests older than some days\n6. exit\n");
+				List<String> changed;
 				switch(readChoice()){
 				case 1:
-					System.out.print("Please enter the user ID you'd like to connect with: ");
-					id = in.readLine();
-					query = String.format("UPDATE CONNECTION_USR SET status = 'Accept' WHERE userId = '%s' AND connectionId = '%s'", id, myId);
-					esql.executeUpdate(query);
-					System.out.println("\n\tConnection Accepted!");	
-					num_friends++;
+					out().print("Please enter the user ID(s) you'd like to connect with, separated by commas: ");
+					changed = ConnectionRequests.accept(esql, myId, ConnectionRequests.parse(readLine()));
+					printAnswered(changed, "Accepted");
 					break;		
 				case 2:
-			                System.out.print("Please enter the user ID whose request you'd like to reject: ");
-			                id = in.readLine();
-			                query = String.format("UPDATE CONNECTION_USR SET status = 'Reject' WHERE userId = '%s' AND connectionId = '%s'", id, myId);  
-			                esql.executeUpdate(query);
-			                System.out.println("\n\tConnection Rejected!");
+			                out().print("Please enter the user ID(s) whose requests you'd like to reject, separated by commas: ");
+			                changed = ConnectionRequests.reject(esql, myId, ConnectionRequests.parse(readLine()));
+					printAnswered(changed, "Rejected");
 					break;         
-				default: System.out.println("Invalid choice!"); break;
+				case 3:
+					printAnswered(ConnectionRequests.acceptAll(esql, myId), "Accepted");
+					break;
+				case 4:
+					printAnswered(ConnectionRequests.rejectAll(esql, myId), "Rejected");
+					break;
+				case 5:
+					out().print("Reject requests older than how many days? ");
+					int days;
+					try{
+						days = Integer.parseInt(readLine().trim());
+					}catch(NumberFormatException e){
+						out().println("Invalid number of days!");
+						break;
+					}
+					printAnswered(ConnectionRequests.rejectOlderThan(esql, myId, days), "Rejected");
+					break;
+				case 6: break;
+				default: out().println("Invalid choice!"); break;
 
             			}
 			}
 			else{
-				System.out.println("\n\tYou currently do not have any pending requests.");
+				out().println("\n\tYou currently do not have any pending requests.");
 			}
 			
 		}
 		catch(Exception e){
-			System.err.println(e.getMessage() );
+			err().println(e.getMessage() );
 		}       
     }
 
+    private static void printAnswered(List<String> senders, String what){
+	if(senders.isEmpty()){
+		out().println("\n\tNo pending request was found for that.");
+		return;
+	}
+	StringBuilder line = new StringBuilder("\n\tConnection" + (senders.size() == 1 ? "" : "s") + " " + what + ": ");
+	for(int i = 0; i < senders.size(); ++i)
+		line.append(i == 0 ? "" : ", ").append(senders.get(i));
+	out().println(line);
+	session().num_friends_time = 0;
+    }
+
 //Shows a list of messages not deleted by user
 //
 //deleteStatus:
@@ -850,76 +1568,101 @@ public class ProfNetwork {
     	try{
 			boolean view = true;
 			String delete_choice;
+			//keys of the pages before the one shown, for going back
+			Deque<Inbox.Key> previous = new ArrayDeque<Inbox.Key>();
+			Inbox.Key key = Inbox.FIRST;
+			int me = esql.getDirectory().uidOf(userid);
 			while(view){
-				String query = String.format("SELECT msgId,receiverId,senderId, deleteStatus FROM MESSAGE WHERE (receiverId = '%s' AND (deleteStatus != 2 AND deleteStatus != 0)) OR (senderId = '%s' AND (deleteStatus != 0 AND deleteStatus != 1))", userid.trim(), userid);			
-				int num_msg = esql.executeQueryAndPrintResult(query);
-				if(num_msg > 0){
-					System.out.println("\nWould you like to open a message?");
-					System.out.println("OPTIONS:\n--------");
-					System.out.println("1. Open a message\n2. Back to menu");
+				List<List<String>> page = Inbox.page(esql, me, key, INBOX_PAGE_SIZE);
+				if(page.isEmpty() && !previous.isEmpty()){
+					//the rest of the inbox was deleted meanwhile
+					key = previous.pop();
+					continue;
+				}
+				if(!page.isEmpty()){
+					Inbox.print(out(), page);
+					boolean hasNext = page.size() == INBOX_PAGE_SIZE;
+					out().println("\nWould you like to open a message?");
+					out().println("OPTIONS:\n--------");
+					out().println("1. Open a message\n2. Back to menu");
+					if(hasNext) out().println("3. Next page");
+					if(!previous.isEmpty()) out().println("4. Previous page");
+					out().println("5. Mark all as read\n6. Delete messages\n7. Delete all messages from a user");
 					//System.out.print("\tChoose: ");
 					switch(readChoice()){
-						case 1: System.out.print("Please enter msgId: ");
-								String message_id = in.readLine();
+						case 1: out().print("Please enter msgId: ");
+								String message_id = readLine();
 								OpenMessage(esql, userid, message_id);
 								break;
 						case 2: view = false; break;
-						default: System.out.println("Invalid choice!"); break;
+						case 3: if(hasNext){
+									previous.push(key);
+									key = Inbox.keyAfter(page);
+								}else out().println("Invalid choice!");
+								break;
+						case 4: if(!previous.isEmpty()) key = previous.pop();
+								else out().println("Invalid choice!");
+								break;
+						case 5: out().println(Messages.markAllRead(esql, me) + " message(s) marked as read");
+								break;
+						case 6: out().print("Please enter msgIds, separated by commas: ");
+								try{
+									out().println(Messages.delete(esql, me, Messages.parse(readLine())) + " message(s) deleted!");
+								}catch(NumberFormatException e){
+									out().println("Invalid msgId!");
+								}
+								break;
+						case 7: out().print("Please enter the user id of the sender: ");
+								out().println(Messages.deleteFrom(esql, me, readLine()) + " message(s) deleted!");
+								break;
+						default: out().println("Invalid choice!"); break;
 					}			
 				}
 				else{ 
-					System.out.println("You have no messages!"); 
+					out().println("You have no messages!"); 
 					view=false;
 				}
 			}
 			
 	}
 		catch(Exception e){
-			System.err.println (e.getMessage ());
+			err().println (e.getMessage ());
 		}
 	}    
     public static void OpenMessage(ProfNetwork esql, String userid, String message_id){
 		try{
-			String query = String.format("SELECT contents FROM MESSAGE WHERE msgId = '%s'", message_id);
-            esql.executeQueryAndPrintResult(query);
-			
-			//checks if i'm the sender of the message
-			query = String.format("SELECT * FROM MESSAGE WHERE msgId = '%s' AND senderId = '%s'", message_id, userid);
-			int isSender = esql.executeQuery(query);
-			//System.out.println("isSender = " + isSender);
+			int msgId = Integer.parseInt(message_id.trim());
+			int me = esql.getDirectory().uidOf(userid);
+			//reads the message and marks it Read in one statement
+			Messages.Opened message = Messages.open(esql, me, msgId);
+			if(message == null){
+				out().println("No such message in your inbox!");
+				return;
+			}
+			out().println("From: " + message.senderId + "\nTo: " + message.receiverId + "\nStatus: " + message.status);
+			out().println("\n" + message.contents);
 			
-            System.out.println("\nOPTIONS:\n1. Delete this message\n2. Go back to Inbox");
+            out().println("\nOPTIONS:\n1. Delete this message\n2. Go back to Inbox");
             switch(readChoice()){
                 case 1: 
-					if(isSender > 0)
-						query = String.format("UPDATE MESSAGE SET deleteStatus = 1 WHERE msgId = '%s'", message_id);
-					else
-						query = String.format("UPDATE MESSAGE SET deleteStatus = 2 WHERE msgId = '%s'", message_id);
-					esql.executeUpdate(query);
-					System.out.println("Message deleted!");
+					if(Messages.delete(esql, me, msgId))
+						out().println("Message deleted!");
 					break;
                 case 2: break;
                 default: break;
             }
 		}
 		catch(Exception e){
-            System.err.println (e.getMessage ());
+            err().println (e.getMessage ());
         }
 	}
 	public static void viewMyInfo(ProfNetwork esql, String myId){
 		try{
-			System.out.println("Personal Info:\n----------------");
-                	String query = String.format("SELECT name, dateOfBirth FROM USR WHERE userId = '%s'", myId);
-			esql.executeQueryAndPrintResult(query);
-                	System.out.println("\nEducation Details:\n----------------");
-                	query = String.format("SELECT institutionName,major,degree,startdate,enddate FROM EDUCATIONAL_DETAILS WHERE userId = '%s'",myId);
-                	esql.executeQueryAndPrintResult(query);
-                	System.out.println("\nWork Experienc:\n----------------");
-                	query = String.format("SELECT company,role,location,startDate,endDate FROM WORK_EXPR WHERE userId = '%s'",myId);
-                	esql.executeQueryAndPrintResult(query);
+			Profile profile = Profile.load(esql, myId, myId);
+			profile.print(out(), false, true);
 		}
 		catch(Exception e){
-            		System.err.println (e.getMessage ());
+            		err().println (e.getMessage ());
         	}
 	}
 
@@ -0,0 +1,183 @@
+/*
+ * ProfNetwork TCP Session Server
+ * ==============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class serves the ProfNetwork menus over a line based TCP protocol.
+ * Every client connection gets its own Session (input, output and menu
+ * state) and runs on a worker of a bounded executor; all sessions share
+ * the connection pool of one ProfNetwork instance.
+ *
+ * The protocol is the console dialogue itself: the server writes the menu
+ * text and prompts, the client answers with one line per prompt. Closing
+ * the socket ends the session, and so does leaving a prompt unanswered for
+ * profnetwork.server.idleMs (default 10 minutes, 0 waits forever), so idle
+ * clients do not hold a worker.
+ *
+ */
+public class ProfNetworkServer {
+   private final ProfNetwork _esql;
+   private final int _port;
+   private final ThreadPoolExecutor _workers;
+   private final AtomicInteger _activeSessions = new AtomicInteger();
+   private final AtomicInteger _sessionIds = new AtomicInteger();
+   private final int _idleMs = Integer.getInteger("profnetwork.server.idleMs", 600000).intValue();
+   private volatile ServerSocket _socket = null;
+
+   /**
+    * Creates a server sized from the profnetwork.server.* system properties.
+    *
+    * @param esql the database the sessions run against
+    * @param port the TCP port to listen on
+    */
+   public ProfNetworkServer (ProfNetwork esql, int port) {
+      this(esql, port,
+           Integer.getInteger("profnetwork.server.threads", 256).intValue(),
+           Integer.getInteger("profnetwork.server.backlog", 1024).intValue());
+   }//end ProfNetworkServer
+
+   /**
+    * @param esql the database the sessions run against
+    * @param port the TCP port to listen on
+    * @param maxSessions number of sessions served at the same time
+    * @param backlog number of accepted connections waiting for a worker
+    */
+   public ProfNetworkServer (ProfNetwork esql, int port, int maxSessions, int backlog) {
+      this._esql = esql;
+      this._port = port;
+      this._workers = new ThreadPoolExecutor(maxSessions, maxSessions, 60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(backlog), new ThreadFactory() {
+               public Thread newThread (Runnable r) {
+                  Thread t = new Thread(r, "session-" + _sessionIds.incrementAndGet());
+                  t.setDaemon(true);
+                  return t;
+               }
+            });
+      this._workers.allowCoreThreadTimeOut(true);
+   }//end ProfNetworkServer
+
+   /**
+    * Accepts client connections until the server socket is closed.
+    *
+    * @throws java.io.IOException when the port cannot be opened
+    */
+   public void serve () throws IOException {
+      this._socket = new ServerSocket(this._port);
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+         public void run () { shutdown(); }
+      });
+      System.out.println("Serving ProfNetwork sessions on port " + this._port);
+      try{
+         while (!this._socket.isClosed()) {
+            final Socket client;
+            try{
+               client = this._socket.accept();
+            }catch (IOException e){
+               if (this._socket.isClosed())
+                  break;
+               System.err.println("accept failed: " + e.getMessage());
+               continue;
+            }//end try
+            try{
+               this._workers.execute(new Runnable() {
+                  public void run () { handle(client); }
+               });
+            }catch (RejectedExecutionException e){
+               refuse(client);
+            }//end try
+         }//end while
+      }finally{
+         shutdown();
+      }//end try
+   }//end serve
+
+   /**
+    * Runs the menus of one client on the calling worker thread.
+    */
+   void handle (Socket client) {
+      this._activeSessions.incrementAndGet();
+      try{
+         client.setTcpNoDelay(true);
+         client.setSoTimeout(this._idleMs);
+         BufferedReader in = new BufferedReader(
+               new InputStreamReader(client.getInputStream(), "UTF-8"));
+         PrintStream out = new PrintStream(client.getOutputStream(), false, "UTF-8");
+         Session session = new Session(in, out, out);
+         session.page_size = Session.PAGE_SIZE;
+         session.bind();
+         try{
+            ProfNetwork.runSession(this._esql);
+            out.flush();
+         }finally{
+            Session.unbind();
+         }//end try
+      }catch (Exception e){
+         System.err.println("session " + client.getRemoteSocketAddress() + ": " + e.getMessage());
+      }finally{
+         this._activeSessions.decrementAndGet();
+         try{
+            client.close();
+         }catch (IOException e){
+            // ignored.
+         }//end try
+      }//end try
+   }//end handle
+
+   private static void refuse (Socket client) {
+      try{
+         PrintStream out = new PrintStream(client.getOutputStream(), true, "UTF-8");
+         out.println("Server busy, please try again later.");
+         client.close();
+      }catch (IOException e){
+         // ignored.
+      }//end try
+   }//end refuse
+
+   /**
+    * @return the number of sessions currently being served
+    */
+   public int getActiveSessions () {
+      return this._activeSessions.get();
+   }//end getActiveSessions
+
+   /**
+    * Stops accepting clients and waits briefly for running sessions.
+    */
+   public void shutdown () {
+      try{
+         if (this._socket != null)
+            this._socket.close();
+      }catch (IOException e){
+         // ignored.
+      }//end try
+      this._workers.shutdown();
+      try{
+         this._workers.awaitTermination(5, TimeUnit.SECONDS);
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+      }//end try
+   }//end shutdown
+
+}//end ProfNetworkServer
@@ -0,0 +1,206 @@
+/*
+ * ProfNetwork Profile Page
+ * ========================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class holds everything a profile page shows about one user, as
+ * seen by another user: identity, education, work history and whether the
+ * two are connected. The part about the user is loaded with a single
+ * query whose rows are tagged with the part they belong to, and kept in
+ * the ProfileCache. Whether the viewer is connected is read from
+ * CONNECTION_USR unless the SocialGraph already has the connection: the
+ * graph learns late about connections accepted in other processes, but
+ * never holds one that is not there.
+ *
+ */
+public class Profile {
+
+   // one round trip: every part of the page is a UNION ALL branch tagged in
+   // the first column; all values are cast to text so the branches line up.
+   // Every branch is read by the user's surrogate key.
+   static final String LOAD_QUERY =
+      "SELECT 'U', U.userId, CAST(U.name AS text), CAST(U.dateOfBirth AS text), NULL, NULL " +
+      "FROM USR U WHERE U.uid = ? " +
+      "UNION ALL " +
+      "SELECT 'E', CAST(E.institutionName AS text), CAST(E.major AS text), CAST(E.degree AS text), " +
+      "CAST(E.startdate AS text), CAST(E.enddate AS text) " +
+      "FROM EDUCATIONAL_DETAILS E WHERE E.userUid = ? " +
+      "UNION ALL " +
+      "SELECT 'W', CAST(W.company AS text), CAST(W.role AS text), CAST(W.location AS text), " +
+      "CAST(W.startDate AS text), CAST(W.endDate AS text) " +
+      "FROM WORK_EXPR W WHERE W.userUid = ?";
+
+   // both directions, each served by one of the accepted connection indexes
+   static final String CONNECTED_QUERY =
+      "(SELECT 1 FROM CONNECTION_USR WHERE userUid = ? AND connectionUid = ? AND status = 'Accept') " +
+      "UNION ALL " +
+      "(SELECT 1 FROM CONNECTION_USR WHERE userUid = ? AND connectionUid = ? AND status = 'Accept') LIMIT 1";
+
+   static final String[] EDUCATION_COLUMNS = { "institutionname", "major", "degree", "startdate", "enddate" };
+   static final String[] WORK_COLUMNS = { "company", "role", "location", "startdate", "enddate" };
+
+   public final String userId;
+   // null for the cached profile, which nobody is looking at
+   public final String viewerId;
+   // null when the user does not exist
+   public String name = null;
+   public String dateOfBirth = null;
+   public boolean exists = false;
+   public final List<String[]> education;
+   public final List<String[]> work;
+   // true when the viewer and the user have an accepted connection
+   public boolean connected = false;
+
+   Profile (String userId, String viewerId) {
+      this(userId, viewerId, new ArrayList<String[]>(), new ArrayList<String[]>());
+   }//end Profile
+
+   private Profile (String userId, String viewerId, List<String[]> education, List<String[]> work) {
+      this.userId = userId;
+      this.viewerId = viewerId;
+      this.education = education;
+      this.work = work;
+   }//end Profile
+
+   /**
+    * Gets the profile of a user as seen by a viewer, from the cache when it
+    * holds the user.
+    *
+    * @param esql the database
+    * @param userId the user whose profile is shown
+    * @param viewerId the logged in user looking at it
+    * @return the profile; exists is false when there is no such user
+    * @throws java.sql.SQLException when the query failed
+    */
+   public static Profile load (ProfNetwork esql, String userId, String viewerId) throws SQLException {
+      Profile owner = esql.getProfiles().get(userId);
+      Profile p = owner.copy(viewerId, owner.education, owner.work);
+      p.connected = owner.exists && connected(esql, viewerId, userId);
+      return p;
+   }//end load
+
+   /**
+    * @return true when two users have an accepted connection
+    * @throws java.sql.SQLException when the query failed
+    */
+   static boolean connected (ProfNetwork esql, String a, String b) throws SQLException {
+      if (esql.getGraph().distance(a, b, 1) == 1)
+         return true;
+      UserDirectory directory = esql.getDirectory();
+      int ua = directory.uidOf(a);
+      int ub = directory.uidOf(b);
+      if (ua < 0 || ub < 0 || ua == ub)
+         return false;
+      Integer ka = Integer.valueOf(ua);
+      Integer kb = Integer.valueOf(ub);
+      return !esql.executeQueryAndReturnResult(CONNECTED_QUERY, ka, kb, kb, ka).isEmpty();
+   }//end connected
+
+   /**
+    * Reads the part of a profile that does not depend on the viewer, in
+    * one round trip.
+    *
+    * @return the profile; its lists must not be changed, they are shared
+    * @throws java.sql.SQLException when the query failed
+    */
+   static Profile fetch (ProfNetwork esql, String userId) throws SQLException {
+      Profile p = new Profile(userId, null);
+      int uid = esql.getDirectory().uidOf(userId);
+      if (uid < 0)
+         return p.copy(null, Collections.<String[]>emptyList(), Collections.<String[]>emptyList());
+      Integer key = Integer.valueOf(uid);
+      List<List<String>> rows = esql.executeQueryAndReturnResult(LOAD_QUERY, key, key, key);
+      for (List<String> row : rows) {
+         char kind = row.get(0).charAt(0);
+         switch (kind) {
+            case 'U':
+               p.exists = true;
+               p.name = row.get(2);
+               p.dateOfBirth = row.get(3);
+               break;
+            case 'E':
+               p.education.add(values(row));
+               break;
+            case 'W':
+               p.work.add(values(row));
+               break;
+            default: break;
+         }//end switch
+      }//end for
+      return p.copy(null, Collections.unmodifiableList(p.education), Collections.unmodifiableList(p.work));
+   }//end fetch
+
+   /**
+    * @return this profile for another viewer, with the given lists
+    */
+   private Profile copy (String viewerId, List<String[]> education, List<String[]> work) {
+      Profile p = new Profile(this.userId, viewerId, education, work);
+      p.exists = this.exists;
+      p.name = this.name;
+      p.dateOfBirth = this.dateOfBirth;
+      return p;
+   }//end copy
+
+   private static String[] values (List<String> row) {
+      String[] v = new String[row.size() - 1];
+      for (int i = 1; i < row.size(); ++i)
+         v[i - 1] = row.get(i);
+      return v;
+   }//end values
+
+   /**
+    * Prints the personal info, education and work history sections the
+    * same way executeQueryAndPrintResult lays out rows.
+    *
+    * @param out where to print
+    * @param showUserId include the user id column
+    * @param showBirthday include the date of birth column
+    */
+   public void print (PrintStream out, boolean showUserId, boolean showBirthday) {
+      out.println("Personal Info:\n----------------");
+      if (this.exists) {
+         List<String> header = new ArrayList<String>();
+         List<String> values = new ArrayList<String>();
+         if (showUserId) { header.add("userid"); values.add(this.userId); }
+         header.add("name"); values.add(this.name);
+         if (showBirthday) { header.add("dateofbirth"); values.add(this.dateOfBirth); }
+         printRows(out, header.toArray(new String[header.size()]),
+                   Collections.singletonList(values.toArray(new String[values.size()])));
+      }//end if
+      out.println("\nEducation Details:\n----------------");
+      printRows(out, EDUCATION_COLUMNS, this.education);
+      out.println("\nWork Experienc:\n----------------");
+      printRows(out, WORK_COLUMNS, this.work);
+   }//end print
+
+   private static void printRows (PrintStream out, String[] header, List<String[]> rows) {
+      if (rows.isEmpty())
+         return;
+      StringBuilder line = new StringBuilder();
+      for (String h : header)
+         line.append(h).append('\t');
+      out.println(line);
+      for (String[] row : rows) {
+         line.setLength(0);
+         for (String v : row)
+            line.append(v == null ? "" : v.trim()).append('\t');
+         out.println(line);
+      }//end for
+   }//end printRows
+
+}//end Profile
@@ -0,0 +1,166 @@
+/*
+ * ProfNetwork Profile Cache
+ * =========================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps recently shown profiles (the part that does not depend
+ * on the viewer) so browsing from friend list to profile and back does
+ * not read USR, EDUCATIONAL_DETAILS and WORK_EXPR again. It is read
+ * through: a miss loads the profile with Profile.fetch.
+ *
+ * Entries live in segments, each an access ordered LinkedHashMap with its
+ * own lock, so sessions on different users rarely wait for each other.
+ * A segment evicts its least recently used entry when full, and an entry
+ * older than profnetwork.profile.ttlMs is loaded again; changes made by
+ * this process invalidate the user's entry right away.
+ *
+ */
+public class ProfileCache {
+
+   static final int SEGMENTS = 16;
+
+   private static class Cached {
+      final Profile profile;
+      final long loadedAt;
+
+      Cached (Profile profile, long loadedAt) {
+         this.profile = profile;
+         this.loadedAt = loadedAt;
+      }//end Cached
+   }//end Cached
+
+   private class Segment extends LinkedHashMap<String, Cached> {
+      private static final long serialVersionUID = 1L;
+      final int capacity;
+      // bumped by every invalidation, guarded by the segment
+      long version = 0;
+
+      Segment (int capacity) {
+         super(16, 0.75f, true);
+         this.capacity = capacity;
+      }//end Segment
+
+      protected boolean removeEldestEntry (Map.Entry<String, Cached> eldest) {
+         if (size() <= this.capacity)
+            return false;
+         _evictions.increment();
+         return true;
+      }//end removeEldestEntry
+   }//end Segment
+
+   private final ProfNetwork _esql;
+   private final long _ttlNanos;
+   private final Segment[] _segments = new Segment[SEGMENTS];
+
+   private final StripedCounter _hits = new StripedCounter();
+   private final StripedCounter _misses = new StripedCounter();
+   private final StripedCounter _evictions = new StripedCounter();
+   private final StripedCounter _expirations = new StripedCounter();
+   private final StripedCounter _invalidations = new StripedCounter();
+
+   /**
+    * Creates a cache sized from profnetwork.profile.cacheSize (10000) and
+    * profnetwork.profile.ttlMs (60000).
+    */
+   public ProfileCache (ProfNetwork esql) {
+      this(esql, Integer.getInteger("profnetwork.profile.cacheSize", 10000).intValue(),
+           Long.getLong("profnetwork.profile.ttlMs", 60000L).longValue());
+   }//end ProfileCache
+
+   /**
+    * @param esql the database
+    * @param maxSize profiles kept at most
+    * @param ttlMs how long a profile is shown without reading it again
+    */
+   public ProfileCache (ProfNetwork esql, int maxSize, long ttlMs) {
+      this._esql = esql;
+      this._ttlNanos = ttlMs * 1000000L;
+      int perSegment = Math.max(1, (maxSize + SEGMENTS - 1) / SEGMENTS);
+      for (int i = 0; i < SEGMENTS; ++i)
+         this._segments[i] = new Segment(perSegment);
+   }//end ProfileCache
+
+   private Segment segment (String key) {
+      int h = key.hashCode();
+      h ^= h >>> 16;
+      return this._segments[h & (SEGMENTS - 1)];
+   }//end segment
+
+   /**
+    * @return the profile of a user, loading it on a miss
+    * @throws java.sql.SQLException when it had to be loaded and that failed
+    */
+   public Profile get (String userId) throws SQLException {
+      String key = userId.trim();
+      Segment segment = segment(key);
+      long now = System.nanoTime();
+      long version;
+      synchronized (segment) {
+         version = segment.version;
+         Cached e = segment.get(key);
+         if (e != null) {
+            if (now - e.loadedAt < this._ttlNanos) {
+               this._hits.increment();
+               return e.profile;
+            }//end if
+            segment.remove(key);
+            this._expirations.increment();
+         }//end if
+      }//end synchronized
+      this._misses.increment();
+      // loaded outside the lock; two sessions missing together both load
+      Profile profile = Profile.fetch(this._esql, key);
+      synchronized (segment) {
+         // an invalidation while loading may mean the rows read are already old
+         if (segment.version == version)
+            segment.put(key, new Cached(profile, now));
+      }//end synchronized
+      return profile;
+   }//end get
+
+   /**
+    * Drops the cached profile of a user after it changed.
+    */
+   public void invalidate (String userId) {
+      String key = userId.trim();
+      Segment segment = segment(key);
+      synchronized (segment) {
+         ++segment.version;
+         if (segment.remove(key) != null)
+            this._invalidations.increment();
+      }//end synchronized
+   }//end invalidate
+
+   public int size () {
+      int size = 0;
+      for (Segment segment : this._segments)
+         synchronized (segment) { size += segment.size(); }
+      return size;
+   }//end size
+
+   public long getHitCount () { return this._hits.sum(); }
+   public long getMissCount () { return this._misses.sum(); }
+   public long getEvictionCount () { return this._evictions.sum(); }
+   public long getExpirationCount () { return this._expirations.sum(); }
+   public long getInvalidationCount () { return this._invalidations.sum(); }
+
+   public double getHitRatio () {
+      long hits = getHitCount();
+      long total = hits + getMissCount();
+      return total == 0 ? 0.0 : (double) hits / total;
+   }//end getHitRatio
+
+}//end ProfileCache
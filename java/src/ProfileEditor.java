@@ -0,0 +1,254 @@
+/*
+ * ProfNetwork Profile Editor
+ * ==========================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class collects the changes a user makes to their profile (USR
+ * fields, education entries and work entries) and saves them together.
+ * Entries are keyed on the primary keys of EDUCATIONAL_DETAILS
+ * (userId, major, degree) and WORK_EXPR (userId, company, role,
+ * startDate), so a later edit of the same entry replaces an earlier one.
+ *
+ * Saving sends one statement: an UPDATE of USR, one DELETE and one
+ * INSERT ... ON CONFLICT DO UPDATE per table, chained as data modifying
+ * WITH queries. A statement is its own transaction, so either every
+ * change is saved or none is, in a single round trip.
+ *
+ */
+public class ProfileEditor {
+
+   static final String EDUCATION_UPSERT =
+      "INSERT INTO EDUCATIONAL_DETAILS (userId, userUid, institutionName, major, degree, startdate, enddate) VALUES ";
+   static final String EDUCATION_ROW = "(?, ?, ?, ?, ?, CAST(? AS date), CAST(? AS date))";
+   static final String EDUCATION_CONFLICT =
+      " ON CONFLICT (userId, major, degree) DO UPDATE SET institutionName = EXCLUDED.institutionName, " +
+      "startdate = EXCLUDED.startdate, enddate = EXCLUDED.enddate RETURNING 1";
+
+   static final String WORK_UPSERT =
+      "INSERT INTO WORK_EXPR (userId, userUid, company, role, location, startDate, endDate) VALUES ";
+   static final String WORK_ROW = "(?, ?, ?, ?, ?, CAST(? AS date), CAST(? AS date))";
+   static final String WORK_CONFLICT =
+      " ON CONFLICT (userId, company, role, startDate) DO UPDATE SET location = EXCLUDED.location, " +
+      "endDate = EXCLUDED.endDate RETURNING 1";
+
+   private final ProfNetwork _esql;
+   private final String _userId;
+   // the surrogate key written with new rows, looked up on the first save
+   private int _uid = -1;
+
+   private String _email = null;
+   private String _name = null;
+   private String _dateOfBirth = null;
+
+   // key -> the entry to write, or null when the entry is removed
+   private final Map<List<String>, String[]> _education = new LinkedHashMap<List<String>, String[]>();
+   private final Map<List<String>, String[]> _work = new LinkedHashMap<List<String>, String[]>();
+
+   /**
+    * @param esql the database
+    * @param userId the user whose profile is edited
+    */
+   public ProfileEditor (ProfNetwork esql, String userId) {
+      this._esql = esql;
+      this._userId = userId.trim();
+   }//end ProfileEditor
+
+   public void setEmail (String email) { this._email = email; }
+   public void setName (String name) { this._name = name; }
+   public void setDateOfBirth (String dateOfBirth) { this._dateOfBirth = dateOfBirth; }
+
+   /**
+    * Adds an education entry, or changes the one with the same major and degree.
+    */
+   public void putEducation (String institution, String major, String degree, String startDate, String endDate) {
+      this._education.put(key(major, degree), new String[] { institution, major.trim(), degree.trim(), startDate, endDate });
+   }//end putEducation
+
+   public void removeEducation (String major, String degree) {
+      this._education.put(key(major, degree), null);
+   }//end removeEducation
+
+   /**
+    * Adds a work entry, or changes the one with the same company, role and start date.
+    */
+   public void putWork (String company, String role, String location, String startDate, String endDate) {
+      this._work.put(key(company, role, startDate), new String[] { company.trim(), role.trim(), location, startDate.trim(), endDate });
+   }//end putWork
+
+   public void removeWork (String company, String role, String startDate) {
+      this._work.put(key(company, role, startDate), null);
+   }//end removeWork
+
+   private static List<String> key (String... parts) {
+      String[] key = new String[parts.length];
+      for (int i = 0; i < parts.length; ++i)
+         key[i] = parts[i].trim();
+      return Arrays.asList(key);
+   }//end key
+
+   /**
+    * @return the number of changes waiting to be saved
+    */
+   public int pending () {
+      int n = this._education.size() + this._work.size();
+      if (this._email != null) ++n;
+      if (this._name != null) ++n;
+      if (this._dateOfBirth != null) ++n;
+      return n;
+   }//end pending
+
+   /**
+    * Discards the changes not saved yet.
+    */
+   public void clear () {
+      this._email = this._name = this._dateOfBirth = null;
+      this._education.clear();
+      this._work.clear();
+   }//end clear
+
+   /**
+    * Saves every change in one statement and forgets them.
+    *
+    * @return the number of rows written or deleted
+    * @throws java.sql.SQLException when the statement failed; nothing was saved
+    */
+   public int save () throws SQLException {
+      if (pending() == 0)
+         return 0;
+      if (this._uid < 0) {
+         this._uid = this._esql.getDirectory().uidOf(this._userId);
+         if (this._uid < 0)
+            throw new SQLException("There is no user " + this._userId);
+      }//end if
+      List<Object> params = new ArrayList<Object>();
+      String sql = statement(params);
+      List<List<String>> counts;
+      try{
+         counts = this._esql.executeQueryAndReturnResult(sql, params.toArray());
+      }finally{
+         // even a failed statement may have raced with a change made elsewhere
+         this._esql.getProfiles().invalidate(this._userId);
+      }//end try
+      int rows = 0;
+      for (String count : counts.get(0))
+         rows += Integer.parseInt(count);
+      clear();
+      return rows;
+   }//end save
+
+   /**
+    * Builds the statement saving the pending changes.
+    *
+    * @param params receives the values bound to its placeholders
+    */
+   String statement (List<Object> params) {
+      StringBuilder with = new StringBuilder();
+      List<String> parts = new ArrayList<String>();
+
+      if (this._email != null || this._name != null || this._dateOfBirth != null) {
+         StringBuilder set = new StringBuilder();
+         if (this._email != null) {
+            set.append("email = ?");
+            params.add(this._email);
+         }//end if
+         if (this._name != null) {
+            set.append(set.length() > 0 ? ", " : "").append("name = ?");
+            params.add(this._name);
+         }//end if
+         if (this._dateOfBirth != null) {
+            set.append(set.length() > 0 ? ", " : "").append("dateOfBirth = CAST(? AS date)");
+            params.add(this._dateOfBirth);
+         }//end if
+         params.add(this._userId);
+         part(with, parts, "usr", "UPDATE USR SET " + set + " WHERE userId = ? RETURNING 1");
+      }//end if
+
+      List<String[]> removed = new ArrayList<String[]>();
+      List<String[]> written = new ArrayList<String[]>();
+
+      split(this._education, removed, written);
+      if (!removed.isEmpty()) {
+         StringBuilder sql = new StringBuilder("DELETE FROM EDUCATIONAL_DETAILS WHERE userId = ? AND (major, degree) IN (");
+         params.add(this._userId);
+         for (int i = 0; i < removed.size(); ++i) {
+            sql.append(i == 0 ? "" : ", ").append("(?, ?)");
+            params.add(removed.get(i)[0]);
+            params.add(removed.get(i)[1]);
+         }//end for
+         part(with, parts, "education_removed", sql.append(") RETURNING 1").toString());
+      }//end if
+      if (!written.isEmpty()) {
+         StringBuilder sql = new StringBuilder(EDUCATION_UPSERT);
+         for (int i = 0; i < written.size(); ++i) {
+            String[] e = written.get(i);
+            sql.append(i == 0 ? "" : ", ").append(EDUCATION_ROW);
+            params.add(this._userId);
+            params.add(Integer.valueOf(this._uid));
+            params.addAll(Arrays.asList(e));
+         }//end for
+         part(with, parts, "education_written", sql.append(EDUCATION_CONFLICT).toString());
+      }//end if
+
+      removed.clear();
+      written.clear();
+      split(this._work, removed, written);
+      if (!removed.isEmpty()) {
+         StringBuilder sql = new StringBuilder("DELETE FROM WORK_EXPR WHERE userId = ? AND (company, role, startDate) IN (");
+         params.add(this._userId);
+         for (int i = 0; i < removed.size(); ++i) {
+            sql.append(i == 0 ? "" : ", ").append("(?, ?, CAST(? AS date))");
+            params.addAll(Arrays.asList(removed.get(i)));
+         }//end for
+         part(with, parts, "work_removed", sql.append(") RETURNING 1").toString());
+      }//end if
+      if (!written.isEmpty()) {
+         StringBuilder sql = new StringBuilder(WORK_UPSERT);
+         for (int i = 0; i < written.size(); ++i) {
+            sql.append(i == 0 ? "" : ", ").append(WORK_ROW);
+            params.add(this._userId);
+            params.add(Integer.valueOf(this._uid));
+            params.addAll(Arrays.asList(written.get(i)));
+         }//end for
+         part(with, parts, "work_written", sql.append(WORK_CONFLICT).toString());
+      }//end if
+
+      StringBuilder select = new StringBuilder(" SELECT ");
+      for (int i = 0; i < parts.size(); ++i)
+         select.append(i == 0 ? "" : ", ").append("(SELECT COUNT(*) FROM ").append(parts.get(i)).append(')');
+      return with.append(select).toString();
+   }//end statement
+
+   private static void part (StringBuilder with, List<String> parts, String name, String sql) {
+      with.append(parts.isEmpty() ? "WITH " : ", ").append(name).append(" AS (").append(sql).append(')');
+      parts.add(name);
+   }//end part
+
+   /**
+    * Splits the edits of one table into the keys removed and the entries written.
+    */
+   private static void split (Map<List<String>, String[]> edits, List<String[]> removed, List<String[]> written) {
+      for (Map.Entry<List<String>, String[]> e : edits.entrySet()) {
+         if (e.getValue() == null)
+            removed.add(e.getKey().toArray(new String[0]));
+         else
+            written.add(e.getValue());
+      }//end for
+   }//end split
+
+}//end ProfileEditor
@@ -0,0 +1,355 @@
+/*
+ * ProfNetwork Query Statistics
+ * ============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Pattern;
+
+/**
+ * This class keeps latency statistics per query template. Every statement
+ * run through ProfNetwork is reduced to its template (the "?" form, with
+ * literals of hand-written SQL replaced by "?"), and the template's
+ * count, errors, rows and a log-linear latency histogram are updated with
+ * a few atomic increments.
+ *
+ * Statements slower than profnetwork.slowQueryMs are written to the slow
+ * query log (profnetwork.slowQueryLog) together with their plan, taken on
+ * a background thread so the slow session does not wait for it. Queries
+ * that only read are explained with EXPLAIN (ANALYZE, BUFFERS), other
+ * statements with a plain EXPLAIN; quoted values in plans are masked.
+ *
+ */
+public class QueryStats {
+
+   /**
+    * Latencies in microseconds, in buckets 1/16 of a power of two wide, so
+    * every percentile is within about 6% of the exact value.
+    */
+   static class Histogram {
+      static final int SUB_BITS = 4;
+      static final int SUB = 1 << SUB_BITS;
+      static final int BUCKETS = (64 - SUB_BITS + 1) * SUB;
+
+      final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+      static int index (long micros) {
+         if (micros < SUB)
+            return (int) Math.max(0, micros);
+         int magnitude = 63 - Long.numberOfLeadingZeros(micros);
+         int sub = (int) (micros >>> (magnitude - SUB_BITS)) - SUB;
+         return (magnitude - SUB_BITS + 1) * SUB + sub;
+      }//end index
+
+      /**
+       * @return the middle of the values counted in a bucket
+       */
+      static double value (int index) {
+         if (index < SUB)
+            return index;
+         int magnitude = index / SUB + SUB_BITS - 1;
+         long width = 1L << (magnitude - SUB_BITS);
+         long low = (long) (SUB + index % SUB) << (magnitude - SUB_BITS);
+         return low + width / 2.0;
+      }//end value
+
+      void record (long micros) {
+         this.counts.incrementAndGet(index(micros));
+      }//end record
+
+      /**
+       * @return the given percentile in microseconds
+       */
+      double percentile (double p) {
+         long total = 0;
+         long[] snapshot = new long[BUCKETS];
+         for (int i = 0; i < BUCKETS; ++i) {
+            snapshot[i] = this.counts.get(i);
+            total += snapshot[i];
+         }//end for
+         if (total == 0)
+            return 0.0;
+         long rank = (long) Math.ceil(p * total);
+         long seen = 0;
+         for (int i = 0; i < BUCKETS; ++i) {
+            seen += snapshot[i];
+            if (seen >= rank && snapshot[i] > 0)
+               return value(i);
+         }//end for
+         return 0.0;
+      }//end percentile
+   }//end Histogram
+
+   /**
+    * The statistics of one query template.
+    */
+   public static class Template {
+      public final String sql;
+      final AtomicLong count = new AtomicLong();
+      final AtomicLong errors = new AtomicLong();
+      final AtomicLong rows = new AtomicLong();
+      final AtomicLong totalMicros = new AtomicLong();
+      final AtomicLong maxMicros = new AtomicLong();
+      final AtomicLong slow = new AtomicLong();
+      final AtomicLong lastExplained = new AtomicLong();
+      final Histogram latency = new Histogram();
+
+      Template (String sql) {
+         this.sql = sql;
+      }//end Template
+
+      void record (long rows, long micros, boolean failed) {
+         this.count.incrementAndGet();
+         if (failed)
+            this.errors.incrementAndGet();
+         this.rows.addAndGet(rows);
+         this.totalMicros.addAndGet(micros);
+         long max;
+         while (micros > (max = this.maxMicros.get()) && !this.maxMicros.compareAndSet(max, micros)) { }
+         this.latency.record(micros);
+      }//end record
+
+      public long getCount () { return this.count.get(); }
+      public long getErrors () { return this.errors.get(); }
+      public long getRows () { return this.rows.get(); }
+      public long getTotalMicros () { return this.totalMicros.get(); }
+      public long getMaxMicros () { return this.maxMicros.get(); }
+      public double percentileMicros (double p) { return this.latency.percentile(p); }
+   }//end Template
+
+   // templates are found by the exact statement text first; hand-written
+   // SQL with literals is normalized, and only so many texts are remembered
+   static final int MAX_TEXTS = 10000;
+
+   static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+   static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![A-Za-z_0-9$])-?\\d+(\\.\\d+)?(?![A-Za-z_0-9])");
+   static final Pattern VALUE_ROWS = Pattern.compile("(?i)(VALUES\\s*\\([^()]*\\))(\\s*,\\s*\\([^()]*\\))+");
+   static final Pattern SPACE = Pattern.compile("\\s+");
+
+   private final ConnectionPool _pool;
+   private final long _slowMicros;
+   private final String _slowLogFile;
+   private final ConcurrentHashMap<String, Template> _byText = new ConcurrentHashMap<String, Template>();
+   private final ConcurrentHashMap<String, Template> _byTemplate = new ConcurrentHashMap<String, Template>();
+   private final ThreadPoolExecutor _explainer;
+   private PrintWriter _slowLog = null;
+
+   /**
+    * Creates the statistics of a pool, configured from the system properties.
+    */
+   public QueryStats (ConnectionPool pool) {
+      this(pool, Long.getLong("profnetwork.slowQueryMs", 100L).longValue(),
+           System.getProperty("profnetwork.slowQueryLog", "slow_queries.log"));
+   }//end QueryStats
+
+   /**
+    * @param pool where plans of slow statements are taken
+    * @param slowMs statements taking longer are logged; negative turns the log off
+    * @param slowLogFile the slow query log
+    */
+   public QueryStats (ConnectionPool pool, long slowMs, String slowLogFile) {
+      this._pool = pool;
+      this._slowMicros = slowMs < 0 ? Long.MAX_VALUE : slowMs * 1000L;
+      this._slowLogFile = slowLogFile;
+      // one plan at a time; slow statements beyond a short backlog are not explained
+      this._explainer = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(16), new ThreadFactory() {
+               public Thread newThread (Runnable r) {
+                  Thread t = new Thread(r, "slow-query-explainer");
+                  t.setDaemon(true);
+                  return t;
+               }
+            }, new ThreadPoolExecutor.DiscardPolicy());
+      this._explainer.allowCoreThreadTimeOut(true);
+   }//end QueryStats
+
+   /**
+    * Records one execution of a statement.
+    *
+    * @param sql the statement text as executed
+    * @param params the values bound to it, used to explain it when slow
+    * @param rows the rows returned or changed
+    * @param nanos how long it took
+    * @param failed whether it threw
+    */
+   public void record (String sql, Object[] params, long rows, long nanos, boolean failed) {
+      long micros = nanos / 1000L;
+      Template t = template(sql);
+      t.record(rows, micros, failed);
+      if (micros >= this._slowMicros && !failed) {
+         t.slow.incrementAndGet();
+         slow(t, sql, params, micros);
+      }//end if
+   }//end record
+
+   /**
+    * @return the statistics of the template of a statement
+    */
+   public Template template (String sql) {
+      Template t = this._byText.get(sql);
+      if (t != null)
+         return t;
+      String key = normalize(sql);
+      t = this._byTemplate.get(key);
+      if (t == null) {
+         Template created = new Template(key);
+         t = this._byTemplate.putIfAbsent(key, created);
+         if (t == null)
+            t = created;
+      }//end if
+      if (this._byText.size() < MAX_TEXTS)
+         this._byText.put(sql, t);
+      return t;
+   }//end template
+
+   /**
+    * Reduces a statement to its template: literals become "?", the rows of
+    * a multi-row VALUES list collapse into one and blank space is squeezed.
+    */
+   static String normalize (String sql) {
+      String s = STRING_LITERAL.matcher(sql).replaceAll("?");
+      s = NUMBER_LITERAL.matcher(s).replaceAll("?");
+      s = VALUE_ROWS.matcher(s).replaceAll("$1, ...");
+      return SPACE.matcher(s).replaceAll(" ").trim();
+   }//end normalize
+
+   private void slow (final Template t, final String sql, final Object[] params, final long micros) {
+      // one plan per template a minute is enough
+      long now = System.currentTimeMillis();
+      long last = t.lastExplained.get();
+      if (now - last < 60000L || !t.lastExplained.compareAndSet(last, now))
+         return;
+      final Object[] values = params == null ? new Object[0] : params.clone();
+      this._explainer.execute(new Runnable() {
+         public void run () {
+            String plan;
+            try{
+               plan = explain(sql, values);
+            }catch (Exception e){
+               plan = "(no plan: " + e.getMessage() + ")";
+            }//end try
+            logSlow(t, micros, plan);
+         }
+      });
+   }//end slow
+
+   // a WITH query that writes, whose EXPLAIN ANALYZE would take row locks
+   static final Pattern WRITES = Pattern.compile("(?i)\\b(insert|update|delete)\\b");
+
+   /**
+    * Takes the plan of a statement inside a transaction that is rolled back.
+    */
+   String explain (String sql, Object[] params) throws SQLException {
+      String head = sql.trim().toLowerCase();
+      boolean analyze = (head.startsWith("select") || head.startsWith("with"))
+                        && head.indexOf("nextval(") < 0 && head.indexOf("setval(") < 0
+                        && !(head.startsWith("with") && WRITES.matcher(head).find());
+      ConnectionPool.PooledConnection conn = this._pool.borrow();
+      boolean failed = true;
+      try{
+         Connection db = conn.getConnection();
+         db.setAutoCommit(false);
+         StringBuilder plan = new StringBuilder();
+         // EXPLAIN cannot be server prepared, so it bypasses the statement cache
+         PreparedStatement stmt = db.prepareStatement((analyze ? "EXPLAIN (ANALYZE, BUFFERS) " : "EXPLAIN ") + sql);
+         try{
+            ProfNetwork.bind(stmt, params);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next())
+               plan.append("    ").append(STRING_LITERAL.matcher(rs.getString(1)).replaceAll("'?'")).append('\n');
+            rs.close();
+         }finally{
+            stmt.close();
+            db.rollback();
+         }//end try
+         failed = false;
+         return plan.toString();
+      }finally{
+         this._pool.release(conn, failed);
+      }//end try
+   }//end explain
+
+   private synchronized void logSlow (Template t, long micros, String plan) {
+      try{
+         if (this._slowLog == null)
+            this._slowLog = new PrintWriter(new OutputStreamWriter(new FileOutputStream(this._slowLogFile, true), "UTF-8"));
+      }catch (IOException e){
+         return;
+      }//end try
+      String when = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date());
+      this._slowLog.println(when + "  " + String.format("%.3f ms", micros / 1e3) + "  " + t.sql);
+      this._slowLog.print(plan);
+      this._slowLog.flush();
+   }//end logSlow
+
+   /**
+    * @return the templates seen so far, the most total time first
+    */
+   public List<Template> templates () {
+      List<Template> all = new ArrayList<Template>(this._byTemplate.values());
+      Collections.sort(all, new Comparator<Template>() {
+         public int compare (Template a, Template b) {
+            long x = a.getTotalMicros(), y = b.getTotalMicros();
+            return x > y ? -1 : x < y ? 1 : 0;
+         }
+      });
+      return all;
+   }//end templates
+
+   /**
+    * Prints one line per template: counts, rows, latency percentiles in
+    * milliseconds and the template itself.
+    */
+   public void dump (PrintStream out) {
+      out.println(String.format("%9s %6s %5s %10s %9s %9s %9s %9s %9s  %s",
+            "count", "errors", "slow", "rows", "avg ms", "p50 ms", "p99 ms", "p999 ms", "max ms", "template"));
+      for (Template t : templates()) {
+         long count = t.getCount();
+         out.println(String.format("%9d %6d %5d %10d %9.3f %9.3f %9.3f %9.3f %9.3f  %s",
+               count, t.getErrors(), t.slow.get(), t.getRows(),
+               count == 0 ? 0.0 : t.getTotalMicros() / 1e3 / count,
+               t.percentileMicros(0.50) / 1e3, t.percentileMicros(0.99) / 1e3,
+               t.percentileMicros(0.999) / 1e3, t.getMaxMicros() / 1e3, t.sql));
+      }//end for
+   }//end dump
+
+   /**
+    * Stops the explainer and closes the slow query log.
+    */
+   public synchronized void close () {
+      this._explainer.shutdownNow();
+      if (this._slowLog != null)
+         this._slowLog.close();
+      this._slowLog = null;
+   }//end close
+
+}//end QueryStats
@@ -0,0 +1,467 @@
+/*
+ * ProfNetwork People You May Know
+ * ===============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This class suggests "people you may know": users two hops away in the
+ * graph of accepted connections, ranked by the number of mutual
+ * connections, with a boost for every company (WORK_EXPR) and institution
+ * (EDUCATIONAL_DETAILS) they share. Users with a pending or rejected
+ * request either way are left out.
+ *
+ * The top profnetwork.recommend.topK suggestions of every user are
+ * computed over the SocialGraph with a fork/join pool, each worker
+ * counting mutual connections in its own scratch array, and kept as a
+ * snapshot that a background thread rebuilds every
+ * profnetwork.recommend.refreshMs. Connections and requests made since the
+ * snapshot are filtered out when suggestions are read.
+ *
+ * The first read only loads the inputs and ranks the user asking; the rest
+ * of the first snapshot is ranked in the background, so no caller waits
+ * for every user to be ranked.
+ *
+ */
+public class Recommender {
+
+   public static final int TOP_K = Integer.getInteger("profnetwork.recommend.topK", 20).intValue();
+   static final long REFRESH_MS = Long.getLong("profnetwork.recommend.refreshMs", 600000L).longValue();
+   static final double COMPANY_BOOST = Double.parseDouble(System.getProperty("profnetwork.recommend.companyBoost", "2.0"));
+   static final double SCHOOL_BOOST = Double.parseDouble(System.getProperty("profnetwork.recommend.schoolBoost", "1.0"));
+   // users per fork/join leaf
+   static final int GRAIN = 256;
+
+   static final String WORK_QUERY = "SELECT userId, company FROM WORK_EXPR";
+   static final String SCHOOL_QUERY = "SELECT userId, institutionName FROM EDUCATIONAL_DETAILS";
+   static final String PENDING_QUERY = "SELECT userId, connectionId FROM CONNECTION_USR WHERE status <> 'Accept'";
+
+   /**
+    * One suggested user.
+    */
+   public static class Suggestion {
+      public final String userId;
+      public final int mutual;
+      public final int sharedCompanies;
+      public final int sharedSchools;
+      public final double score;
+
+      Suggestion (String userId, int mutual, int sharedCompanies, int sharedSchools, double score) {
+         this.userId = userId;
+         this.mutual = mutual;
+         this.sharedCompanies = sharedCompanies;
+         this.sharedSchools = sharedSchools;
+         this.score = score;
+      }//end Suggestion
+   }//end Suggestion
+
+   /**
+    * What one computation reads, all indexed by the dense ids of the graph;
+    * every row is sorted.
+    */
+   static class Inputs {
+      final SocialGraph graph;
+      final int users;
+      final int[][] adjacency;
+      final int[][] companies;
+      final int[][] schools;
+      final int[][] pending;
+
+      Inputs (SocialGraph graph, int[][] companies, int[][] schools, int[][] pending) {
+         this.graph = graph;
+         this.users = companies.length;
+         this.adjacency = new int[this.users][];
+         for (int u = 0; u < this.users; ++u) {
+            int[] row = graph.neighbors(u);
+            // users connected after userCount() was read are left for the next refresh
+            if (row.length > 0 && row[row.length - 1] >= this.users) {
+               int cut = Arrays.binarySearch(row, this.users);
+               row = Arrays.copyOf(row, cut >= 0 ? cut : -cut - 1);
+            }//end if
+            this.adjacency[u] = row;
+         }//end for
+         this.companies = companies;
+         this.schools = schools;
+         this.pending = pending;
+      }//end Inputs
+   }//end Inputs
+
+   /**
+    * The top suggestions of one user, best first.
+    */
+   static class Ranked {
+      final int[] top;
+      final float[] scores;
+      final int[] mutual;
+
+      Ranked (int[] top, float[] scores, int[] mutual) {
+         this.top = top;
+         this.scores = scores;
+         this.mutual = mutual;
+      }//end Ranked
+   }//end Ranked
+
+   /**
+    * The top suggestions of every user at one point in time; a user not
+    * ranked yet is ranked by whoever needs it first.
+    */
+   static class Snapshot {
+      final Inputs inputs;
+      final AtomicReferenceArray<Ranked> ranked;
+      final long builtAt = System.currentTimeMillis();
+
+      Snapshot (Inputs inputs) {
+         this.inputs = inputs;
+         this.ranked = new AtomicReferenceArray<Ranked>(inputs.users);
+      }//end Snapshot
+
+      /**
+       * @return the suggestions of a user, ranking them when nobody has
+       */
+      Ranked get (int u) {
+         Ranked r = this.ranked.get(u);
+         if (r == null) {
+            // two threads ranking the same user compute the same thing
+            r = rank(this, u, TOP_K);
+            this.ranked.compareAndSet(u, null, r);
+         }//end if
+         return r;
+      }//end get
+   }//end Snapshot
+
+   /**
+    * Per-thread counters of mutual connections, indexed by dense id and
+    * reset after every user.
+    */
+   static class Scratch {
+      int[] counts = new int[0];
+      int[] touched = new int[64];
+
+      void ensure (int n) {
+         if (this.counts.length < n)
+            this.counts = new int[Math.max(n, this.counts.length * 2)];
+      }//end ensure
+   }//end Scratch
+
+   private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+      protected Scratch initialValue () { return new Scratch(); }
+   };
+
+   /**
+    * Computes the suggestions of the users [lo, hi), splitting the range in
+    * halves down to GRAIN users.
+    */
+   static class Task extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+      final Snapshot snapshot;
+      final int lo, hi;
+
+      Task (Snapshot snapshot, int lo, int hi) {
+         this.snapshot = snapshot;
+         this.lo = lo;
+         this.hi = hi;
+      }//end Task
+
+      protected void compute () {
+         if (this.hi - this.lo <= GRAIN) {
+            for (int u = this.lo; u < this.hi; ++u)
+               this.snapshot.get(u);
+            return;
+         }//end if
+         int mid = (this.lo + this.hi) >>> 1;
+         invokeAll(new Task(this.snapshot, this.lo, mid), new Task(this.snapshot, mid, this.hi));
+      }//end compute
+   }//end Task
+
+   private final ProfNetwork _esql;
+   private final ForkJoinPool _pool;
+   private final ScheduledExecutorService _refresher;
+   private volatile Snapshot _snapshot = null;
+   // requests sent since the snapshot, as "from|to", with the System.nanoTime
+   // they were sent at
+   private final ConcurrentHashMap<String, Long> _requested = new ConcurrentHashMap<String, Long>();
+
+   /**
+    * Creates the recommender and schedules its background refresh. The
+    * first snapshot is started by the first read.
+    */
+   public Recommender (ProfNetwork esql) {
+      this._esql = esql;
+      this._pool = new ForkJoinPool(Integer.getInteger("profnetwork.recommend.threads",
+                                    Runtime.getRuntime().availableProcessors()).intValue());
+      this._refresher = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+         public Thread newThread (Runnable r) {
+            Thread t = new Thread(r, "recommendation-refresher");
+            t.setDaemon(true);
+            return t;
+         }
+      });
+      this._refresher.scheduleWithFixedDelay(new Runnable() {
+         public void run () {
+            try{
+               refresh();
+            }catch (Exception e){
+               // keep the old snapshot; try again next time.
+               System.err.println("Recommendations not refreshed: " + e.getMessage());
+            }//end try
+         }
+      }, REFRESH_MS, REFRESH_MS, TimeUnit.MILLISECONDS);
+   }//end Recommender
+
+   /**
+    * Rebuilds the suggestions of every user from the current graph.
+    *
+    * @throws java.sql.SQLException when the inputs cannot be read
+    */
+   public void refresh () throws SQLException {
+      long started = System.nanoTime();
+      Inputs inputs = load();
+      Snapshot snapshot = new Snapshot(inputs);
+      this._pool.invoke(new Task(snapshot, 0, inputs.users));
+      this._snapshot = snapshot;
+      // only the requests sent before the pending ones were read are in the
+      // new snapshot; the ones sent while it was built are kept
+      forgetRequests(started);
+   }//end refresh
+
+   /**
+    * Installs a first snapshot with nobody ranked and ranks everybody in
+    * the background; readers rank the users they need meanwhile.
+    */
+   private void start () throws SQLException {
+      final long started = System.nanoTime();
+      final Snapshot snapshot = new Snapshot(load());
+      this._snapshot = snapshot;
+      this._refresher.execute(new Runnable() {
+         public void run () {
+            _pool.invoke(new Task(snapshot, 0, snapshot.inputs.users));
+            forgetRequests(started);
+         }
+      });
+   }//end start
+
+   /**
+    * Drops the requests sent before the given System.nanoTime, which the
+    * pending requests of a snapshot read after it already hold.
+    */
+   private void forgetRequests (long started) {
+      for (Map.Entry<String, Long> e : this._requested.entrySet())
+         if (e.getValue().longValue() - started < 0)
+            this._requested.remove(e.getKey(), e.getValue());
+   }//end forgetRequests
+
+   private Inputs load () throws SQLException {
+      SocialGraph graph = this._esql.getGraph();
+      int users = graph.userCount();
+      int[][] companies = group(graph, users, this._esql.executeQueryAndReturnResult(WORK_QUERY, new Object[0]), false);
+      int[][] schools = group(graph, users, this._esql.executeQueryAndReturnResult(SCHOOL_QUERY, new Object[0]), false);
+      int[][] pending = group(graph, users, this._esql.executeQueryAndReturnResult(PENDING_QUERY, new Object[0]), true);
+      return new Inputs(graph, companies, schools, pending);
+   }//end load
+
+   /**
+    * Turns (userId, value) rows into a sorted row of distinct value ids
+    * per user. Values are companies or institutions, dictionary encoded
+    * here; when symmetric they are user ids, encoded by the graph, and
+    * every row is also recorded the other way round.
+    */
+   private static int[][] group (SocialGraph graph, int users, List<List<String>> rows, boolean symmetric) {
+      Map<String, Integer> values = new HashMap<String, Integer>();
+      int[] sizes = new int[users];
+      int[] keys = new int[rows.size() * 2];
+      int[] vals = new int[rows.size() * 2];
+      int n = 0;
+      for (List<String> row : rows) {
+         int u = graph.idOf(row.get(0));
+         if (row.get(1) == null)
+            continue;
+         String value = row.get(1).trim();
+         int v;
+         if (symmetric) {
+            v = graph.idOf(value);
+            if (v < 0 || v >= users)
+               continue;
+         }else{
+            Integer id = values.get(value);
+            if (id == null) {
+               id = Integer.valueOf(values.size());
+               values.put(value, id);
+            }//end if
+            v = id.intValue();
+         }//end if
+         if (u >= 0 && u < users) {
+            keys[n] = u; vals[n++] = v; ++sizes[u];
+         }//end if
+         if (symmetric && u >= 0 && u < users) {
+            keys[n] = v; vals[n++] = u; ++sizes[v];
+         }//end if
+      }//end for
+      int[][] grouped = new int[users][];
+      int[] fill = new int[users];
+      for (int u = 0; u < users; ++u)
+         grouped[u] = new int[sizes[u]];
+      for (int i = 0; i < n; ++i)
+         grouped[keys[i]][fill[keys[i]]++] = vals[i];
+      for (int u = 0; u < users; ++u) {
+         Arrays.sort(grouped[u]);
+         // two roles at one company count as one shared company
+         grouped[u] = distinct(grouped[u]);
+      }//end for
+      return grouped;
+   }//end group
+
+   /**
+    * @return a sorted row without its repeated values
+    */
+   static int[] distinct (int[] sorted) {
+      int n = 0;
+      for (int i = 0; i < sorted.length; ++i)
+         if (i == 0 || sorted[i] != sorted[n - 1])
+            sorted[n++] = sorted[i];
+      return n == sorted.length ? sorted : Arrays.copyOf(sorted, n);
+   }//end distinct
+
+   /**
+    * Ranks the friends of friends of one user.
+    */
+   static Ranked rank (Snapshot snapshot, int u, int k) {
+      Inputs in = snapshot.inputs;
+      Scratch s = SCRATCH.get();
+      s.ensure(in.users);
+      int[] counts = s.counts;
+      int touched = 0;
+      for (int v : in.adjacency[u]) {
+         for (int w : in.adjacency[v]) {
+            if (counts[w]++ == 0) {
+               if (touched == s.touched.length)
+                  s.touched = Arrays.copyOf(s.touched, touched * 2);
+               s.touched[touched++] = w;
+            }//end if
+         }//end for
+      }//end for
+
+      int[] top = new int[k];
+      float[] scores = new float[k];
+      int[] mutual = new int[k];
+      int size = 0;
+      for (int i = 0; i < touched; ++i) {
+         int w = s.touched[i];
+         int m = counts[w];
+         counts[w] = 0;
+         if (w == u || contains(in.adjacency[u], w) || contains(in.pending[u], w))
+            continue;
+         float score = (float) (m + COMPANY_BOOST * intersect(in.companies[u], in.companies[w])
+                                  + SCHOOL_BOOST * intersect(in.schools[u], in.schools[w]));
+         if (size == k && score <= scores[k - 1])
+            continue;
+         // insertion into the short sorted list
+         int pos = size < k ? size++ : k - 1;
+         while (pos > 0 && scores[pos - 1] < score) {
+            top[pos] = top[pos - 1];
+            scores[pos] = scores[pos - 1];
+            mutual[pos] = mutual[pos - 1];
+            --pos;
+         }//end while
+         top[pos] = w;
+         scores[pos] = score;
+         mutual[pos] = m;
+      }//end for
+      return new Ranked(Arrays.copyOf(top, size), Arrays.copyOf(scores, size), Arrays.copyOf(mutual, size));
+   }//end rank
+
+   static boolean contains (int[] sorted, int value) {
+      return Arrays.binarySearch(sorted, value) >= 0;
+   }//end contains
+
+   /**
+    * @return the size of the intersection of two sorted rows
+    */
+   static int intersect (int[] a, int[] b) {
+      int i = 0, j = 0, n = 0;
+      while (i < a.length && j < b.length) {
+         if (a[i] < b[j]) ++i;
+         else if (a[i] > b[j]) ++j;
+         else { ++n; ++i; ++j; }
+      }//end while
+      return n;
+   }//end intersect
+
+   /**
+    * @return the suggestions for a user, best first; the inputs are loaded
+    *         on first use
+    * @throws java.sql.SQLException when the inputs cannot be read
+    */
+   public List<Suggestion> recommend (String userId) throws SQLException {
+      Snapshot snapshot = this._snapshot;
+      if (snapshot == null) {
+         synchronized (this) {
+            if (this._snapshot == null)
+               start();
+            snapshot = this._snapshot;
+         }//end synchronized
+      }//end if
+      List<Suggestion> list = new ArrayList<Suggestion>();
+      String me = userId.trim();
+      int u = snapshot.inputs.graph.idOf(me);
+      if (u < 0 || u >= snapshot.inputs.users)
+         return list;
+      Inputs in = snapshot.inputs;
+      // connections accepted since the snapshot
+      int[] now = in.graph.neighbors(u);
+      Ranked ranked = snapshot.get(u);
+      for (int i = 0; i < ranked.top.length; ++i) {
+         int w = ranked.top[i];
+         String id = in.graph.nameOf(w);
+         if (contains(now, w) || this._requested.containsKey(me + "|" + id) || this._requested.containsKey(id + "|" + me))
+            continue;
+         list.add(new Suggestion(id, ranked.mutual[i],
+               intersect(in.companies[u], in.companies[w]), intersect(in.schools[u], in.schools[w]),
+               ranked.scores[i]));
+      }//end for
+      return list;
+   }//end recommend
+
+   /**
+    * Leaves a pair out of the suggestions until the next refresh, after a
+    * request between them was sent.
+    */
+   public void requested (String from, String to) {
+      this._requested.put(from.trim() + "|" + to.trim(), Long.valueOf(System.nanoTime()));
+   }//end requested
+
+   /**
+    * @return when the current snapshot was built, 0 before the first one
+    */
+   public long getSnapshotTime () {
+      Snapshot snapshot = this._snapshot;
+      return snapshot == null ? 0L : snapshot.builtAt;
+   }//end getSnapshotTime
+
+   public void close () {
+      this._refresher.shutdownNow();
+      this._pool.shutdownNow();
+   }//end close
+
+}//end Recommender
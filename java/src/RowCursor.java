@@ -0,0 +1,204 @@
+/*
+ * ProfNetwork Streaming Row Cursor
+ * ================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * This class streams the rows of a query a batch at a time instead of
+ * reading the whole result into memory. The query runs behind a server
+ * side cursor (DECLARE ... CURSOR inside a transaction) and rows are
+ * pulled with FETCH FORWARD, so at most one batch is held on the client
+ * however large the result is. The pg73 driver ignores setFetchSize, so
+ * the cursor is driven explicitly; the fetch size is still passed on for
+ * drivers that honour it.
+ *
+ * A cursor holds its pooled connection until it is closed. Its statistics
+ * are recorded on close, with the time spent in DECLARE and FETCH only,
+ * not the time the caller took between rows.
+ *
+ */
+public class RowCursor implements AutoCloseable {
+
+   // rows pulled per round trip unless given
+   public static final int DEFAULT_FETCH_SIZE =
+      Integer.getInteger("profnetwork.cursor.fetchSize", 256).intValue();
+
+   // one cursor per borrowed connection, so the name can be fixed
+   private static final String NAME = "profnetwork_cursor";
+
+   private final ConnectionPool _pool;
+   private final ConnectionPool.PooledConnection _conn;
+   private final int _fetchSize;
+   private final QueryStats _stats;
+   private String _query = null;
+   private Object[] _params = null;
+   private long _dbNanos = 0;
+   private long _rows = 0;
+   private boolean _restoreAutoCommit = false;
+   private Statement _fetch = null;
+   private ResultSet _batch = null;
+   private ResultSetMetaData _meta = null;
+   private int _batchRows = 0;
+   private boolean _exhausted = false;
+   private boolean _failed = true;
+   private boolean _closed = false;
+
+   private RowCursor (ConnectionPool pool, QueryStats stats, ConnectionPool.PooledConnection conn, int fetchSize) {
+      this._pool = pool;
+      this._stats = stats;
+      this._conn = conn;
+      this._fetchSize = fetchSize;
+   }//end RowCursor
+
+   /**
+    * Opens a cursor over a query.
+    *
+    * @param pool where to borrow the connection from
+    * @param stats where the query is recorded on close, may be null
+    * @param query the SQL template with "?" placeholders
+    * @param params the values bound to the placeholders, in order
+    * @param fetchSize rows pulled per round trip
+    * @return the open cursor, positioned before the first row
+    * @throws java.sql.SQLException when the query failed
+    */
+   public static RowCursor open (ConnectionPool pool, QueryStats stats, String query, Object[] params, int fetchSize) throws SQLException {
+      RowCursor cursor = new RowCursor(pool, stats, pool.borrow(), Math.max(1, fetchSize));
+      try{
+         cursor.declare(query, params);
+      }catch (SQLException e){
+         cursor.close();
+         throw e;
+      }catch (RuntimeException e){
+         cursor.close();
+         throw e;
+      }//end try
+      return cursor;
+   }//end open
+
+   private void declare (String query, Object[] params) throws SQLException {
+      this._query = query;
+      this._params = params;
+      long start = System.nanoTime();
+      Connection db = this._conn.getConnection();
+      if (db.getAutoCommit()) {
+         // cursors only live inside a transaction
+         db.setAutoCommit(false);
+         this._restoreAutoCommit = true;
+      }//end if
+      // DECLARE cannot be server prepared, so it bypasses the statement cache
+      PreparedStatement stmt = db.prepareStatement("DECLARE " + NAME + " NO SCROLL CURSOR FOR " + query);
+      try{
+         ProfNetwork.bind(stmt, params);
+         stmt.execute();
+      }finally{
+         stmt.close();
+      }//end try
+      this._fetch = db.createStatement();
+      this._fetch.setFetchSize(this._fetchSize);
+      this._dbNanos += System.nanoTime() - start;
+      fetch();
+      this._failed = false;
+   }//end declare
+
+   private void fetch () throws SQLException {
+      long start = System.nanoTime();
+      if (this._batch != null)
+         this._batch.close();
+      this._batch = this._fetch.executeQuery("FETCH FORWARD " + this._fetchSize + " FROM " + NAME);
+      if (this._meta == null)
+         this._meta = this._batch.getMetaData();
+      this._batchRows = 0;
+      this._dbNanos += System.nanoTime() - start;
+   }//end fetch
+
+   /**
+    * Moves to the next row, fetching the next batch when needed.
+    *
+    * @return false when there are no more rows
+    * @throws java.sql.SQLException when fetching failed
+    */
+   public boolean next () throws SQLException {
+      if (this._closed || this._exhausted)
+         return false;
+      this._failed = true;
+      if (!this._batch.next()) {
+         // a short batch was the last one
+         if (this._batchRows < this._fetchSize) {
+            this._exhausted = true;
+            this._failed = false;
+            return false;
+         }//end if
+         fetch();
+         if (!this._batch.next()) {
+            this._exhausted = true;
+            this._failed = false;
+            return false;
+         }//end if
+      }//end if
+      ++this._batchRows;
+      ++this._rows;
+      this._failed = false;
+      return true;
+   }//end next
+
+   /**
+    * @return the value of a column of the current row, null for SQL NULL
+    */
+   public String getString (int column) throws SQLException {
+      return this._batch.getString(column);
+   }//end getString
+
+   public int getColumnCount () throws SQLException {
+      return this._meta.getColumnCount();
+   }//end getColumnCount
+
+   public String getColumnName (int column) throws SQLException {
+      return this._meta.getColumnName(column);
+   }//end getColumnName
+
+   /**
+    * Closes the cursor, ends its transaction and returns the connection
+    * to the pool. Rows not read are never transferred.
+    */
+   public void close () throws SQLException {
+      if (this._closed)
+         return;
+      this._closed = true;
+      try{
+         if (!this._failed && this._fetch != null) {
+            if (this._batch != null)
+               this._batch.close();
+            this._fetch.execute("CLOSE " + NAME);
+            this._fetch.close();
+            Connection db = this._conn.getConnection();
+            db.commit();
+            if (this._restoreAutoCommit)
+               db.setAutoCommit(true);
+         }//end if
+      }catch (SQLException e){
+         this._failed = true;
+         throw e;
+      }finally{
+         if (this._stats != null && this._query != null)
+            this._stats.record(this._query, this._params, this._rows, this._dbNanos, this._failed);
+         // the pool rolls back what is left of the transaction
+         this._pool.release(this._conn, this._failed);
+      }//end try
+   }//end close
+
+}//end RowCursor
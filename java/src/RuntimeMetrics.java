@@ -0,0 +1,250 @@
+/*
+ * ProfNetwork Runtime Metrics
+ * ===========================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class counts what a running ProfNetwork is doing and exposes it as
+ * the MBean ProfNetwork:type=RuntimeMetrics. The menu operations and the
+ * execute methods update StripedCounters, so sessions on different
+ * threads do not contend on the counters they bump.
+ *
+ * Database round trips are also counted per thread, which is what lets
+ * runSession charge them to the menu operation that caused them.
+ *
+ */
+public class RuntimeMetrics implements RuntimeMetricsMBean {
+
+   public static final String OBJECT_NAME = "ProfNetwork:type=RuntimeMetrics";
+
+   /**
+    * A count with a rate taken between reads.
+    */
+   static class Meter {
+      final StripedCounter count = new StripedCounter();
+      private long _lastTime = System.currentTimeMillis();
+      private long _lastCount = 0;
+      private double _rate = 0.0;
+
+      void mark () {
+         this.count.increment();
+      }//end mark
+
+      synchronized double rate () {
+         long now = System.currentTimeMillis();
+         if (now - this._lastTime >= 1000L) {
+            long c = this.count.sum();
+            this._rate = (c - this._lastCount) * 1000.0 / (now - this._lastTime);
+            this._lastCount = c;
+            this._lastTime = now;
+         }//end if
+         return this._rate;
+      }//end rate
+   }//end Meter
+
+   /**
+    * Calls of one menu operation and the round trips they made.
+    */
+   static class Operation {
+      final StripedCounter calls = new StripedCounter();
+      final StripedCounter roundTrips = new StripedCounter();
+   }//end Operation
+
+   private final ConnectionPool _pool;
+   private final ProfileCache _profiles;
+   private final QueryStats _stats;
+
+   private final StripedCounter _sessions = new StripedCounter();
+   private final Meter _logins = new Meter();
+   private final StripedCounter _failedLogins = new StripedCounter();
+   private final Meter _messages = new Meter();
+   private final Meter _requests = new Meter();
+   private final StripedCounter _inFlight = new StripedCounter();
+   private final StripedCounter _roundTrips = new StripedCounter();
+   private final StripedCounter _friendHits = new StripedCounter();
+   private final StripedCounter _friendMisses = new StripedCounter();
+   private final Map<String, Operation> _operations = new ConcurrentHashMap<String, Operation>();
+
+   // round trips made by the current thread
+   private final ThreadLocal<long[]> _threadTrips = new ThreadLocal<long[]>() {
+      protected long[] initialValue () { return new long[1]; }
+   };
+
+   public RuntimeMetrics (ConnectionPool pool, ProfileCache profiles, QueryStats stats) {
+      this._pool = pool;
+      this._profiles = profiles;
+      this._stats = stats;
+   }//end RuntimeMetrics
+
+   /**
+    * Registers the metrics with the platform MBean server.
+    *
+    * @throws javax.management.JMException when the name is taken or invalid
+    */
+   public void register () throws JMException {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      server.registerMBean(this, new ObjectName(OBJECT_NAME));
+   }//end register
+
+   /**
+    * Removes the metrics from the platform MBean server, if registered.
+    */
+   public void unregister () {
+      try{
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         ObjectName name = new ObjectName(OBJECT_NAME);
+         if (server.isRegistered(name))
+            server.unregisterMBean(name);
+      }catch (JMException e){
+         // nothing registered.
+      }//end try
+   }//end unregister
+
+   public void sessionStarted () { this._sessions.increment(); }
+   public void sessionEnded () { this._sessions.decrement(); }
+
+   public void login (boolean ok) {
+      if (ok)
+         this._logins.mark();
+      else
+         this._failedLogins.increment();
+   }//end login
+
+   public void messageSent () { this._messages.mark(); }
+   public void connectionRequested () { this._requests.mark(); }
+
+   public void friendCountCache (boolean hit) {
+      if (hit)
+         this._friendHits.increment();
+      else
+         this._friendMisses.increment();
+   }//end friendCountCache
+
+   /**
+    * Called by the execute methods before a statement goes to the database.
+    */
+   public void queryStarted () {
+      this._inFlight.increment();
+      this._roundTrips.increment();
+      ++this._threadTrips.get()[0];
+   }//end queryStarted
+
+   public void queryFinished () {
+      this._inFlight.decrement();
+   }//end queryFinished
+
+   /**
+    * @return a mark to pass to operationFinished
+    */
+   public long operationStarted () {
+      return this._threadTrips.get()[0];
+   }//end operationStarted
+
+   /**
+    * Charges the round trips the current thread made since the mark to an
+    * operation.
+    */
+   public void operationFinished (String name, long mark) {
+      Operation op = this._operations.get(name);
+      if (op == null) {
+         synchronized (this._operations) {
+            op = this._operations.get(name);
+            if (op == null) {
+               op = new Operation();
+               this._operations.put(name, op);
+            }//end if
+         }//end synchronized
+      }//end if
+      op.calls.increment();
+      op.roundTrips.add(this._threadTrips.get()[0] - mark);
+   }//end operationFinished
+
+   public long getActiveSessions () { return this._sessions.sum(); }
+
+   public long getLogins () { return this._logins.count.sum(); }
+   public long getFailedLogins () { return this._failedLogins.sum(); }
+   public double getLoginsPerSecond () { return this._logins.rate(); }
+
+   public long getMessagesSent () { return this._messages.count.sum(); }
+   public double getMessagesSentPerSecond () { return this._messages.rate(); }
+
+   public long getConnectionRequests () { return this._requests.count.sum(); }
+   public double getConnectionRequestsPerSecond () { return this._requests.rate(); }
+
+   public long getInFlightQueries () { return this._inFlight.sum(); }
+   public long getRoundTrips () { return this._roundTrips.sum(); }
+
+   public String[] getRoundTripsPerOperation () {
+      List<String> lines = new ArrayList<String>();
+      for (Map.Entry<String, Operation> e : this._operations.entrySet()) {
+         long calls = e.getValue().calls.sum();
+         double mean = calls == 0 ? 0.0 : (double) e.getValue().roundTrips.sum() / calls;
+         lines.add(String.format("%s: %d calls, %.2f round trips/call", e.getKey(), calls, mean));
+      }//end for
+      Collections.sort(lines);
+      return lines.toArray(new String[lines.size()]);
+   }//end getRoundTripsPerOperation
+
+   public int getPoolActive () { return this._pool.getActiveCount(); }
+   public int getPoolIdle () { return this._pool.getIdleCount(); }
+   public int getPoolMaxSize () { return this._pool.getMaxSize(); }
+
+   public double getPoolUtilization () {
+      return (double) this._pool.getActiveCount() / this._pool.getMaxSize();
+   }//end getPoolUtilization
+
+   public double getPoolAverageWaitMicros () { return this._pool.getAverageWaitMicros(); }
+   public long getPoolBorrowTimeouts () { return this._pool.getBorrowTimeoutCount(); }
+
+   public double getStatementCacheHitRatio () {
+      long hits = this._pool.getStatementHitCount();
+      long total = hits + this._pool.getPrepareCount();
+      return total == 0 ? 0.0 : (double) hits / total;
+   }//end getStatementCacheHitRatio
+
+   public long getFriendCountCacheHits () { return this._friendHits.sum(); }
+   public long getFriendCountCacheMisses () { return this._friendMisses.sum(); }
+
+   public double getFriendCountCacheHitRatio () {
+      long hits = this._friendHits.sum();
+      long total = hits + this._friendMisses.sum();
+      return total == 0 ? 0.0 : (double) hits / total;
+   }//end getFriendCountCacheHitRatio
+
+   public long getProfileCacheHits () { return this._profiles.getHitCount(); }
+   public long getProfileCacheMisses () { return this._profiles.getMissCount(); }
+   public long getProfileCacheEvictions () { return this._profiles.getEvictionCount(); }
+   public long getProfileCacheExpirations () { return this._profiles.getExpirationCount(); }
+   public long getProfileCacheInvalidations () { return this._profiles.getInvalidationCount(); }
+   public double getProfileCacheHitRatio () { return this._profiles.getHitRatio(); }
+   public int getProfileCacheSize () { return this._profiles.size(); }
+
+   public String[] getQueryStatistics () {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      PrintStream out = new PrintStream(bytes);
+      this._stats.dump(out);
+      out.flush();
+      return bytes.toString().split("\\r?\\n");
+   }//end getQueryStatistics
+
+}//end RuntimeMetrics
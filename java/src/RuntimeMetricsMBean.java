@@ -0,0 +1,66 @@
+/*
+ * ProfNetwork Runtime Metrics (JMX interface)
+ * ===========================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+/**
+ * The JMX view of RuntimeMetrics. Rates are per second over the time since
+ * the previous read of the same rate (at least one second), which is the
+ * polling interval of jconsole and most collectors.
+ *
+ */
+public interface RuntimeMetricsMBean {
+
+   long getActiveSessions ();
+
+   long getLogins ();
+   long getFailedLogins ();
+   double getLoginsPerSecond ();
+
+   long getMessagesSent ();
+   double getMessagesSentPerSecond ();
+
+   long getConnectionRequests ();
+   double getConnectionRequestsPerSecond ();
+
+   long getInFlightQueries ();
+   long getRoundTrips ();
+   /** one line per menu operation: calls and mean database round trips per call */
+   String[] getRoundTripsPerOperation ();
+
+   int getPoolActive ();
+   int getPoolIdle ();
+   int getPoolMaxSize ();
+   /** borrowed connections over the pool maximum */
+   double getPoolUtilization ();
+   double getPoolAverageWaitMicros ();
+   long getPoolBorrowTimeouts ();
+
+   /** executions served by an already prepared statement over all executions */
+   double getStatementCacheHitRatio ();
+   long getFriendCountCacheHits ();
+   long getFriendCountCacheMisses ();
+   double getFriendCountCacheHitRatio ();
+
+   long getProfileCacheHits ();
+   long getProfileCacheMisses ();
+   /** profiles dropped because the cache was full */
+   long getProfileCacheEvictions ();
+   /** profiles read again because they were older than profnetwork.profile.ttlMs */
+   long getProfileCacheExpirations ();
+   long getProfileCacheInvalidations ();
+   double getProfileCacheHitRatio ();
+   int getProfileCacheSize ();
+
+   /** one line per query template: counts, rows and latency percentiles (QueryStats.dump) */
+   String[] getQueryStatistics ();
+
+}//end RuntimeMetricsMBean
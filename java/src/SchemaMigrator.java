@@ -0,0 +1,257 @@
+/*
+ * ProfNetwork Schema Migrations
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * This class brings the schema of an existing database up to date. The
+ * changes live in sql/migrations as V<n>__<description>.sql files; the
+ * versions applied so far are recorded in SCHEMA_VERSION, and every
+ * missing one is run in order, each in its own transaction together with
+ * its SCHEMA_VERSION row, so a failed migration leaves nothing behind.
+ *
+ * Instances starting at the same time serialize on a lock of
+ * SCHEMA_VERSION and skip what the other one already applied. A migration
+ * whose file changed after it was applied is reported, not run again.
+ *
+ */
+public class SchemaMigrator {
+
+   static final Pattern FILE_NAME = Pattern.compile("V(\\d+)__(.+)\\.sql");
+
+   static final String CREATE_TABLE =
+      "CREATE TABLE IF NOT EXISTS SCHEMA_VERSION(" +
+      "version integer NOT NULL, " +
+      "description varchar(200) NOT NULL, " +
+      "checksum bigint NOT NULL, " +
+      "installedOn timestamp NOT NULL DEFAULT now(), " +
+      "executionMs integer NOT NULL, " +
+      "PRIMARY KEY(version))";
+
+   /**
+    * One migration file.
+    */
+   public static class Migration {
+      public final int version;
+      public final String description;
+      public final File file;
+
+      Migration (int version, String description, File file) {
+         this.version = version;
+         this.description = description;
+         this.file = file;
+      }//end Migration
+   }//end Migration
+
+   private final ConnectionPool _pool;
+   private final File _dir;
+
+   /**
+    * @param pool the database to migrate
+    * @param dir the directory holding the V<n>__*.sql files
+    */
+   public SchemaMigrator (ConnectionPool pool, File dir) {
+      this._pool = pool;
+      this._dir = dir;
+   }//end SchemaMigrator
+
+   /**
+    * @return the migrations found in the directory, by version
+    * @throws java.io.IOException when two files have the same version
+    */
+   public List<Migration> available () throws IOException {
+      List<Migration> all = new ArrayList<Migration>();
+      File[] files = this._dir.listFiles();
+      if (files == null)
+         return all;
+      for (File f : files) {
+         Matcher m = FILE_NAME.matcher(f.getName());
+         if (m.matches())
+            all.add(new Migration(Integer.parseInt(m.group(1)), m.group(2).replace('_', ' '), f));
+      }//end for
+      Collections.sort(all, new Comparator<Migration>() {
+         public int compare (Migration a, Migration b) {
+            return a.version < b.version ? -1 : a.version > b.version ? 1 : 0;
+         }
+      });
+      for (int i = 1; i < all.size(); ++i)
+         if (all.get(i).version == all.get(i - 1).version)
+            throw new IOException("two migrations have version " + all.get(i).version + " in " + this._dir);
+      return all;
+   }//end available
+
+   static long checksum (String text) {
+      CRC32 crc = new CRC32();
+      try{
+         crc.update(text.getBytes("UTF-8"));
+      }catch (IOException e){
+         throw new IllegalStateException(e);
+      }//end try
+      return crc.getValue();
+   }//end checksum
+
+   /**
+    * Applies the migrations missing from the database.
+    *
+    * @param log where progress is reported
+    * @return the number of migrations applied
+    * @throws java.sql.SQLException when a migration failed; earlier ones stay applied
+    * @throws java.io.IOException when a migration file cannot be read
+    */
+   public int migrate (PrintStream log) throws SQLException, IOException {
+      List<Migration> migrations = available();
+      if (migrations.isEmpty())
+         return 0;
+      int applied = 0;
+      ConnectionPool.PooledConnection conn = this._pool.borrow();
+      boolean failed = true;
+      try{
+         Connection db = conn.getConnection();
+         Statement stmt = db.createStatement();
+         try{
+            stmt.execute(CREATE_TABLE);
+            db.setAutoCommit(false);
+            for (Migration m : migrations) {
+               String text = SqlScript.read(m.file);
+               long start = System.nanoTime();
+               try{
+                  // whoever holds the lock applies the migration, the others see it done
+                  stmt.execute("LOCK TABLE SCHEMA_VERSION IN SHARE ROW EXCLUSIVE MODE");
+                  Map<Integer, Long> done = appliedVersions(db);
+                  Long sum = done.get(Integer.valueOf(m.version));
+                  if (sum != null) {
+                     if (sum.longValue() != checksum(text))
+                        log.println("Migration V" + m.version + " (" + m.description + ") changed after it was applied");
+                     db.rollback();
+                     continue;
+                  }//end if
+                  for (String sql : SqlScript.split(text))
+                     stmt.execute(sql);
+                  long ms = (System.nanoTime() - start) / 1000000L;
+                  PreparedStatement insert = db.prepareStatement(
+                        "INSERT INTO SCHEMA_VERSION (version, description, checksum, executionMs) VALUES (?, ?, ?, ?)");
+                  try{
+                     insert.setInt(1, m.version);
+                     insert.setString(2, m.description);
+                     insert.setLong(3, checksum(text));
+                     insert.setInt(4, (int) ms);
+                     insert.executeUpdate();
+                  }finally{
+                     insert.close();
+                  }//end try
+                  db.commit();
+                  ++applied;
+                  log.println("Applied migration V" + m.version + " (" + m.description + ") in " + ms + " ms");
+               }catch (SQLException e){
+                  db.rollback();
+                  throw new SQLException("Migration V" + m.version + " (" + m.description + ") failed: " + e.getMessage());
+               }//end try
+            }//end for
+         }finally{
+            stmt.close();
+         }//end try
+         failed = false;
+      }finally{
+         this._pool.release(conn, failed);
+      }//end try
+      return applied;
+   }//end migrate
+
+   private static Map<Integer, Long> appliedVersions (Connection db) throws SQLException {
+      Map<Integer, Long> done = new HashMap<Integer, Long>();
+      Statement stmt = db.createStatement();
+      try{
+         ResultSet rs = stmt.executeQuery("SELECT version, checksum FROM SCHEMA_VERSION");
+         while (rs.next())
+            done.put(Integer.valueOf(rs.getInt(1)), Long.valueOf(rs.getLong(2)));
+         rs.close();
+      }finally{
+         stmt.close();
+      }//end try
+      return done;
+   }//end appliedVersions
+
+   /**
+    * Migrates the database of a ProfNetwork from profnetwork.migrations, by
+    * default the sql/migrations of the checkout the classes were loaded
+    * from.
+    *
+    * @return the number of migrations applied
+    * @throws java.io.IOException when the directory does not exist
+    */
+   public static int migrate (ProfNetwork esql, PrintStream log) throws SQLException, IOException {
+      String property = System.getProperty("profnetwork.migrations");
+      File dir = property != null ? new File(property) : installedDirectory();
+      if (dir == null || !dir.isDirectory())
+         throw new IOException("No migrations in " + (dir == null ? "sql/migrations" : dir.getPath())
+               + "; set profnetwork.migrations to the sql/migrations directory");
+      return new SchemaMigrator(esql.getPool(), dir).migrate(log);
+   }//end migrate
+
+   /**
+    * @return sql/migrations next to java/classes (or the jar) this class
+    *         was loaded from, null when the location is unknown
+    */
+   static File installedDirectory () {
+      try{
+         File code = new File(SchemaMigrator.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+         // java/classes/ or java/<jar> -> the checkout
+         File root = code.getAbsoluteFile().getParentFile().getParentFile();
+         return root == null ? null : new File(new File(root, "sql"), "migrations");
+      }catch (Exception e){
+         // no code source, or not a file URL
+         return null;
+      }//end try
+   }//end installedDirectory
+
+   /**
+    * Applies the missing migrations without starting the application.
+    *
+    * @param args <dbname> <port> <user> <migrations dir>
+    */
+   public static void main (String[] args) {
+      if (args.length != 4) {
+         System.err.println("Usage: java SchemaMigrator <dbname> <port> <user> <migrations dir>");
+         return;
+      }//end if
+      ProfNetwork esql = null;
+      try{
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new ProfNetwork (args[0], args[1], args[2], "");
+         int applied = new SchemaMigrator(esql.getPool(), new File(args[3])).migrate(System.out);
+         System.out.println(applied == 0 ? "Schema is up to date" : applied + " migration(s) applied");
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+   }//end main
+
+}//end SchemaMigrator
@@ -0,0 +1,145 @@
+/*
+ * ProfNetwork User Interface Session
+ * ==================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class holds the state of one user interface session: where the
+ * menus read their input from, where they print to, and the per-user
+ * values the menus keep between operations. The session serving the
+ * current thread is found through current().
+ *
+ */
+public class Session {
+
+   /**
+    * Thrown when the input of a session reaches end of stream, so the
+    * menus unwind back to the session loop.
+    */
+   public static class ClosedException extends RuntimeException {
+      private static final long serialVersionUID = 1L;
+
+      public ClosedException () {
+         super("Session closed");
+      }//end ClosedException
+   }//end ClosedException
+
+   private static final ThreadLocal<Session> CURRENT = new ThreadLocal<Session>();
+   private static Session console = null;
+
+   // input and output of the session
+   public final BufferedReader in;
+   public final PrintStream out;
+   public final PrintStream err;
+
+   // per-user state of the menus
+   public int MESSAGES_SIZE;
+   public int conn_level;
+   public int num_friends;
+   // when num_friends was read from FRIEND_COUNT, 0 when it must be read again
+   public long num_friends_time = 0;
+   public String userId = null;
+   // messages queued by this session that were not reported yet
+   public final List<MessageSender.Pending> outbox = new ArrayList<MessageSender.Pending>();
+   // rows printed before asking to continue, 0 prints everything at once
+   public int page_size = 0;
+
+   private volatile boolean _closed = false;
+
+   public Session (BufferedReader in, PrintStream out, PrintStream err) {
+      this.in = in;
+      this.out = out;
+      this.err = err;
+   }//end Session
+
+   /**
+    * @return the session bound to the calling thread, or the keyboard
+    *         session when none was bound
+    */
+   public static Session current () {
+      Session session = CURRENT.get();
+      return session != null ? session : console();
+   }//end current
+
+   // page size of interactive sessions
+   public static final int PAGE_SIZE = Integer.getInteger("profnetwork.page.size", 20).intValue();
+
+   /**
+    * @return the session reading from the keyboard and printing to the terminal
+    */
+   public static synchronized Session console () {
+      if (console == null) {
+         console = new Session(new BufferedReader(new InputStreamReader(System.in)),
+                               System.out, System.err);
+         console.page_size = PAGE_SIZE;
+      }//end if
+      return console;
+   }//end console
+
+   /**
+    * Makes this the session of the calling thread.
+    */
+   public void bind () {
+      CURRENT.set(this);
+   }//end bind
+
+   public static void unbind () {
+      CURRENT.remove();
+   }//end unbind
+
+   /**
+    * Reads one line of input, flushing any pending prompt first.
+    *
+    * @return the line read, without the line terminator
+    * @throws java.io.IOException when reading failed
+    * @throws Session.ClosedException when the input is exhausted or no
+    *         line came within the read timeout of the socket
+    */
+   public String readLine () throws IOException {
+      if (this._closed)
+         throw new ClosedException();
+      this.out.flush();
+      String line;
+      try{
+         line = this.in.readLine();
+      }catch (SocketTimeoutException e){
+         this._closed = true;
+         this.out.println("\nSession timed out.");
+         this.out.flush();
+         throw new ClosedException();
+      }//end try
+      if (line == null) {
+         this._closed = true;
+         throw new ClosedException();
+      }//end if
+      return line;
+   }//end readLine
+
+   public boolean isClosed () {
+      return this._closed;
+   }//end isClosed
+
+   /**
+    * Marks the session as closed; further reads fail.
+    */
+   public void close () {
+      this._closed = true;
+   }//end close
+
+}//end Session
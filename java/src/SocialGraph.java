@@ -0,0 +1,595 @@
+/*
+ * ProfNetwork Connection Graph
+ * ============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class keeps the accepted connections of CONNECTION_USR in memory as
+ * an undirected graph. User ids are dictionary encoded to dense ints and
+ * the adjacency is stored CSR style: the neighbors of user u are
+ * neighbors[offsets[u] .. offsets[u+1]), sorted ascending. Connections
+ * accepted after the graph was built go to a small per-user delta list
+ * that the searches read alongside the CSR arrays.
+ *
+ * Distances are found with a bidirectional breadth first search bounded
+ * by a maximum depth, using per-thread scratch arrays so a query allocates
+ * nothing proportional to the graph size.
+ *
+ */
+public class SocialGraph {
+
+   static final String EDGE_QUERY =
+      "SELECT userUid, connectionUid FROM CONNECTION_USR WHERE status = 'Accept'";
+
+   /**
+    * Collects users and edges and lays them out as CSR arrays.
+    */
+   public static class Builder {
+      private final Map<String, Integer> _ids = new HashMap<String, Integer>();
+      private final List<String> _names = new ArrayList<String>();
+      private int[] _src = new int[1024];
+      private int[] _dst = new int[1024];
+      private int _edges = 0;
+
+      /**
+       * @return the dense id of a user, assigning the next one when new
+       */
+      public int intern (String userId) {
+         Integer id = this._ids.get(userId);
+         if (id == null) {
+            id = Integer.valueOf(this._names.size());
+            this._ids.put(userId, id);
+            this._names.add(userId);
+         }//end if
+         return id.intValue();
+      }//end intern
+
+      /**
+       * Adds an undirected edge between two interned users.
+       */
+      public void addEdge (int a, int b) {
+         if (a == b)
+            return;
+         if (this._edges == this._src.length) {
+            this._src = Arrays.copyOf(this._src, this._edges * 2);
+            this._dst = Arrays.copyOf(this._dst, this._edges * 2);
+         }//end if
+         this._src[this._edges] = a;
+         this._dst[this._edges] = b;
+         ++this._edges;
+      }//end addEdge
+
+      public void addEdge (String a, String b) {
+         addEdge(intern(a), intern(b));
+      }//end addEdge
+
+      public SocialGraph build () {
+         int n = this._names.size();
+         int[] offsets = new int[n + 1];
+         // count both directions of every edge
+         for (int e = 0; e < this._edges; ++e) {
+            ++offsets[this._src[e] + 1];
+            ++offsets[this._dst[e] + 1];
+         }//end for
+         for (int u = 0; u < n; ++u)
+            offsets[u + 1] += offsets[u];
+         int[] fill = Arrays.copyOf(offsets, n);
+         int[] neighbors = new int[offsets[n]];
+         for (int e = 0; e < this._edges; ++e) {
+            neighbors[fill[this._src[e]]++] = this._dst[e];
+            neighbors[fill[this._dst[e]]++] = this._src[e];
+         }//end for
+
+         // sort every row and squeeze out duplicate edges (a->b and b->a both accepted)
+         int write = 0;
+         int start = 0;
+         for (int u = 0; u < n; ++u) {
+            int end = offsets[u + 1];
+            Arrays.sort(neighbors, start, end);
+            offsets[u] = write;
+            int last = -1;
+            for (int i = start; i < end; ++i) {
+               if (neighbors[i] != last) {
+                  neighbors[write++] = neighbors[i];
+                  last = neighbors[i];
+               }//end if
+            }//end for
+            start = end;
+         }//end for
+         offsets[n] = write;
+         return new SocialGraph(new HashMap<String, Integer>(this._ids),
+                                this._names.toArray(new String[n]),
+                                offsets, Arrays.copyOf(neighbors, write));
+      }//end build
+   }//end Builder
+
+   private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+   private final Map<String, Integer> _ids;
+   private String[] _names;
+   private int _users;
+   private final int[] _offsets;
+   private final int[] _neighbors;
+   // connections accepted after the build, keyed by dense user id
+   private final Map<Integer, int[]> _delta = new HashMap<Integer, int[]>();
+   private int _deltaEdges = 0;
+   // the last CONNECTION_CHANGE already in the graph
+   private volatile long _highWater = 0;
+   // the database the graph was read from, see GraphSnapshot.database
+   private volatile long _database = 0;
+
+   SocialGraph (Map<String, Integer> ids, String[] names, int[] offsets, int[] neighbors) {
+      this._ids = ids;
+      this._names = names;
+      this._users = names.length;
+      this._offsets = offsets;
+      this._neighbors = neighbors;
+   }//end SocialGraph
+
+   /**
+    * Builds the graph from the accepted connections in the database.
+    *
+    * @param esql the database
+    * @return the graph of accepted connections
+    * @throws java.sql.SQLException when the connections cannot be read
+    */
+   public static SocialGraph load (ProfNetwork esql) throws SQLException {
+      // taken before the scan; connections accepted during it are read again
+      long highWater = GraphSnapshot.highWater(esql);
+      UserDirectory directory = esql.getDirectory();
+      Builder builder = new Builder();
+      // the edges arrive as integer keys; the directory turns them into the
+      // one shared String per user
+      RowCursor cursor = esql.openCursor(EDGE_QUERY);
+      try{
+         while (cursor.next())
+            builder.addEdge(directory.nameOf(Integer.parseInt(cursor.getString(1))),
+                            directory.nameOf(Integer.parseInt(cursor.getString(2))));
+      }finally{
+         cursor.close();
+      }//end try
+      SocialGraph graph = builder.build();
+      graph.setHighWater(highWater);
+      return graph;
+   }//end load
+
+   /**
+    * @return the number of the last CONNECTION_CHANGE the graph has seen
+    */
+   public long getHighWater () {
+      return this._highWater;
+   }//end getHighWater
+
+   void setHighWater (long highWater) {
+      this._highWater = highWater;
+   }//end setHighWater
+
+   /**
+    * @return the identity of the database the graph was read from, or 0
+    *         when it is not known
+    */
+   public long getDatabase () {
+      return this._database;
+   }//end getDatabase
+
+   void setDatabase (long database) {
+      this._database = database;
+   }//end setDatabase
+
+   /**
+    * @return the dense id of a user, or -1 when the user has no connections
+    */
+   public int idOf (String userId) {
+      this._lock.readLock().lock();
+      try{
+         Integer id = this._ids.get(userId.trim());
+         return id == null ? -1 : id.intValue();
+      }finally{
+         this._lock.readLock().unlock();
+      }//end try
+   }//end idOf
+
+   public String nameOf (int id) {
+      this._lock.readLock().lock();
+      try{
+         return this._names[id];
+      }finally{
+         this._lock.readLock().unlock();
+      }//end try
+   }//end nameOf
+
+   public int userCount () {
+      this._lock.readLock().lock();
+      try{ return this._users; }finally{ this._lock.readLock().unlock(); }
+   }
+
+   public int edgeCount () {
+      this._lock.readLock().lock();
+      try{ return this._neighbors.length / 2 + this._deltaEdges; }finally{ this._lock.readLock().unlock(); }
+   }
+
+   /**
+    * Records a newly accepted connection.
+    */
+   public void addEdge (String a, String b) {
+      this._lock.writeLock().lock();
+      try{
+         int ia = internLocked(a.trim());
+         int ib = internLocked(b.trim());
+         if (ia == ib || hasEdgeLocked(ia, ib))
+            return;
+         appendDelta(ia, ib);
+         appendDelta(ib, ia);
+         ++this._deltaEdges;
+      }finally{
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end addEdge
+
+   private int internLocked (String userId) {
+      Integer id = this._ids.get(userId);
+      if (id != null)
+         return id.intValue();
+      if (this._users == this._names.length)
+         this._names = Arrays.copyOf(this._names, Math.max(16, this._users * 2));
+      this._names[this._users] = userId;
+      this._ids.put(userId, Integer.valueOf(this._users));
+      return this._users++;
+   }//end internLocked
+
+   private void appendDelta (int u, int v) {
+      Integer key = Integer.valueOf(u);
+      int[] list = this._delta.get(key);
+      if (list == null) {
+         list = new int[] { v };
+      }else{
+         list = Arrays.copyOf(list, list.length + 1);
+         list[list.length - 1] = v;
+      }//end if
+      this._delta.put(key, list);
+   }//end appendDelta
+
+   private boolean hasEdgeLocked (int a, int b) {
+      if (a < this._offsets.length - 1
+          && Arrays.binarySearch(this._neighbors, this._offsets[a], this._offsets[a + 1], b) >= 0)
+         return true;
+      int[] extra = this._delta.get(Integer.valueOf(a));
+      if (extra != null)
+         for (int v : extra)
+            if (v == b) return true;
+      return false;
+   }//end hasEdgeLocked
+
+   /**
+    * @return the number of accepted connections of a user
+    */
+   public int degree (String userId) {
+      this._lock.readLock().lock();
+      try{
+         Integer id = this._ids.get(userId.trim());
+         if (id == null)
+            return 0;
+         int u = id.intValue();
+         int d = u < this._offsets.length - 1 ? this._offsets[u + 1] - this._offsets[u] : 0;
+         int[] extra = this._delta.get(id);
+         return d + (extra == null ? 0 : extra.length);
+      }finally{
+         this._lock.readLock().unlock();
+      }//end try
+   }//end degree
+
+   /**
+    * @return the dense ids of the connections of a user, sorted ascending
+    */
+   public int[] neighbors (int u) {
+      this._lock.readLock().lock();
+      try{
+         int begin = u < this._offsets.length - 1 ? this._offsets[u] : 0;
+         int end = u < this._offsets.length - 1 ? this._offsets[u + 1] : 0;
+         int[] extra = this._delta.isEmpty() ? null : this._delta.get(Integer.valueOf(u));
+         if (extra == null)
+            return Arrays.copyOfRange(this._neighbors, begin, end);
+         int[] all = Arrays.copyOf(Arrays.copyOfRange(this._neighbors, begin, end), end - begin + extra.length);
+         System.arraycopy(extra, 0, all, end - begin, extra.length);
+         Arrays.sort(all);
+         return all;
+      }finally{
+         this._lock.readLock().unlock();
+      }//end try
+   }//end neighbors
+
+   /**
+    * The connections two users have in common.
+    */
+   public static class Mutual {
+      public final int count;
+      // at most the requested number of them, by dense id
+      public final String[] sample;
+
+      Mutual (int count, String[] sample) {
+         this.count = count;
+         this.sample = sample;
+      }//end Mutual
+   }//end Mutual
+
+   // above this length ratio the short row gallops through the long one
+   static final int GALLOP_RATIO = 16;
+
+   /**
+    * Finds the mutual connections of two users by intersecting their sorted
+    * rows in place, so two hubs cost a merge of their rows at most and a
+    * hub against a small account costs a few binary searches per entry.
+    *
+    * @param a a user id
+    * @param b another user id
+    * @param sampleSize how many of the mutual connections to name
+    * @return their number and a sample of them
+    */
+   public Mutual mutual (String a, String b, int sampleSize) {
+      this._lock.readLock().lock();
+      try{
+         Integer ia = this._ids.get(a.trim());
+         Integer ib = this._ids.get(b.trim());
+         if (ia == null || ib == null || ia.equals(ib))
+            return new Mutual(0, new String[0]);
+         int u = ia.intValue(), v = ib.intValue();
+         int[] sample = new int[Math.max(0, sampleSize)];
+         int uFrom = u < this._offsets.length - 1 ? this._offsets[u] : 0;
+         int uTo = u < this._offsets.length - 1 ? this._offsets[u + 1] : 0;
+         int vFrom = v < this._offsets.length - 1 ? this._offsets[v] : 0;
+         int vTo = v < this._offsets.length - 1 ? this._offsets[v + 1] : 0;
+         int count = intersect(this._neighbors, uFrom, uTo, this._neighbors, vFrom, vTo, sample, 0);
+
+         // connections accepted since the build; never duplicates of CSR entries
+         int[] extraU = this._delta.isEmpty() ? null : this._delta.get(ia);
+         int[] extraV = this._delta.isEmpty() ? null : this._delta.get(ib);
+         if (extraU != null)
+            for (int x : extraU)
+               if (hasEdgeLocked(v, x))
+                  count = add(sample, count, x);
+         if (extraV != null)
+            for (int x : extraV)
+               if (Arrays.binarySearch(this._neighbors, uFrom, uTo, x) >= 0)
+                  count = add(sample, count, x);
+
+         String[] names = new String[Math.min(count, sample.length)];
+         for (int i = 0; i < names.length; ++i)
+            names[i] = this._names[sample[i]];
+         return new Mutual(count, names);
+      }finally{
+         this._lock.readLock().unlock();
+      }//end try
+   }//end mutual
+
+   private static int add (int[] sample, int count, int x) {
+      if (count < sample.length)
+         sample[count] = x;
+      return count + 1;
+   }//end add
+
+   /**
+    * Intersects two sorted ranges, writing the first common values to out.
+    *
+    * @param count the number of values already found
+    * @return count plus the number of common values
+    */
+   static int intersect (int[] a, int aFrom, int aTo, int[] b, int bFrom, int bTo, int[] out, int count) {
+      if (aTo - aFrom > bTo - bFrom)
+         return intersect(b, bFrom, bTo, a, aFrom, aTo, out, count);
+      if (aFrom == aTo)
+         return count;
+      if ((bTo - bFrom) / GALLOP_RATIO >= aTo - aFrom) {
+         int lo = bFrom;
+         for (int i = aFrom; i < aTo && lo < bTo; ++i) {
+            int x = a[i];
+            // double the step until it passes x, then search the last step
+            int bound = 1;
+            while (lo + bound < bTo && b[lo + bound] < x)
+               bound <<= 1;
+            int pos = Arrays.binarySearch(b, lo + (bound >>> 1), Math.min(lo + bound + 1, bTo), x);
+            if (pos >= 0) {
+               count = add(out, count, x);
+               lo = pos + 1;
+            }else{
+               lo = -pos - 1;
+            }//end if
+         }//end for
+         return count;
+      }//end if
+      int i = aFrom, j = bFrom;
+      while (i < aTo && j < bTo) {
+         // ids are non-negative, so the difference cannot overflow
+         int d = a[i] - b[j];
+         if (d == 0)
+            count = add(out, count, a[i]);
+         // advance whichever is smaller, both when equal, without a
+         // branch the predictor would miss half the time
+         i += (d - 1) >>> 31;
+         j += (-d - 1) >>> 31;
+      }//end while
+      return count;
+   }//end intersect
+
+   /**
+    * Per-thread scratch space of the bidirectional search. A slot belongs
+    * to the current search when its stamp equals the search generation, so
+    * nothing has to be cleared between searches.
+    */
+   private static class Scratch {
+      int generation = 0;
+      int[] stampA = new int[0], stampB = new int[0];
+      int[] parentA = new int[0], parentB = new int[0];
+      int[] frontA = new int[16], frontB = new int[16], next = new int[16];
+
+      void ensure (int n) {
+         if (this.stampA.length < n) {
+            int size = Math.max(n, this.stampA.length * 2);
+            this.stampA = new int[size];
+            this.stampB = new int[size];
+            this.parentA = new int[size];
+            this.parentB = new int[size];
+            this.generation = 0;
+         }//end if
+         if (++this.generation == Integer.MAX_VALUE) {
+            Arrays.fill(this.stampA, 0);
+            Arrays.fill(this.stampB, 0);
+            this.generation = 1;
+         }//end if
+      }//end ensure
+   }//end Scratch
+
+   private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+      protected Scratch initialValue () { return new Scratch(); }
+   };
+
+   /**
+    * Finds the degree of separation between two users.
+    *
+    * @param from a user id
+    * @param to another user id
+    * @param maxDepth the largest distance of interest
+    * @return 0 for the same user, 1 for direct connections, 2 for friends
+    *         of friends and so on; -1 when further than maxDepth apart
+    */
+   public int distance (String from, String to, int maxDepth) {
+      int[] path = path(from, to, maxDepth);
+      return path == null ? -1 : path.length - 1;
+   }//end distance
+
+   /**
+    * Finds a shortest chain of accepted connections between two users.
+    *
+    * @param from a user id
+    * @param to another user id
+    * @param maxDepth the longest chain of interest
+    * @return the user ids along the path, both ends included, or null
+    *         when the users are further than maxDepth apart
+    */
+   public String[] shortestPath (String from, String to, int maxDepth) {
+      if (from.trim().equals(to.trim()))
+         return new String[] { from.trim() };
+      this._lock.readLock().lock();
+      try{
+         int[] path = path(from, to, maxDepth);
+         if (path == null)
+            return null;
+         String[] ids = new String[path.length];
+         for (int i = 0; i < path.length; ++i)
+            ids[i] = this._names[path[i]];
+         return ids;
+      }finally{
+         this._lock.readLock().unlock();
+      }//end try
+   }//end shortestPath
+
+   private int[] path (String from, String to, int maxDepth) {
+      this._lock.readLock().lock();
+      try{
+         if (from.trim().equals(to.trim()))
+            return new int[1];
+         Integer a = this._ids.get(from.trim());
+         Integer b = this._ids.get(to.trim());
+         if (a == null || b == null)
+            return null;
+         return search(a.intValue(), b.intValue(), maxDepth);
+      }finally{
+         this._lock.readLock().unlock();
+      }//end try
+   }//end path
+
+   /**
+    * Bidirectional BFS; always grows the smaller frontier. Caller holds the
+    * read lock.
+    */
+   private int[] search (int a, int b, int maxDepth) {
+      if (a == b)
+         return new int[] { a };
+      Scratch s = SCRATCH.get();
+      s.ensure(this._users);
+      int gen = s.generation;
+      s.stampA[a] = gen; s.parentA[a] = -1;
+      s.stampB[b] = gen; s.parentB[b] = -1;
+      s.frontA[0] = a;
+      s.frontB[0] = b;
+      int sizeA = 1, sizeB = 1;
+      int depthA = 0, depthB = 0;
+
+      while (sizeA > 0 && sizeB > 0 && depthA + depthB < maxDepth) {
+         boolean expandA = sizeA <= sizeB;
+         int[] front = expandA ? s.frontA : s.frontB;
+         int size = expandA ? sizeA : sizeB;
+         int[] stamp = expandA ? s.stampA : s.stampB;
+         int[] parent = expandA ? s.parentA : s.parentB;
+         int[] otherStamp = expandA ? s.stampB : s.stampA;
+         int nextSize = 0;
+         int meet = -1;
+
+         for (int i = 0; i < size && meet < 0; ++i) {
+            int u = front[i];
+            int[] extra = this._delta.isEmpty() ? null : this._delta.get(Integer.valueOf(u));
+            int end = u < this._offsets.length - 1 ? this._offsets[u + 1] : 0;
+            int begin = u < this._offsets.length - 1 ? this._offsets[u] : 0;
+            int extraLen = extra == null ? 0 : extra.length;
+            for (int k = begin; k < end + extraLen; ++k) {
+               int v = k < end ? this._neighbors[k] : extra[k - end];
+               if (stamp[v] == gen)
+                  continue;
+               stamp[v] = gen;
+               parent[v] = u;
+               if (otherStamp[v] == gen) {
+                  meet = v;
+                  break;
+               }//end if
+               if (nextSize == s.next.length)
+                  s.next = Arrays.copyOf(s.next, nextSize * 2);
+               s.next[nextSize++] = v;
+            }//end for
+         }//end for
+
+         if (meet >= 0)
+            return join(s, meet);
+
+         // the expanded frontier becomes the scratch buffer of the next round
+         int[] spare = front;
+         if (expandA) {
+            s.frontA = s.next; sizeA = nextSize; ++depthA;
+         }else{
+            s.frontB = s.next; sizeB = nextSize; ++depthB;
+         }//end if
+         s.next = spare;
+      }//end while
+      return null;
+   }//end search
+
+   /**
+    * Stitches the two half paths that met at a common user.
+    */
+   private static int[] join (Scratch s, int meet) {
+      int lenA = 0;
+      for (int v = meet; v != -1; v = s.parentA[v]) ++lenA;
+      int lenB = 0;
+      for (int v = s.parentB[meet]; v != -1; v = s.parentB[v]) ++lenB;
+      int[] path = new int[lenA + lenB];
+      int i = lenA - 1;
+      for (int v = meet; v != -1; v = s.parentA[v]) path[i--] = v;
+      i = lenA;
+      for (int v = s.parentB[meet]; v != -1; v = s.parentB[v]) path[i++] = v;
+      return path;
+   }//end join
+
+}//end SocialGraph
@@ -0,0 +1,141 @@
+/*
+ * ProfNetwork SQL Script Runner
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class runs the .sql files of sql/src through JDBC the way psql
+ * would: the text is split into statements at top-level semicolons,
+ * leaving semicolons inside quotes, comments and $tag$ function bodies
+ * alone, and the statements are executed in order on one connection.
+ *
+ */
+public class SqlScript {
+
+   /**
+    * Reads a whole script file.
+    */
+   public static String read (File file) throws IOException {
+      StringBuilder sb = new StringBuilder();
+      Reader in = new InputStreamReader(new FileInputStream(file), "UTF-8");
+      try{
+         char[] buf = new char[8192];
+         int n;
+         while ((n = in.read(buf)) > 0)
+            sb.append(buf, 0, n);
+      }finally{
+         in.close();
+      }//end try
+      return sb.toString();
+   }//end read
+
+   /**
+    * Splits a script into its statements.
+    *
+    * @param text the script
+    * @return the statements without their terminating semicolons
+    */
+   public static List<String> split (String text) {
+      List<String> statements = new ArrayList<String>();
+      int start = 0;
+      int i = 0;
+      int n = text.length();
+      while (i < n) {
+         char c = text.charAt(i);
+         if (c == '\'' || c == '"') {
+            int end = text.indexOf(c, i + 1);
+            i = end < 0 ? n : end + 1;
+         }else if (c == '-' && i + 1 < n && text.charAt(i + 1) == '-') {
+            int end = text.indexOf('\n', i);
+            i = end < 0 ? n : end + 1;
+         }else if (c == '/' && i + 1 < n && text.charAt(i + 1) == '*') {
+            int end = text.indexOf("*/", i + 2);
+            i = end < 0 ? n : end + 2;
+         }else if (c == '$') {
+            // $tag$ ... $tag$ quoting, used for function bodies
+            int close = text.indexOf('$', i + 1);
+            String tag = close < 0 ? null : text.substring(i, close + 1);
+            if (tag != null && tag.substring(1, tag.length() - 1).matches("[A-Za-z_0-9]*")) {
+               int end = text.indexOf(tag, close + 1);
+               i = end < 0 ? n : end + tag.length();
+            }else{
+               ++i;
+            }//end if
+         }else if (c == ';') {
+            add(statements, text.substring(start, i));
+            start = ++i;
+         }else{
+            ++i;
+         }//end if
+      }//end while
+      add(statements, text.substring(start));
+      return statements;
+   }//end split
+
+   private static void add (List<String> statements, String sql) {
+      // skip what is left of comments and blank space between statements
+      for (String line : sql.split("\n")) {
+         String t = line.trim();
+         if (!t.isEmpty() && !t.startsWith("--")) {
+            statements.add(sql.trim());
+            return;
+         }//end if
+      }//end for
+   }//end add
+
+   /**
+    * Runs every statement of a script on one pooled connection, stopping
+    * at the first failure.
+    *
+    * @param pool where to borrow the connection from
+    * @param text the script
+    * @return the number of statements executed
+    * @throws java.sql.SQLException when a statement failed
+    */
+   public static int run (ConnectionPool pool, String text) throws SQLException {
+      ConnectionPool.PooledConnection conn = pool.borrow();
+      boolean failed = true;
+      int count = 0;
+      try{
+         Statement stmt = conn.getConnection().createStatement();
+         try{
+            for (String sql : split(text)) {
+               stmt.execute(sql);
+               ++count;
+            }//end for
+         }finally{
+            stmt.close();
+         }//end try
+         failed = false;
+      }finally{
+         pool.release(conn, failed);
+      }//end try
+      return count;
+   }//end run
+
+   /**
+    * Runs a script file.
+    */
+   public static int run (ConnectionPool pool, File file) throws SQLException, IOException {
+      return run(pool, read(file));
+   }//end run
+
+}//end SqlScript
@@ -0,0 +1,146 @@
+/*
+ * ProfNetwork Prepared Statement Cache
+ * ====================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps a bounded, least-recently-used set of PreparedStatements
+ * for one physical connection, keyed by the SQL template ("?" placeholders).
+ * Each fixed query shape is parsed and planned by the server once per
+ * connection and re-executed with new parameters afterwards.
+ *
+ */
+public class StatementCache {
+   // default number of templates kept open per connection
+   public static final int DEFAULT_CAPACITY = 64;
+
+   private final Connection _connection;
+   private final int _capacity;
+   private final LinkedHashMap<String, PreparedStatement> _statements;
+
+   // number of statements handed to the server to be prepared (parse+plan)
+   private long _prepares = 0;
+   // number of times a cached statement was reused
+   private long _hits = 0;
+   private long _evictions = 0;
+   // the same two counts summed over every cache of a pool, null when unused
+   private final StripedCounter _poolPrepares;
+   private final StripedCounter _poolHits;
+
+   /**
+    * Creates a cache on top of an open connection
+    *
+    * @param connection the physical connection owning the statements
+    * @param capacity the maximum number of prepared templates kept open
+    */
+   public StatementCache (Connection connection, int capacity) {
+      this(connection, capacity, null, null);
+   }//end StatementCache
+
+   /**
+    * Creates a cache that also counts its prepares and hits in counters
+    * shared with other caches.
+    *
+    * @param connection the physical connection owning the statements
+    * @param capacity the maximum number of prepared templates kept open
+    * @param prepares shared count of statements prepared
+    * @param hits shared count of cached statements reused
+    */
+   public StatementCache (Connection connection, int capacity, StripedCounter prepares, StripedCounter hits) {
+      this._connection = connection;
+      this._capacity = capacity;
+      this._poolPrepares = prepares;
+      this._poolHits = hits;
+      // access-order map so the eldest entry is the least recently used one
+      this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+   }//end StatementCache
+
+   /**
+    * Returns the prepared statement for a query template, preparing it on
+    * the first use. Parameters from a previous execution are cleared.
+    *
+    * @param sql the SQL template with "?" placeholders
+    * @return a ready to bind PreparedStatement
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public synchronized PreparedStatement prepare (String sql) throws SQLException {
+      PreparedStatement stmt = this._statements.get(sql);
+      if (stmt != null) {
+         ++this._hits;
+         if (this._poolHits != null)
+            this._poolHits.increment();
+         stmt.clearParameters();
+         return stmt;
+      }//end if
+
+      stmt = this._connection.prepareStatement(sql);
+      enableServerPrepare(stmt);
+      ++this._prepares;
+      if (this._poolPrepares != null)
+         this._poolPrepares.increment();
+      this._statements.put(sql, stmt);
+
+      // evict the least recently used template when over capacity
+      if (this._statements.size() > this._capacity) {
+         Iterator<Map.Entry<String, PreparedStatement>> it = this._statements.entrySet().iterator();
+         PreparedStatement eldest = it.next().getValue();
+         it.remove();
+         ++this._evictions;
+         closeQuietly(eldest);
+      }//end if
+      return stmt;
+   }//end prepare
+
+   /**
+    * Asks the PostgreSQL driver to use a named server-side prepared
+    * statement, so the plan survives between executions.
+    */
+   private static void enableServerPrepare (PreparedStatement stmt) {
+      try{
+         if (stmt instanceof org.postgresql.PGStatement) {
+            ((org.postgresql.PGStatement) stmt).setUseServerPrepare(true);
+         }//end if
+      }catch (SQLException e){
+         // the driver or server does not support it; plain execution still works.
+      }//end try
+   }//end enableServerPrepare
+
+   public synchronized long getPrepareCount () { return this._prepares; }
+   public synchronized long getHitCount () { return this._hits; }
+   public synchronized long getEvictionCount () { return this._evictions; }
+   public synchronized int size () { return this._statements.size(); }
+
+   /**
+    * Closes every cached statement.
+    */
+   public synchronized void close () {
+      for (PreparedStatement stmt : this._statements.values()) {
+         closeQuietly(stmt);
+      }//end for
+      this._statements.clear();
+   }//end close
+
+   private static void closeQuietly (PreparedStatement stmt) {
+      try{
+         stmt.close();
+      }catch (SQLException e){
+         // ignored.
+      }//end try
+   }//end closeQuietly
+
+}//end StatementCache
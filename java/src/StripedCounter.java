@@ -0,0 +1,64 @@
+/*
+ * ProfNetwork Striped Counter
+ * ===========================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class is a counter that many threads can bump without fighting over
+ * one cache line, in the manner of LongAdder (which needs Java 8). Each
+ * thread adds to one of several cells chosen by its id; the cells are a
+ * cache line apart, and reading the counter sums them.
+ *
+ */
+public class StripedCounter {
+
+   // longs per 64 byte cache line
+   private static final int PAD = 8;
+   private static final int STRIPES = stripes();
+
+   private final AtomicLongArray _cells = new AtomicLongArray(STRIPES * PAD);
+
+   private static int stripes () {
+      int n = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()));
+      return Math.min(64, n * 2);
+   }//end stripes
+
+   private static int cell () {
+      long id = Thread.currentThread().getId();
+      int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+      return ((h >>> 16) & (STRIPES - 1)) * PAD;
+   }//end cell
+
+   public void add (long delta) {
+      this._cells.addAndGet(cell(), delta);
+   }//end add
+
+   public void increment () {
+      add(1L);
+   }//end increment
+
+   public void decrement () {
+      add(-1L);
+   }//end decrement
+
+   /**
+    * @return the sum of the cells; not a snapshot when threads are adding
+    */
+   public long sum () {
+      long sum = 0;
+      for (int i = 0; i < STRIPES; ++i)
+         sum += this._cells.get(i * PAD);
+      return sum;
+   }//end sum
+
+}//end StripedCounter
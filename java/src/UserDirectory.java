@@ -0,0 +1,114 @@
+/*
+ * ProfNetwork User Directory
+ * ==========================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class maps user ids to their surrogate keys (USR.uid) and back.
+ * All users are read in one scan on first use; users created later are
+ * looked up by key when first asked for and kept from then on.
+ *
+ * Ids come out trimmed and interned, one String per user, so code holding
+ * many of them (the connection graph, caches) shares them instead of
+ * keeping a padded copy per row.
+ *
+ */
+public class UserDirectory {
+
+   static final String LOAD_QUERY = "SELECT uid, userId FROM USR";
+   static final String UID_QUERY = "SELECT uid, userId FROM USR WHERE userId = ?";
+   static final String NAME_QUERY = "SELECT uid, userId FROM USR WHERE uid = ?";
+
+   private final ProfNetwork _esql;
+   private final ConcurrentHashMap<String, Integer> _uids = new ConcurrentHashMap<String, Integer>();
+   // user id by uid, replaced by a longer copy when a larger uid arrives
+   private volatile String[] _names;
+
+   UserDirectory (ProfNetwork esql, int capacity) {
+      this._esql = esql;
+      this._names = new String[Math.max(16, capacity)];
+   }//end UserDirectory
+
+   /**
+    * Reads every user of the database.
+    *
+    * @throws java.sql.SQLException when USR cannot be read
+    */
+   public static UserDirectory load (ProfNetwork esql) throws SQLException {
+      RowCursor cursor = esql.openCursor(LOAD_QUERY);
+      UserDirectory directory = new UserDirectory(esql, 1024);
+      try{
+         while (cursor.next())
+            directory.add(Integer.parseInt(cursor.getString(1).trim()), cursor.getString(2));
+      }finally{
+         cursor.close();
+      }//end try
+      return directory;
+   }//end load
+
+   private synchronized String add (int uid, String userId) {
+      String[] names = this._names;
+      if (uid < names.length && names[uid] != null)
+         return names[uid];
+      if (uid >= names.length)
+         names = Arrays.copyOf(names, Math.max(uid + 1, names.length * 2));
+      String name = userId.trim();
+      names[uid] = name;
+      // the volatile write publishes the new entry to readers of _names
+      this._names = names;
+      this._uids.put(name, Integer.valueOf(uid));
+      return name;
+   }//end add
+
+   /**
+    * @return the surrogate key of a user, or -1 when there is no such user
+    * @throws java.sql.SQLException when an unknown user had to be looked up and that failed
+    */
+   public int uidOf (String userId) throws SQLException {
+      String name = userId.trim();
+      Integer uid = this._uids.get(name);
+      if (uid != null)
+         return uid.intValue();
+      List<List<String>> rows = this._esql.executeQueryAndReturnResult(UID_QUERY, name);
+      if (rows.isEmpty())
+         return -1;
+      int found = Integer.parseInt(rows.get(0).get(0).trim());
+      add(found, rows.get(0).get(1));
+      return found;
+   }//end uidOf
+
+   /**
+    * @return the user id of a surrogate key, or null when there is no such user
+    * @throws java.sql.SQLException when an unknown key had to be looked up and that failed
+    */
+   public String nameOf (int uid) throws SQLException {
+      String[] names = this._names;
+      if (uid >= 0 && uid < names.length && names[uid] != null)
+         return names[uid];
+      List<List<String>> rows = this._esql.executeQueryAndReturnResult(NAME_QUERY, Integer.valueOf(uid));
+      if (rows.isEmpty())
+         return null;
+      return add(uid, rows.get(0).get(1));
+   }//end nameOf
+
+   /**
+    * @return the number of users known so far
+    */
+   public int size () {
+      return this._uids.size();
+   }//end size
+
+}//end UserDirectory
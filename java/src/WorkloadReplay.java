@@ -0,0 +1,373 @@
+/*
+ * ProfNetwork Workload Replay Driver
+ * ==================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * This class replays a scripted workload against the ProfNetwork menu
+ * operations without a keyboard. Every operation is turned into the lines
+ * a user would have typed and run through the same static menu method the
+ * console uses, on a Session whose input is the script. When the script
+ * runs out the session closes and the menu unwinds, so an operation ends
+ * right after the work it was asked to do.
+ *
+ * Workload file format, one operation per line ('#' starts a comment):
+ *
+ *    login    <userId> <password>
+ *    myinfo
+ *    friends
+ *    view     <userId>
+ *    search   <name>
+ *    message  <userId> <text ...>
+ *    request  <userId>
+ *    requests
+ *    inbox
+ *    open     <msgId>
+ *
+ * Every replayer thread runs the whole file, in order, the given number
+ * of iterations. The text "{thread}" in an argument is replaced by the
+ * replayer number.
+ *
+ */
+public class WorkloadReplay {
+
+   /**
+    * One parsed line of the workload file.
+    */
+   static class Operation {
+      final String name;
+      final String[] args;
+
+      Operation (String name, String[] args) {
+         this.name = name;
+         this.args = args;
+      }//end Operation
+   }//end Operation
+
+   /**
+    * Latencies of one operation type recorded by one replayer.
+    */
+   static class Samples {
+      long[] nanos = new long[256];
+      int count = 0;
+      int errors = 0;
+
+      void add (long value) {
+         if (this.count == this.nanos.length)
+            this.nanos = Arrays.copyOf(this.nanos, this.count * 2);
+         this.nanos[this.count++] = value;
+      }//end add
+
+      void addAll (Samples other) {
+         for (int i = 0; i < other.count; ++i)
+            add(other.nanos[i]);
+         this.errors += other.errors;
+      }//end addAll
+   }//end Samples
+
+   // swallows the menu output of replayed operations
+   private static final PrintStream DISCARD = new PrintStream(new OutputStream() {
+      public void write (int b) { }
+      public void write (byte[] b, int off, int len) { }
+   });
+
+   private final ProfNetwork _esql;
+   private final List<Operation> _workload;
+
+   public WorkloadReplay (ProfNetwork esql, List<Operation> workload) {
+      this._esql = esql;
+      this._workload = workload;
+   }//end WorkloadReplay
+
+   /**
+    * Reads a workload file.
+    *
+    * @param path the workload file
+    * @return the operations in file order
+    * @throws java.io.IOException when the file cannot be read or has an unknown operation
+    */
+   static List<Operation> parse (String path) throws IOException {
+      List<Operation> ops = new ArrayList<Operation>();
+      BufferedReader reader = new BufferedReader(new FileReader(path));
+      try{
+         String line;
+         int lineNo = 0;
+         while ((line = reader.readLine()) != null) {
+            ++lineNo;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+               continue;
+            String[] words = line.split("\\s+");
+            String name = words[0].toLowerCase();
+            int arity = arity(name);
+            if (arity < 0 || words.length - 1 < arity)
+               throw new IOException(path + ":" + lineNo + ": cannot replay '" + line + "'");
+            String[] args;
+            if (name.equals("message") || name.equals("search")) {
+               // the last argument is free text and may contain spaces
+               args = line.substring(words[0].length()).trim().split("\\s+", arity);
+            }else{
+               args = Arrays.copyOfRange(words, 1, 1 + arity);
+            }//end if
+            ops.add(new Operation(name, args));
+         }//end while
+      }finally{
+         reader.close();
+      }//end try
+      return ops;
+   }//end parse
+
+   /**
+    * @return the number of arguments of an operation, -1 when unknown
+    */
+   private static int arity (String name) {
+      if (name.equals("login") || name.equals("message")) return 2;
+      if (name.equals("view") || name.equals("search") || name.equals("request")
+          || name.equals("open")) return 1;
+      if (name.equals("myinfo") || name.equals("friends") || name.equals("requests")
+          || name.equals("inbox")) return 0;
+      return -1;
+   }//end arity
+
+   /**
+    * Runs one operation for the given session user.
+    *
+    * @return the user logged in after the operation
+    */
+   String replay (Operation op, String[] args, String me) {
+      if (op.name.equals("login")) {
+         bind(args[0] + "\n" + args[1] + "\n", me);
+         return ProfNetwork.LogIn(this._esql);
+      }else if (op.name.equals("myinfo")) {
+         bind("", me);
+         ProfNetwork.viewMyInfo(this._esql, me);
+      }else if (op.name.equals("friends")) {
+         // back to the previous page; a user without friends is never asked
+         bind("2\n", me);
+         ProfNetwork.FriendList(this._esql, me, me);
+      }else if (op.name.equals("view")) {
+         bind("", me);
+         ProfNetwork.ViewProfile(this._esql, args[0], me);
+      }else if (op.name.equals("search")) {
+         // decline to open a profile, decline to search again
+         bind(args[0] + "\n2\n2\n", me);
+         ProfNetwork.SearchPeople(this._esql, me);
+      }else if (op.name.equals("message")) {
+         bind(args[0] + "\n" + args[1] + "\nY\n", me);
+         ProfNetwork.NewMessage(this._esql, me);
+      }else if (op.name.equals("request")) {
+         bind(args[0] + "\n", me);
+         ProfNetwork.SendRequest(this._esql, me);
+      }else if (op.name.equals("requests")) {
+         // list the pending requests and leave them alone
+         bind("6\n", me);
+         ProfNetwork.ViewRequests(this._esql, me);
+      }else if (op.name.equals("inbox")) {
+         bind("", me);
+         ProfNetwork.ViewMessages(this._esql, me);
+      }else if (op.name.equals("open")) {
+         bind("2\n", me);
+         ProfNetwork.OpenMessage(this._esql, me, args[0]);
+      }//end if
+      return me;
+   }//end replay
+
+   /**
+    * Binds a fresh session whose input is the given script. Errors printed
+    * by the menus are captured so they can be counted; what an earlier
+    * operation printed is dropped, whether or not it was looked at.
+    */
+   private static void bind (String script, String user) {
+      ByteArrayOutputStream errors = ERRORS.get();
+      errors.reset();
+      Session session = new Session(new BufferedReader(new StringReader(script)),
+                                    DISCARD, new PrintStream(errors, true));
+      session.userId = user;
+      session.bind();
+   }//end bind
+
+   // error output of the replay sessions of each thread
+   private static final ThreadLocal<ByteArrayOutputStream> ERRORS = new ThreadLocal<ByteArrayOutputStream>() {
+      protected ByteArrayOutputStream initialValue () { return new ByteArrayOutputStream(); }
+   };
+
+   /**
+    * @return true when the last replayed operation printed an error other
+    *         than the end of its script
+    */
+   private static boolean hadError () {
+      ByteArrayOutputStream errors = ERRORS.get();
+      String text = errors.toString();
+      errors.reset();
+      return !text.replace("Session closed", "").trim().isEmpty();
+   }//end hadError
+
+   /**
+    * Replays the workload on one thread.
+    */
+   Map<String, Samples> replayAll (int thread, int iterations) {
+      Map<String, Samples> samples = new TreeMap<String, Samples>();
+      String user = null;
+      String tag = Integer.toString(thread);
+      for (int it = 0; it < iterations; ++it) {
+         for (Operation op : this._workload) {
+            String[] args = new String[op.args.length];
+            for (int i = 0; i < args.length; ++i)
+               args[i] = op.args[i].replace("{thread}", tag);
+            if (user == null && !op.name.equals("login"))
+               continue;
+            long start = System.nanoTime();
+            String next = replay(op, args, user);
+            long elapsed = System.nanoTime() - start;
+
+            Samples s = samples.get(op.name);
+            if (s == null) {
+               s = new Samples();
+               samples.put(op.name, s);
+            }//end if
+            s.add(elapsed);
+            if (hadError() || (op.name.equals("login") && next == null))
+               ++s.errors;
+            if (op.name.equals("login"))
+               user = next;
+         }//end for
+      }//end for
+      Session.unbind();
+      return samples;
+   }//end replayAll
+
+   /**
+    * Prints throughput and latency percentiles per operation type.
+    */
+   static void report (Map<String, Samples> merged, long wallNanos, PrintStream out) {
+      double seconds = wallNanos / 1e9;
+      long total = 0;
+      out.println();
+      out.println(String.format("%-10s %8s %7s %10s %9s %9s %9s %9s",
+            "operation", "count", "errors", "ops/s", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+      for (Map.Entry<String, Samples> e : merged.entrySet()) {
+         Samples s = e.getValue();
+         long[] sorted = Arrays.copyOf(s.nanos, s.count);
+         Arrays.sort(sorted);
+         total += s.count;
+         out.println(String.format("%-10s %8d %7d %10.1f %9.3f %9.3f %9.3f %9.3f",
+               e.getKey(), s.count, s.errors, s.count / seconds,
+               percentile(sorted, 0.50), percentile(sorted, 0.90),
+               percentile(sorted, 0.99), percentile(sorted, 1.0)));
+      }//end for
+      out.println(String.format("%d operations in %.2f s, %.1f ops/s", total, seconds, total / seconds));
+   }//end report
+
+   /**
+    * @return the given percentile of sorted nanosecond samples, in milliseconds
+    */
+   static double percentile (long[] sorted, double p) {
+      if (sorted.length == 0)
+         return 0.0;
+      int idx = (int) Math.ceil(p * sorted.length) - 1;
+      return sorted[Math.max(0, Math.min(sorted.length - 1, idx))] / 1e6;
+   }//end percentile
+
+   /**
+    * The replay driver entry point
+    *
+    * @param args <dbname> <port> <user> <workload file> [threads] [iterations]
+    */
+   public static void main (String[] args) {
+      if (args.length < 4 || args.length > 6) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            WorkloadReplay.class.getName () +
+            " <dbname> <port> <user> <workload file> [threads] [iterations]");
+         return;
+      }//end if
+      final int threads = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+      final int iterations = args.length > 5 ? Integer.parseInt(args[5]) : 1;
+
+      // one pooled connection per replayer unless sized explicitly
+      if (System.getProperty("profnetwork.pool.max") == null)
+         System.setProperty("profnetwork.pool.max", Integer.toString(threads));
+
+      ProfNetwork esql = null;
+      try{
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new ProfNetwork (args[0], args[1], args[2], "");
+         // the menus expect the schema of sql/migrations, as in ProfNetwork.main
+         SchemaMigrator.migrate (esql, System.out);
+         IdAllocator.checkIncrement (esql, "msgId_seq", MessageSender.MSG_ID_BLOCK);
+         final WorkloadReplay driver = new WorkloadReplay(esql, parse(args[3]));
+
+         final List<Map<String, Samples>> results = new ArrayList<Map<String, Samples>>();
+         final CountDownLatch start = new CountDownLatch(1);
+         List<Thread> workers = new ArrayList<Thread>();
+         for (int t = 0; t < threads; ++t) {
+            final int thread = t;
+            Thread worker = new Thread("replay-" + t) {
+               public void run () {
+                  try{
+                     start.await();
+                  }catch (InterruptedException e){
+                     return;
+                  }//end try
+                  Map<String, Samples> mine = driver.replayAll(thread, iterations);
+                  synchronized (results) {
+                     results.add(mine);
+                  }//end synchronized
+               }
+            };
+            worker.start();
+            workers.add(worker);
+         }//end for
+
+         long begin = System.nanoTime();
+         start.countDown();
+         for (Thread worker : workers)
+            worker.join();
+         long wall = System.nanoTime() - begin;
+
+         Map<String, Samples> merged = new TreeMap<String, Samples>();
+         for (Map<String, Samples> result : results) {
+            for (Map.Entry<String, Samples> e : result.entrySet()) {
+               Samples s = merged.get(e.getKey());
+               if (s == null) {
+                  s = new Samples();
+                  merged.put(e.getKey(), s);
+               }//end if
+               s.addAll(e.getValue());
+            }//end for
+         }//end for
+         System.out.println(threads + " replayer(s) x " + iterations + " iteration(s)");
+         report(merged, wall, System.out);
+         System.out.println(esql.getPool().describe());
+      }catch(Exception e){
+         System.err.println (e.getMessage ());
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+   }//end main
+
+}//end WorkloadReplay
@@ -0,0 +1,71 @@
+-- Replaces the single-column hash indexes of the original create_indexes.sql
+-- with composite and partial indexes matching the application's queries.
+-- Safe to run on a database already created with the new create_indexes.sql.
+
+-- duplicates of the primary keys, or on columns no query filters by
+DROP INDEX IF EXISTS USR_userId_index;
+DROP INDEX IF EXISTS USR_password_index;
+DROP INDEX IF EXISTS USR_email_index;
+DROP INDEX IF EXISTS USR_name_index;
+DROP INDEX IF EXISTS USR_dateOfBirth_index;
+
+DROP INDEX IF EXISTS WORK_EXPR_userId_index;
+DROP INDEX IF EXISTS WORK_EXPR_company_index;
+DROP INDEX IF EXISTS WORK_EXPR_role_index;
+DROP INDEX IF EXISTS WORK_EXPR_location_index;
+DROP INDEX IF EXISTS WORK_EXPR_startDate_index;
+DROP INDEX IF EXISTS WORK_EXPR_endDate_index;
+
+DROP INDEX IF EXISTS EDUCATIONAL_DETAILS_userId_index;
+DROP INDEX IF EXISTS EDUCATIONAL_DETAILS_institutionName_index;
+DROP INDEX IF EXISTS EDUCATIONAL_DETAILS_major_index;
+DROP INDEX IF EXISTS EDUCATIONAL_DETAILS_degree_index;
+DROP INDEX IF EXISTS EDUCATIONAL_DETAILS_startdate_index;
+DROP INDEX IF EXISTS EDUCATIONAL_DETAILS_enddate_index;
+
+DROP INDEX IF EXISTS MESSAGE_msgId_index;
+DROP INDEX IF EXISTS MESSAGE_sendTime_index;
+DROP INDEX IF EXISTS MESSAGE_deleteStatus_index;
+DROP INDEX IF EXISTS MESSAGE_status_index;
+-- replaced by the partial inbox indexes below
+DROP INDEX IF EXISTS MESSAGE_senderId_sendTime_index;
+DROP INDEX IF EXISTS MESSAGE_receiverId_sendTime_index;
+
+DROP INDEX IF EXISTS CONNECTION_USR_userId_index;
+DROP INDEX IF EXISTS CONNECTION_USR_connectionId_index;
+DROP INDEX IF EXISTS CONNECTION_USR_status_index;
+
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+CREATE INDEX IF NOT EXISTS USR_name_trgm_index
+ON USR
+USING gin(lower(name) gin_trgm_ops);
+
+CREATE INDEX IF NOT EXISTS MESSAGE_receiver_inbox_index
+ON MESSAGE
+USING btree(receiverId, sendTime, msgId)
+WHERE deleteStatus IN (1, 3);
+
+CREATE INDEX IF NOT EXISTS MESSAGE_sender_inbox_index
+ON MESSAGE
+USING btree(senderId, sendTime, msgId)
+WHERE deleteStatus IN (2, 3);
+
+CREATE INDEX IF NOT EXISTS CONNECTION_USR_accept_out_index
+ON CONNECTION_USR
+USING btree(userId, connectionId)
+WHERE status = 'Accept';
+
+CREATE INDEX IF NOT EXISTS CONNECTION_USR_accept_in_index
+ON CONNECTION_USR
+USING btree(connectionId, userId)
+WHERE status = 'Accept';
+
+CREATE INDEX IF NOT EXISTS CONNECTION_USR_request_in_index
+ON CONNECTION_USR
+USING btree(connectionId, userId)
+WHERE status = 'Request';
+
+ANALYZE USR;
+ANALYZE MESSAGE;
+ANALYZE CONNECTION_USR;
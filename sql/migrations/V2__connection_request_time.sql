@@ -0,0 +1,7 @@
+-- Records when a connection request was sent, so old requests can be
+-- rejected in bulk. Rows that existed before have no time and count as old.
+-- CONNECTION_USR_request_in_index already narrows the age filter to the
+-- pending requests of one user.
+
+ALTER TABLE CONNECTION_USR ADD COLUMN IF NOT EXISTS requestTime timestamp;
+ALTER TABLE CONNECTION_USR ALTER COLUMN requestTime SET DEFAULT now();
@@ -0,0 +1,47 @@
+-- Gives every user a surrogate integer key, USR.uid, and carries it on
+-- CONNECTION_USR next to the char(30) ids, so the friend list and the
+-- connection graph join and compare 4 byte ints instead of blank padded
+-- strings. The uid columns of CONNECTION_USR are filled by a trigger from
+-- the userId columns, which stay the keys every other query uses.
+
+CREATE SEQUENCE IF NOT EXISTS usr_uid_seq;
+ALTER TABLE USR ADD COLUMN IF NOT EXISTS uid integer;
+UPDATE USR SET uid = nextval('usr_uid_seq') WHERE uid IS NULL;
+ALTER TABLE USR ALTER COLUMN uid SET DEFAULT nextval('usr_uid_seq');
+ALTER TABLE USR ALTER COLUMN uid SET NOT NULL;
+ALTER SEQUENCE usr_uid_seq OWNED BY USR.uid;
+CREATE UNIQUE INDEX IF NOT EXISTS USR_uid_index ON USR (uid);
+
+ALTER TABLE CONNECTION_USR ADD COLUMN IF NOT EXISTS userUid integer;
+ALTER TABLE CONNECTION_USR ADD COLUMN IF NOT EXISTS connectionUid integer;
+UPDATE CONNECTION_USR C SET userUid = U.uid FROM USR U
+WHERE U.userId = trim(C.userId) AND C.userUid IS NULL;
+UPDATE CONNECTION_USR C SET connectionUid = U.uid FROM USR U
+WHERE U.userId = trim(C.connectionId) AND C.connectionUid IS NULL;
+
+CREATE OR REPLACE FUNCTION connection_uid_func()
+        RETURNS "trigger" AS
+        $BODY$
+        BEGIN
+
+        SELECT U.uid INTO NEW.userUid FROM USR U WHERE U.userId = trim(NEW.userId);
+        SELECT U.uid INTO NEW.connectionUid FROM USR U WHERE U.userId = trim(NEW.connectionId);
+        RETURN NEW;
+
+        END
+        $BODY$
+        LANGUAGE plpgsql VOLATILE;
+
+DROP TRIGGER IF EXISTS connection_uid_trigger ON CONNECTION_USR;
+CREATE TRIGGER connection_uid_trigger BEFORE INSERT OR UPDATE OF userId, connectionId
+ON CONNECTION_USR FOR EACH ROW
+EXECUTE PROCEDURE connection_uid_func();
+
+-- the uid twins of CONNECTION_USR_accept_out_index and _accept_in_index
+CREATE INDEX IF NOT EXISTS CONNECTION_USR_accept_uid_out_index
+ON CONNECTION_USR (userUid, connectionUid) WHERE status = 'Accept';
+CREATE INDEX IF NOT EXISTS CONNECTION_USR_accept_uid_in_index
+ON CONNECTION_USR (connectionUid, userUid) WHERE status = 'Accept';
+
+ANALYZE USR;
+ANALYZE CONNECTION_USR;
@@ -0,0 +1,32 @@
+-- Logs every connection that becomes accepted, numbered in order, so an
+-- in-memory copy of the connection graph saved at some point (a graph
+-- snapshot) can catch up by reading only the connections accepted since.
+-- Connections are never un-accepted by the application, so the log has
+-- nothing to say about removals. Rows below the high-water mark of the
+-- oldest snapshot still in use can be deleted.
+
+CREATE TABLE IF NOT EXISTS CONNECTION_CHANGE(
+        seq bigserial NOT NULL,
+        userId varchar(30) NOT NULL,
+        connectionId varchar(30) NOT NULL,
+        PRIMARY KEY(seq));
+
+CREATE OR REPLACE FUNCTION connection_change_func()
+        RETURNS "trigger" AS
+        $BODY$
+        BEGIN
+
+        IF TG_OP = 'INSERT' OR OLD.status <> 'Accept' THEN
+                INSERT INTO CONNECTION_CHANGE (userId, connectionId)
+                VALUES (trim(NEW.userId), trim(NEW.connectionId));
+        END IF;
+        RETURN NULL;
+
+        END
+        $BODY$
+        LANGUAGE plpgsql VOLATILE;
+
+DROP TRIGGER IF EXISTS connection_change_trigger ON CONNECTION_USR;
+CREATE TRIGGER connection_change_trigger AFTER INSERT OR UPDATE OF status
+ON CONNECTION_USR FOR EACH ROW WHEN (NEW.status = 'Accept')
+EXECUTE PROCEDURE connection_change_func();
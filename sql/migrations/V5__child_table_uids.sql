@@ -0,0 +1,93 @@
+-- Carries the surrogate user key of V3 on MESSAGE, WORK_EXPR and
+-- EDUCATIONAL_DETAILS, so the inbox, the message operations and the
+-- profile page look rows up by 4 byte ints instead of blank padded
+-- char(30) ids. As on CONNECTION_USR the uid columns are filled by a
+-- trigger from the userId columns, which stay in the primary keys and are
+-- still written by every insert.
+
+ALTER TABLE MESSAGE ADD COLUMN IF NOT EXISTS senderUid integer;
+ALTER TABLE MESSAGE ADD COLUMN IF NOT EXISTS receiverUid integer;
+UPDATE MESSAGE M SET senderUid = U.uid FROM USR U
+WHERE U.userId = trim(M.senderId) AND M.senderUid IS NULL;
+UPDATE MESSAGE M SET receiverUid = U.uid FROM USR U
+WHERE U.userId = trim(M.receiverId) AND M.receiverUid IS NULL;
+
+ALTER TABLE WORK_EXPR ADD COLUMN IF NOT EXISTS userUid integer;
+UPDATE WORK_EXPR W SET userUid = U.uid FROM USR U
+WHERE U.userId = trim(W.userId) AND W.userUid IS NULL;
+
+ALTER TABLE EDUCATIONAL_DETAILS ADD COLUMN IF NOT EXISTS userUid integer;
+UPDATE EDUCATIONAL_DETAILS E SET userUid = U.uid FROM USR U
+WHERE U.userId = trim(E.userId) AND E.userUid IS NULL;
+
+CREATE OR REPLACE FUNCTION message_uid_func()
+        RETURNS "trigger" AS
+        $BODY$
+        BEGIN
+
+        SELECT U.uid INTO NEW.senderUid FROM USR U WHERE U.userId = trim(NEW.senderId);
+        SELECT U.uid INTO NEW.receiverUid FROM USR U WHERE U.userId = trim(NEW.receiverId);
+        RETURN NEW;
+
+        END
+        $BODY$
+        LANGUAGE plpgsql VOLATILE;
+
+DROP TRIGGER IF EXISTS message_uid_trigger ON MESSAGE;
+CREATE TRIGGER message_uid_trigger BEFORE INSERT OR UPDATE OF senderId, receiverId
+ON MESSAGE FOR EACH ROW
+EXECUTE PROCEDURE message_uid_func();
+
+-- WORK_EXPR and EDUCATIONAL_DETAILS both key their rows on userId
+CREATE OR REPLACE FUNCTION user_uid_func()
+        RETURNS "trigger" AS
+        $BODY$
+        BEGIN
+
+        SELECT U.uid INTO NEW.userUid FROM USR U WHERE U.userId = trim(NEW.userId);
+        RETURN NEW;
+
+        END
+        $BODY$
+        LANGUAGE plpgsql VOLATILE;
+
+DROP TRIGGER IF EXISTS work_uid_trigger ON WORK_EXPR;
+CREATE TRIGGER work_uid_trigger BEFORE INSERT OR UPDATE OF userId
+ON WORK_EXPR FOR EACH ROW
+EXECUTE PROCEDURE user_uid_func();
+
+DROP TRIGGER IF EXISTS education_uid_trigger ON EDUCATIONAL_DETAILS;
+CREATE TRIGGER education_uid_trigger BEFORE INSERT OR UPDATE OF userId
+ON EDUCATIONAL_DETAILS FOR EACH ROW
+EXECUTE PROCEDURE user_uid_func();
+
+-- the userId foreign keys guarantee a user, so every row has its uid
+ALTER TABLE MESSAGE ALTER COLUMN senderUid SET NOT NULL;
+ALTER TABLE MESSAGE ALTER COLUMN receiverUid SET NOT NULL;
+ALTER TABLE WORK_EXPR ALTER COLUMN userUid SET NOT NULL;
+ALTER TABLE EDUCATIONAL_DETAILS ALTER COLUMN userUid SET NOT NULL;
+
+-- the uid twins of MESSAGE_receiver_inbox_index and _sender_inbox_index
+-- (see Inbox.PAGE_QUERY and Messages)
+CREATE INDEX IF NOT EXISTS MESSAGE_receiver_uid_inbox_index
+ON MESSAGE
+USING btree(receiverUid, sendTime, msgId)
+WHERE deleteStatus IN (1, 3);
+
+CREATE INDEX IF NOT EXISTS MESSAGE_sender_uid_inbox_index
+ON MESSAGE
+USING btree(senderUid, sendTime, msgId)
+WHERE deleteStatus IN (2, 3);
+
+-- the profile page reads both tables by user (see Profile.LOAD_QUERY)
+CREATE INDEX IF NOT EXISTS WORK_EXPR_uid_index
+ON WORK_EXPR
+USING btree(userUid);
+
+CREATE INDEX IF NOT EXISTS EDUCATIONAL_DETAILS_uid_index
+ON EDUCATIONAL_DETAILS
+USING btree(userUid);
+
+ANALYZE MESSAGE;
+ANALYZE WORK_EXPR;
+ANALYZE EDUCATIONAL_DETAILS;
@@ -0,0 +1,12 @@
+-- Moves an existing database to msgIds assigned by the application, as
+-- trigger.sql sets up new ones: every nextval of msgId_seq reserves a
+-- block of 1000 ids (IdAllocator, MessageSender.MSG_ID_BLOCK), and the
+-- BEFORE INSERT trigger that numbered every row, overwriting the id the
+-- application chose, is dropped. Ids handed out before stay below the
+-- next block.
+
+CREATE SEQUENCE IF NOT EXISTS msgId_seq START WITH 27812;
+ALTER SEQUENCE msgId_seq INCREMENT BY 1000;
+
+DROP TRIGGER IF EXISTS name ON MESSAGE;
+DROP FUNCTION IF EXISTS func();
@@ -0,0 +1,28 @@
+-- The application now writes the uid columns of V3 and V5 itself, from
+-- its UserDirectory (MessageSender, ConnectionRequests, ProfileEditor,
+-- BulkLoader), so the per-row triggers looking them up in USR go. Rows
+-- written without a uid are refused instead of silently left out of the
+-- uid queries.
+--
+-- The char(30) indexes the uid indexes replaced are dropped too; nothing
+-- reads MESSAGE or the accepted connections by userId any more.
+
+DROP TRIGGER IF EXISTS connection_uid_trigger ON CONNECTION_USR;
+DROP TRIGGER IF EXISTS message_uid_trigger ON MESSAGE;
+DROP TRIGGER IF EXISTS work_uid_trigger ON WORK_EXPR;
+DROP TRIGGER IF EXISTS education_uid_trigger ON EDUCATIONAL_DETAILS;
+DROP FUNCTION IF EXISTS connection_uid_func();
+DROP FUNCTION IF EXISTS message_uid_func();
+DROP FUNCTION IF EXISTS user_uid_func();
+
+UPDATE CONNECTION_USR C SET userUid = U.uid FROM USR U
+WHERE U.userId = trim(C.userId) AND C.userUid IS NULL;
+UPDATE CONNECTION_USR C SET connectionUid = U.uid FROM USR U
+WHERE U.userId = trim(C.connectionId) AND C.connectionUid IS NULL;
+ALTER TABLE CONNECTION_USR ALTER COLUMN userUid SET NOT NULL;
+ALTER TABLE CONNECTION_USR ALTER COLUMN connectionUid SET NOT NULL;
+
+DROP INDEX IF EXISTS MESSAGE_receiver_inbox_index;
+DROP INDEX IF EXISTS MESSAGE_sender_inbox_index;
+DROP INDEX IF EXISTS CONNECTION_USR_accept_out_index;
+DROP INDEX IF EXISTS CONNECTION_USR_accept_in_index;
@@ -0,0 +1,68 @@
+-- Keeps the number of accepted connections of every user in FRIEND_COUNT,
+-- maintained by a trigger on CONNECTION_USR, so the profile page reads
+-- one row instead of counting the connections (ProfNetwork.friendCount).
+-- The table is filled from the connections already accepted.
+
+CREATE TABLE IF NOT EXISTS FRIEND_COUNT(
+        userId varchar(30) NOT NULL,
+        friends integer NOT NULL DEFAULT 0,
+        PRIMARY KEY(userId),
+	FOREIGN KEY(userId) REFERENCES USR(userId) ON DELETE CASCADE);
+
+CREATE OR REPLACE FUNCTION add_friends(id text, delta integer)
+        RETURNS void AS
+        $BODY$
+        BEGIN
+
+        -- users being deleted have no row to keep
+        INSERT INTO FRIEND_COUNT (userId, friends)
+        SELECT U.userId, delta FROM USR U WHERE U.userId = trim(id)
+        ON CONFLICT (userId) DO UPDATE SET friends = FRIEND_COUNT.friends + delta;
+
+        END
+        $BODY$
+        LANGUAGE plpgsql VOLATILE;
+
+CREATE OR REPLACE FUNCTION friend_count_func()
+        RETURNS "trigger" AS
+        $BODY$
+        BEGIN
+
+        IF TG_OP <> 'INSERT' AND OLD.status = 'Accept' THEN
+                PERFORM add_friends(OLD.userId, -1);
+                PERFORM add_friends(OLD.connectionId, -1);
+        END IF;
+        IF TG_OP <> 'DELETE' AND NEW.status = 'Accept' THEN
+                PERFORM add_friends(NEW.userId, 1);
+                PERFORM add_friends(NEW.connectionId, 1);
+        END IF;
+        RETURN NULL;
+
+        END
+        $BODY$
+        LANGUAGE plpgsql VOLATILE;
+
+-- recounts FRIEND_COUNT from scratch, after bulk loads done without the trigger
+CREATE OR REPLACE FUNCTION refresh_friend_count()
+        RETURNS void AS
+        $BODY$
+        BEGIN
+
+        DELETE FROM FRIEND_COUNT;
+        INSERT INTO FRIEND_COUNT (userId, friends)
+        SELECT id, COUNT(*)
+        FROM (SELECT trim(userId) AS id FROM CONNECTION_USR WHERE status = 'Accept'
+              UNION ALL
+              SELECT trim(connectionId) FROM CONNECTION_USR WHERE status = 'Accept') C
+        GROUP BY id;
+
+        END
+        $BODY$
+        LANGUAGE plpgsql VOLATILE;
+
+DROP TRIGGER IF EXISTS friend_count_trigger ON CONNECTION_USR;
+CREATE TRIGGER friend_count_trigger AFTER INSERT OR UPDATE OF status OR DELETE
+ON CONNECTION_USR FOR EACH ROW
+EXECUTE PROCEDURE friend_count_func();
+
+SELECT refresh_friend_count();
@@ -1,121 +1,53 @@
+-- Indexes follow the query templates of the application; the primary keys
+-- already serve every lookup by userId, (userId, connectionId) and msgId.
+-- Existing databases get the same set from migrations/V1__query_shaped_indexes.sql.
+
 -- ==================================
 -- USR Indexes
 
-CREATE INDEX USR_userId_index
-ON USR 
-USING hash(userId);
-
-CREATE INDEX USR_password_index
-ON USR 
-USING hash(password);
-
-CREATE INDEX USR_email_index
-ON USR 
-USING hash(email);
-
-CREATE INDEX USR_name_index
-ON USR 
-USING btree(userId);
+-- substring and fuzzy name search (PeopleSearch)
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
 
-CREATE INDEX USR_dateOfBirth_index
-ON USR 
-USING hash(dateOfBirth);
+CREATE INDEX USR_name_trgm_index
+ON USR
+USING gin(lower(name) gin_trgm_ops);
 
 -- ===================================
--- WORK_EXPR Indexes
-
-CREATE INDEX WORK_EXPR_userId_index
-ON WORK_EXPR
-USING hash(userId);
-
-CREATE INDEX WORK_EXPR_company_index
-ON WORK_EXPR
-USING hash(company);
-
-CREATE INDEX WORK_EXPR_role_index
-ON WORK_EXPR
-USING hash(role);
-
-CREATE INDEX WORK_EXPR_location_index
-ON WORK_EXPR
-USING hash(location);
-
-CREATE INDEX WORK_EXPR_startDate_index
-ON WORK_EXPR
-USING btree(startDate);
-
-CREATE INDEX WORK_EXPR_endDate_index
-ON WORK_EXPR
-USING btree(endDate);
-
--- ===================================
--- EDUCATIONAL_DETAILS
-
-CREATE INDEX EDUCATIONAL_DETAILS_userId_index
-ON EDUCATIONAL_DETAILS
-USING hash(userId);
-
-CREATE INDEX EDUCATIONAL_DETAILS_institutionName_index
-ON EDUCATIONAL_DETAILS
-USING btree(institutionName);
-
-CREATE INDEX EDUCATIONAL_DETAILS_major_index
-ON EDUCATIONAL_DETAILS
-USING hash(major);
-
-CREATE INDEX EDUCATIONAL_DETAILS_degree_index
-ON EDUCATIONAL_DETAILS
-USING hash(degree);
-
-CREATE INDEX EDUCATIONAL_DETAILS_startdate_index
-ON EDUCATIONAL_DETAILS
-USING btree(startdate);
-
-CREATE INDEX EDUCATIONAL_DETAILS_enddate_index
-ON EDUCATIONAL_DETAILS
-USING btree(enddate);
+-- WORK_EXPR and EDUCATIONAL_DETAILS are written by userId, the first
+-- column of their primary keys; the uid indexes the profile page reads
+-- them by come with migrations/V5__child_table_uids.sql
 
 -- ===================================
 -- MESSAGE
 
-CREATE INDEX MESSAGE_msgId_index
-ON MESSAGE
-USING hash(msgId);
-
-CREATE INDEX MESSAGE_senderId_index
-ON MESSAGE
-USING hash(senderId);
-
-CREATE INDEX MESSAGE_receiverId_index
+-- inbox pages seek on (sendTime, msgId) within one receiver or sender,
+-- over the messages that side has not deleted (see Inbox.PAGE_QUERY)
+CREATE INDEX MESSAGE_receiver_inbox_index
 ON MESSAGE
-USING hash(receiverId);
+USING btree(receiverId, sendTime, msgId)
+WHERE deleteStatus IN (1, 3);
 
-CREATE INDEX MESSAGE_sendTime_index
+CREATE INDEX MESSAGE_sender_inbox_index
 ON MESSAGE
-USING btree(sendTime);
-
-CREATE INDEX MESSAGE_deleteStatus_index
-ON MESSAGE
-USING hash(deleteStatus);
-
-CREATE INDEX MESSAGE_status_index
-ON MESSAGE
-USING hash(status);
+USING btree(senderId, sendTime, msgId)
+WHERE deleteStatus IN (2, 3);
 
 -- ===================================
 -- CONNECTION_USR
 
-CREATE INDEX CONNECTION_USR_userId_index
+-- accepted connections in both directions (FriendList, Profile, SocialGraph)
+CREATE INDEX CONNECTION_USR_accept_out_index
 ON CONNECTION_USR
-USING hash(userId);
+USING btree(userId, connectionId)
+WHERE status = 'Accept';
 
-CREATE INDEX CONNECTION_USR_connectionId_index
+CREATE INDEX CONNECTION_USR_accept_in_index
 ON CONNECTION_USR
-USING hash(connectionId);
+USING btree(connectionId, userId)
+WHERE status = 'Accept';
 
-CREATE INDEX CONNECTION_USR_status_index
+-- requests waiting for an answer from connectionId (ViewRequests)
+CREATE INDEX CONNECTION_USR_request_in_index
 ON CONNECTION_USR
-USING hash(status);
-
-
-
+USING btree(connectionId, userId)
+WHERE status = 'Request';
@@ -1,8 +1,14 @@
+-- the migration state goes with the tables it describes, so sql/migrations
+-- is applied again from V1 to the new tables
+DROP TABLE IF EXISTS SCHEMA_VERSION;
+DROP TABLE IF EXISTS CONNECTION_CHANGE;
+DROP TABLE IF EXISTS FRIEND_COUNT;
 DROP TABLE IF EXISTS WORK_EXPR;
 DROP TABLE IF EXISTS EDUCATIONAL_DETAILS;
 DROP TABLE IF EXISTS MESSAGE;
 DROP TABLE IF EXISTS CONNECTION_USR;
 DROP TABLE IF EXISTS USR;
+DROP SEQUENCE IF EXISTS msgId_seq;
 
 
 CREATE TABLE USR(
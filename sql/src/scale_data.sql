@@ -0,0 +1,38 @@
+-- Scales a database loaded from data/*.csv up by a factor, for benchmarks.
+-- Every user, with their education, work history and connections, is
+-- copied (scale - 1) times with the copy number appended to the user id
+-- ("Giovani" -> "Giovani~2"), so each copy is a disjoint replica of the
+-- original network. Accepted connections also get :messages messages in
+-- each direction so the inboxes are not empty.
+--
+-- psql -v scale=10 -v messages=5 <db> < scale_data.sql
+
+INSERT INTO USR (userId, password, email, name, dateOfBirth)
+SELECT U.userId || '~' || g, U.password, U.email, U.name, U.dateOfBirth
+FROM USR U, generate_series(2, :scale) g;
+
+INSERT INTO WORK_EXPR (userId, company, role, location, startDate, endDate)
+SELECT trim(W.userId) || '~' || g, W.company, W.role, W.location, W.startDate, W.endDate
+FROM WORK_EXPR W, generate_series(2, :scale) g;
+
+INSERT INTO EDUCATIONAL_DETAILS (userId, institutionName, major, degree, startdate, enddate)
+SELECT trim(E.userId) || '~' || g, E.institutionName, E.major, E.degree, E.startdate, E.enddate
+FROM EDUCATIONAL_DETAILS E, generate_series(2, :scale) g;
+
+-- FRIEND_COUNT is filled by migrations/V8 once the copies are in
+INSERT INTO CONNECTION_USR (userId, connectionId, status)
+SELECT trim(C.userId) || '~' || g, trim(C.connectionId) || '~' || g, C.status
+FROM CONNECTION_USR C, generate_series(2, :scale) g;
+
+-- msgId_seq hands out blocks of 1000, so the copies are numbered past the
+-- highest id and the sequence is moved beyond them afterwards
+INSERT INTO MESSAGE (msgId, senderId, receiverId, contents, sendTime, deleteStatus, status)
+SELECT (SELECT COALESCE(MAX(msgId), 27811) FROM MESSAGE) + row_number() OVER (), S.senderId, S.receiverId, 'benchmark message ' || k,
+       now() - k * interval '1 minute', 3, 'Delivered'
+FROM (SELECT userId AS senderId, connectionId AS receiverId FROM CONNECTION_USR WHERE status = 'Accept'
+      UNION ALL
+      SELECT connectionId, userId FROM CONNECTION_USR WHERE status = 'Accept') S,
+     generate_series(1, :messages) k;
+SELECT setval('msgId_seq', (SELECT MAX(msgId) FROM MESSAGE));
+
+ANALYZE;
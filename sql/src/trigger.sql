@@ -1,17 +1,4 @@
-CREATE SEQUENCE msgId_seq START WITH 27812;
+-- msgIds are assigned by the application: every nextval reserves a block
+-- of 1000 ids (IdAllocator), so MESSAGE needs no per-row trigger.
+CREATE SEQUENCE msgId_seq START WITH 27812 INCREMENT BY 1000;
 
-CREATE OR REPLACE FUNCTION func()
-        RETURNS "trigger" AS
-        $BODY$
-        BEGIN
-
-        NEW.msgId := nextval('msgId_seq');
-        RETURN NEW;
-
-        END
-        $BODY$
-        LANGUAGE plpgsql VOLATILE;
-
-CREATE TRIGGER name BEFORE INSERT
-ON MESSAGE FOR EACH ROW
-EXECUTE PROCEDURE func();